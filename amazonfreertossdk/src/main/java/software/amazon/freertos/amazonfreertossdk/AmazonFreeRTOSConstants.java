@@ -55,6 +55,11 @@ public class AmazonFreeRTOSConstants {
     public static final int MQTT_MSG_PINGREQ = 12;
     public static final int MQTT_MSG_PINGRESP = 13;
     public static final int MQTT_MSG_DISCONNECT = 14;
+    /**
+     * An envelope holding several MQTT proxy messages, each encoded as a CBOR byte string in
+     * the "x" array. Only exchanged once batching has been negotiated through CONNECT and CONNACK.
+     */
+    public static final int MQTT_MSG_BATCH = 16;
 
     public static final int LIST_NETWORK_REQ = 1;
     public static final int LIST_NETWORK_RESP = 2;
@@ -77,6 +82,66 @@ public class AmazonFreeRTOSConstants {
         BLE_INITIALIZING   // = 5
     }
 
+    /**
+     * The lanes of the BLE command scheduler, together with the default weight of each lane.
+     * MQTT_CONTROL carries small MQTT control frames (CONNACK, PUBACK, SUBACK, UNSUBACK and
+     * PINGRESP) and is served with strict priority over all other lanes, so these frames only wait
+     * for the chunk currently being written. CONTROL carries service discovery, MTU requests,
+     * notification enabling and writes to the control characteristics. DEVICE_INFO carries reads
+     * of the device information service. NETWORK_CONFIG carries WiFi provisioning messages.
+     * MQTT_BULK carries the other MQTT proxy messages.
+     */
+    public enum BleCommandLane {
+        MQTT_CONTROL(1, true),
+        CONTROL(4, false),
+        DEVICE_INFO(2, false),
+        NETWORK_CONFIG(2, false),
+        MQTT_BULK(1, false);
+
+        private final int defaultWeight;
+        private final boolean strictPriority;
+
+        BleCommandLane(int weight, boolean strict) {
+            defaultWeight = weight;
+            strictPriority = strict;
+        }
+
+        public int getDefaultWeight() {
+            return defaultWeight;
+        }
+
+        public boolean isStrictPriority() {
+            return strictPriority;
+        }
+    }
+
+    /**
+     * The LE PHY the SDK asks for after connecting to a device. DEFAULT leaves the PHY chosen by
+     * the Bluetooth stack. PREFER_2M asks for the 2M PHY, which doubles the raw link rate.
+     * PREFER_CODED asks for the coded PHY, which extends the range at a lower rate. AUTO lets the
+     * Bluetooth stack pick between 2M and 1M, and switches to the coded PHY once the link has been
+     * lost AUTO_PHY_CODED_LINK_LOSSES times since the app connected, as a device that keeps
+     * dropping is likely at the edge of its range. PHY preferences require Android 8.0; on older
+     * versions the policy is ignored.
+     */
+    public enum PhyPolicy {
+        DEFAULT,
+        PREFER_2M,
+        PREFER_CODED,
+        AUTO
+    }
+
+    /**
+     * How the SDK negotiates the ATT MTU with the device. DEVICE_ADVERTISED reads the MTU from the
+     * device information service first, and then requests that value. UP_FRONT requests
+     * MAX_ATT_MTU right after service discovery, while the device information is being read, and
+     * then uses the smaller of the negotiated and the advertised value.
+     */
+    public enum MtuNegotiationMode {
+        DEVICE_ADVERTISED,
+        UP_FRONT
+    }
+
     public enum AmazonFreeRTOSError {
         BLE_DISCONNECTED_ERROR
     }
@@ -106,6 +171,148 @@ public class AmazonFreeRTOSConstants {
      */
     public static final int BLE_COMMAND_TIMEOUT = 3000; //ms
 
+    /**
+     * Once round trip times have been measured, the timeout of each BLE command is derived from
+     * them, bounded by this floor and ceiling. BLE_COMMAND_TIMEOUT is used until then. The floor
+     * leaves room for a few connection intervals and for the device to be briefly busy.
+     */
+    public static final int BLE_COMMAND_TIMEOUT_FLOOR = 1500; //ms
+    public static final int BLE_COMMAND_TIMEOUT_CEILING = 10000; //ms
+
+    /**
+     * When the Bluetooth stack refuses a BLE command, e.g. because it is still busy with a command
+     * that timed out, the command is retried after this delay, up to this many times, before it
+     * is dropped.
+     */
+    public static final int BLE_COMMAND_RETRY_DELAY = 200; //ms
+    public static final int BLE_COMMAND_MAX_RETRIES = 3;
+
+    /**
+     * With auto reconnect enabled, the first reconnect attempt is made immediately. If the link
+     * drops again before it is reestablished, the SDK waits RECONNECT_BACKOFF_INITIAL before the
+     * next attempt, doubling the wait on every further attempt up to RECONNECT_BACKOFF_MAX.
+     */
+    public static final int RECONNECT_BACKOFF_INITIAL = 1000; //ms
+    public static final int RECONNECT_BACKOFF_MAX = 30000; //ms
+
+    /**
+     * With the AUTO PHY policy, the number of times the link may be lost since the app connected
+     * before the SDK asks for the coded PHY.
+     */
+    public static final int AUTO_PHY_CODED_LINK_LOSSES = 2;
+
+    /**
+     * The connection priority is raised to high once this many bytes have gone through the
+     * RXLARGE or TXLARGE characteristics, or this many BLE commands are pending. It is dropped
+     * back once the link has been idle for CONNECTION_PRIORITY_IDLE_TIMEOUT.
+     */
+    public static final int CONNECTION_PRIORITY_RAISE_BYTES = 1024;
+    public static final int CONNECTION_PRIORITY_RAISE_DEPTH = 8;
+    public static final int CONNECTION_PRIORITY_IDLE_TIMEOUT = 2000; //ms
+
+    /**
+     * The largest ATT MTU allowed by the Bluetooth specification. It is requested right after
+     * service discovery when the MTU negotiation mode is UP_FRONT.
+     */
+    public static final int MAX_ATT_MTU = 517;
+
+    /**
+     * The ATT MTU of a link before any MTU exchange. It is used when neither the negotiated nor
+     * the advertised MTU can be obtained.
+     */
+    public static final int DEFAULT_ATT_MTU = 23;
+
+    /**
+     * The number of messages that may be held back until the MTU is final. Messages sent while
+     * it is reached are dropped.
+     */
+    public static final int MAX_PENDING_SENDS = 64;
+
+    /**
+     * When TXLARGE streaming is enabled, the device can push a large message as successive
+     * notifications instead of having it read chunk by chunk. The first notification starts with
+     * this marker byte followed by the total message length as a 4 byte big endian integer.
+     */
+    public static final byte TXLARGE_STREAM_HEADER_MARKER = 0x00;
+    public static final int TXLARGE_STREAM_HEADER_SIZE = 5;
+
+    /**
+     * A streamed TXLARGE message that receives no notification for this amount of time is
+     * dropped, so that the next message from the device is not appended to it.
+     */
+    public static final int TXLARGE_STREAM_STALL_TIMEOUT = 5000; //ms
+
+    /**
+     * The largest MQTT proxy message accepted from a MqttProxyTransport. A larger length prefix
+     * means the stream is corrupt, and the transport is closed.
+     */
+    public static final int MQTT_PROXY_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * The number of MQTT proxy messages that may wait for the writer thread of a
+     * MqttProxyTransport. Messages sent while it is full go through GATT.
+     */
+    public static final int MQTT_PROXY_SEND_QUEUE_CAPACITY = 64;
+
+    /**
+     * Capability bits exchanged in the "z" key of CONNECT and CONNACK. The device offers the
+     * capabilities it supports, and the SDK echoes back those it accepted.
+     */
+    public static final int MQTT_PROXY_CAPABILITY_BATCHING = 1;
+
+    /**
+     * Default time a small MQTT proxy message sent to the device may wait for other messages to
+     * be batched with it.
+     */
+    public static final int MQTT_BATCH_LINGER_TIME = 20; //ms
+
+    /**
+     * Default limits of the buffers large messages from the device are reassembled in. A message
+     * larger than TXLARGE_MAX_MESSAGE_SIZE is dropped, as is a message that would take the heap
+     * buffers of all messages being reassembled for one device over TXLARGE_MAX_DEVICE_SIZE.
+     * A message larger than TXLARGE_SPILL_THRESHOLD is moved from the heap to a memory-mapped
+     * file in the app's cache dir.
+     */
+    public static final int TXLARGE_MAX_MESSAGE_SIZE = 1024 * 1024;
+    public static final int TXLARGE_MAX_DEVICE_SIZE = 512 * 1024;
+    public static final int TXLARGE_SPILL_THRESHOLD = 64 * 1024;
+
+    /**
+     * In bulk write mode, this is the default number of chunks that may be written without
+     * response before an acknowledged write is used to make sure the device has caught up.
+     */
+    public static final int BULK_WRITE_CREDITS = 8;
+
+    /**
+     * This is the default number of writes without response that the SDK keeps in flight at the
+     * same time. Acknowledged BLE commands are always sent one at a time.
+     */
+    public static final int WRITE_NO_RESPONSE_DEPTH = 4;
+
+    /**
+     * This is the number of notifications from the device that may wait for the event loop of
+     * the device. Notifications received while they are all waiting are dropped.
+     */
+    public static final int NOTIFICATION_RING_CAPACITY = 64;
+
+    /**
+     * This is the default number of devices a manager keeps connected at the same time. Android
+     * fails further GATT connections with status 133, so other devices wait for a free link.
+     */
+    public static final int MAX_CONCURRENT_LINKS = 7;
+
+    /**
+     * In visit mode, this is the default time a device keeps its link while other devices are
+     * waiting for one. 0 disables visit mode, and waiting devices connect once a link is released.
+     */
+    public static final long VISIT_SLICE_TIME = 0; //ms
+
+    /**
+     * The time a device disconnected to give its link to a waiting device may take to report
+     * that it is disconnected, before its link is given away anyway.
+     */
+    public static final long LINK_CLOSE_TIMEOUT = 5000; //ms
+
     public static final String UUID_AmazonFreeRTOS = "8a7f1168-48af-4efb-83b5-e679f932ff00";
 
     public static final String UUID_NETWORK_SERVICE = "a9d7166a-d72e-40a9-a002-48044cc30100";
@@ -129,6 +336,30 @@ public class AmazonFreeRTOSConstants {
     public static final String UUID_DEVICE_PLATFORM = "8a7f1168-48af-4efb-83b5-e679f932ff04";
     public static final String UUID_DEVICE_ID = "8a7f1168-48af-4efb-83b5-e679f932ff05";
 
+    /**
+     * Handles of the characteristics used by the SDK. CharacteristicRegistry resolves them once
+     * services are discovered, so that BLE commands and notifications refer to a characteristic
+     * by handle instead of by UUID string. NO_CHARACTERISTIC is the handle of commands that are
+     * not bound to a characteristic, and of characteristics the SDK does not use.
+     */
+    public static final int NO_CHARACTERISTIC = -1;
+    public static final int CHARACTERISTIC_NETWORK_CONTROL = 0;
+    public static final int CHARACTERISTIC_NETWORK_TX = 1;
+    public static final int CHARACTERISTIC_NETWORK_RX = 2;
+    public static final int CHARACTERISTIC_NETWORK_TXLARGE = 3;
+    public static final int CHARACTERISTIC_NETWORK_RXLARGE = 4;
+    public static final int CHARACTERISTIC_MQTT_PROXY_CONTROL = 5;
+    public static final int CHARACTERISTIC_MQTT_PROXY_TX = 6;
+    public static final int CHARACTERISTIC_MQTT_PROXY_RX = 7;
+    public static final int CHARACTERISTIC_MQTT_PROXY_TXLARGE = 8;
+    public static final int CHARACTERISTIC_MQTT_PROXY_RXLARGE = 9;
+    public static final int CHARACTERISTIC_DEVICE_VERSION = 10;
+    public static final int CHARACTERISTIC_IOT_ENDPOINT = 11;
+    public static final int CHARACTERISTIC_DEVICE_MTU = 12;
+    public static final int CHARACTERISTIC_DEVICE_PLATFORM = 13;
+    public static final int CHARACTERISTIC_DEVICE_ID = 14;
+    public static final int CHARACTERISTIC_COUNT = 15;
+
     public static final Map<String, String> uuidToName = new HashMap<String, String>() {
         {
             put(UUID_NETWORK_CONTROL, "NETWORK_CONTROL");
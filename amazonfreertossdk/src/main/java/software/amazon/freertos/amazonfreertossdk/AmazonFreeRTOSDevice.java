@@ -15,6 +15,7 @@
 
 package software.amazon.freertos.amazonfreertossdk;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
@@ -26,13 +27,17 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import software.amazon.freertos.amazonfreertossdk.deviceinfo.BrokerEndpoint;
 import software.amazon.freertos.amazonfreertossdk.deviceinfo.Mtu;
 import software.amazon.freertos.amazonfreertossdk.deviceinfo.Version;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.mobileconnectors.iot.AWSIotMqttClientStatusCallback;
@@ -41,21 +46,19 @@ import com.amazonaws.mobileconnectors.iot.AWSIotMqttMessageDeliveryCallback;
 import com.amazonaws.mobileconnectors.iot.AWSIotMqttNewMessageCallback;
 import com.amazonaws.mobileconnectors.iot.AWSIotMqttQos;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
-import java.util.Arrays;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import lombok.Getter;
 import lombok.NonNull;
@@ -67,7 +70,6 @@ import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.*;
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.AmazonFreeRTOSError.BLE_DISCONNECTED_ERROR;
 import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.DISCOVER_SERVICES;
-import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.NOTIFICATION;
 import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.READ_CHARACTERISTIC;
 import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.REQUEST_MTU;
 import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.WRITE_CHARACTERISTIC;
@@ -85,34 +87,81 @@ public class AmazonFreeRTOSDevice {
     private BleConnectionStatusCallback mBleConnectionStatusCallback;
     private NetworkConfigCallback mNetworkConfigCallback;
     private DeviceInfoCallback mDeviceInfoCallback;
-    private BleConnectionState mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
+    private volatile BleConnectionState mBleConnectionState = BleConnectionState.BLE_DISCONNECTED;
     private String mAmazonFreeRTOSLibVersion = "NA";
     private String mAmazonFreeRTOSDeviceType = "NA";
     private String mAmazonFreeRTOSDeviceId = "NA";
     private boolean mGattAutoReconnect = false;
+    private LinkListener mLinkListener;
+    private PhyPolicy mPhyPolicy = PhyPolicy.DEFAULT;
     private BroadcastReceiver mBondStateCallback = null;
+    private int mReconnectAttempts = 0;
+    /**
+     * Number of times the link was lost since the app connected, across reconnects.
+     */
+    private int mLinkLosses = 0;
+    private HashedWheelTimer.Timeout mReconnectTimeout;
     private int mMtu = 0;
-
-    private boolean rr = false;
-    private Queue<BleCommand> mMqttQueue = new LinkedList<>();
-    private Queue<BleCommand> mNetworkQueue = new LinkedList<>();
-    private Queue<BleCommand> mIncomingQueue = new LinkedList<>();
-    private boolean mBleOperationInProgress = false;
-    private boolean mRWinProgress = false;
-    private Handler mHandler;
-    private HandlerThread mHandlerThread;
-    private byte[] mValueWritten;
-    private Semaphore mutex = new Semaphore(1);
-    private Semaphore mIncomingMutex = new Semaphore(1);
+    private MtuNegotiationMode mMtuNegotiationMode = MtuNegotiationMode.DEVICE_ADVERTISED;
+    private int mNegotiatedMtu = 0;
+    private int mAdvertisedMtu = 0;
+    private boolean mMtuFinal = false;
+    private long mConnectedTime = 0;
+    private long mTimeToMtu = -1;
+    //Messages sent before the MTU is final, so before they can be broken down into packets.
+    private List<Runnable> mPendingSends = new LinkedList<>();
+
+    private BleCommandScheduler mScheduler = new WeightedRoundRobinScheduler();
+    private CharacteristicRegistry mCharacteristics = new CharacteristicRegistry();
+    //Notifications from the device, added on the Binder thread and drained on the event loop.
+    private final NotificationRing mNotifications = new NotificationRing(NOTIFICATION_RING_CAPACITY);
+    private final AtomicBoolean mNotificationDrainPosted = new AtomicBoolean(false);
+    private long mLoggedNotificationDrops = 0;
+    private List<BleCommand> mInFlight = new LinkedList<>();
+    private int mWriteNoResponseDepth = WRITE_NO_RESPONSE_DEPTH;
+    //Event loop of the device. The GATT state, i.e. the scheduler, the operations in flight, the
+    //consumer side of the notification ring and the MTU, is only read and changed by tasks
+    //running on it.
+    private volatile Handler mHandler;
+    private HashedWheelTimer mTimer = HashedWheelTimer.getInstance();
+    //The event loops shared with the other devices of the manager.
+    private final EventLoopPool mEventLoops;
 
     //Buffer for receiving messages from device
-    private ByteArrayOutputStream mTxLargeObject = new ByteArrayOutputStream();
-    private ByteArrayOutputStream mTxLargeNw = new ByteArrayOutputStream();
+    private MessageReassembler.Limits mReassemblyLimits = new MessageReassembler.Limits(
+            TXLARGE_MAX_MESSAGE_SIZE, TXLARGE_MAX_DEVICE_SIZE, TXLARGE_SPILL_THRESHOLD);
+    private MessageReassembler mTxLargeObject;
+    private MessageReassembler mTxLargeNw;
+    //Reassembly of large messages streamed by the device as notifications.
+    private boolean mTxLargeStreaming = false;
+    private TxLargeStream mMqttTxLargeStream;
+    private TxLargeStream mNwTxLargeStream;
+    //Routing of the messages received from the device to the handler of their type.
+    private MessageDispatcher mMqttDispatcher = new MessageDispatcher("Mqtt");
+    private MessageDispatcher mNetworkDispatcher = new MessageDispatcher("Network");
+    //Alternative transport for MQTT proxy messages, GATT is used while it is not open.
+    private int mL2capPsm = 0;
+    private volatile MqttProxyTransport mMqttTransport;
+    //Batching of small MQTT proxy messages, used once the device has accepted it in CONNACK.
+    private boolean mMqttBatchingEnabled = false;
+    private int mMqttCapabilities = 0;
+    private volatile boolean mMqttBatching = false;
+    private MessageBatcher mMqttBatcher;
+    //Topic aliases of the PUBLISH messages sent to and received from the device.
+    private int mMqttTopicAliasMaximum = 0;
+    private TopicAliasTable mDownlinkTopicAliases = new TopicAliasTable();
+    private TopicAliasTable mUplinkTopicAliases = new TopicAliasTable();
     //Buffer for sending messages to device.
-    private int mTotalPackets = 0;
-    private int mPacketCount = 1;
+    private FragmentBufferPool mFragmentBuffers = new FragmentBufferPool();
     private int mMessageId = 0;
     private int mMaxPayloadLen = 0;
+    //Bulk write mode for messages sent through RXLARGE.
+    private boolean mBulkWriteEnabled = false;
+    private int mBulkWriteCredits = BULK_WRITE_CREDITS;
+    private final BulkWriteStats mBulkWriteStats = new BulkWriteStats();
+    private RttEstimator mRttEstimator = new RttEstimator();
+    private ConnectionPriorityGovernor mPriorityGovernor = new ConnectionPriorityGovernor();
+    private HashedWheelTimer.Timeout mPriorityIdleCheck;
 
     private AWSIotMqttManager mIotMqttManager;
     private MqttConnectionState mMqttConnectionState = MqttConnectionState.MQTT_Disconnected;
@@ -129,9 +178,11 @@ public class AmazonFreeRTOSDevice {
      * @param cp      AWS credential for connection to AWS IoT. If null is passed in,
      *                then it will not be able to do MQTT proxy over BLE as it cannot
      *                connect to AWS IoT.
+     * @param eventLoops the pool the event loop of the device is taken from.
      */
-    AmazonFreeRTOSDevice(@NonNull BluetoothDevice device, @NonNull Context context, AWSCredentialsProvider cp) {
-        this(device, context, cp, null);
+    AmazonFreeRTOSDevice(@NonNull BluetoothDevice device, @NonNull Context context, AWSCredentialsProvider cp,
+                         @NonNull EventLoopPool eventLoops) {
+        this(device, context, cp, null, eventLoops);
     }
 
     /**
@@ -141,49 +192,162 @@ public class AmazonFreeRTOSDevice {
      *                of AmazonFreeRTOSDevice.
      * @param device  BluetoothDevice returned from BLE scan result.
      * @param ks      the KeyStore which contains the certificate used to connect to AWS IoT.
+     * @param eventLoops the pool the event loop of the device is taken from.
      */
-    AmazonFreeRTOSDevice(@NonNull BluetoothDevice device, @NonNull Context context, KeyStore ks) {
-        this(device, context, null, ks);
+    AmazonFreeRTOSDevice(@NonNull BluetoothDevice device, @NonNull Context context, KeyStore ks,
+                         @NonNull EventLoopPool eventLoops) {
+        this(device, context, null, ks, eventLoops);
     }
 
     private AmazonFreeRTOSDevice(@NonNull BluetoothDevice device, @NonNull Context context,
-                                 AWSCredentialsProvider cp, KeyStore ks) {
+                                 AWSCredentialsProvider cp, KeyStore ks, EventLoopPool eventLoops) {
+        mEventLoops = eventLoops;
         mContext = context;
         mBluetoothDevice = device;
         mAWSCredential = cp;
         mKeystore = ks;
+        ReassemblyBufferPool pool = ReassemblyBufferPool.getInstance();
+        File spillDir = context.getCacheDir();
+        mTxLargeObject = new MessageReassembler("MQTT TXLARGE", pool, mReassemblyLimits, spillDir);
+        mTxLargeNw = new MessageReassembler("NW TXLARGE", pool, mReassemblyLimits, spillDir);
+        // On the event loop, where messages are batched and notifications are reassembled.
+        MessageBatcher.Scheduler eventLoopScheduler = new MessageBatcher.Scheduler() {
+            @Override
+            public HashedWheelTimer.Timeout schedule(Runnable task, long delayMillis) {
+                return scheduleOnHandler(task, delayMillis);
+            }
+        };
+        mMqttTxLargeStream = new TxLargeStream(new MessageReassembler("MQTT TXLARGE stream", pool,
+                mReassemblyLimits, spillDir), eventLoopScheduler);
+        mNwTxLargeStream = new TxLargeStream(new MessageReassembler("NW TXLARGE stream", pool,
+                mReassemblyLimits, spillDir), eventLoopScheduler);
+        mMqttBatcher = new MessageBatcher(new MessageBatcher.Sink() {
+            @Override
+            public void send(FrameSource frame) {
+                sendDataToDevice(CHARACTERISTIC_MQTT_PROXY_RX, CHARACTERISTIC_MQTT_PROXY_RXLARGE, frame);
+            }
+        }, eventLoopScheduler, MQTT_BATCH_LINGER_TIME);
+        registerMqttMessageHandlers();
+        registerNetworkMessageHandlers();
     }
 
     void connect(@NonNull final BleConnectionStatusCallback connectionStatusCallback,
-                 final boolean autoReconnect) {
-        mBleConnectionStatusCallback = connectionStatusCallback;
-        mHandlerThread = new HandlerThread("BleCommandHandler"); //TODO: unique thread name for each device?
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
-        mGattAutoReconnect = autoReconnect;
-        mBluetoothGatt = mBluetoothDevice.connectGatt(mContext, false, mGattCallback, TRANSPORT_LE);
+                 final boolean autoReconnect, @NonNull final PhyPolicy phyPolicy) {
+        // A device is always hashed to the same loop, but the loop is restarted if every device
+        // released it since the last connection.
+        Looper looper = mEventLoops.acquire(mBluetoothDevice.getAddress());
+        if (mHandler == null || mHandler.getLooper() != looper) {
+            mHandler = new Handler(looper);
+        }
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                mBleConnectionStatusCallback = connectionStatusCallback;
+                mPhyPolicy = phyPolicy;
+                mLinkLosses = 0;
+                mGattAutoReconnect = autoReconnect;
+                mBluetoothGatt = mBluetoothDevice.connectGatt(mContext, false, mGattCallback,
+                        TRANSPORT_LE);
+            }
+        });
+    }
+
+    /**
+     * Run a task on the event loop of the device. Tasks posted from other threads run one at a
+     * time, in the order they were posted, so the GATT state needs no locks. A task posted from
+     * the event loop runs right away. Before the device is connected there is no event loop, and
+     * tasks run on the calling thread.
+     *
+     * @param task the task.
+     */
+    private void runOnEventLoop(final Runnable task) {
+        Handler handler = mHandler;
+        if (handler == null || Looper.myLooper() == handler.getLooper()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
     }
 
     private void cleanUp() {
         // If ble connection is lost, clear any pending ble command.
-        mMqttQueue.clear();
-        mNetworkQueue.clear();
-        mIncomingQueue.clear();
+        mScheduler.clear();
+        mNotifications.clear();
+        mCharacteristics.clear();
         mMessageId = 0;
         mMtu = 0;
         mMaxPayloadLen = 0;
-        mTxLargeObject.reset();
-        mTotalPackets = 0;
-        mPacketCount = 1;
+        mNegotiatedMtu = 0;
+        mAdvertisedMtu = 0;
+        mMtuFinal = false;
+        mPendingSends.clear();
+        mTxLargeObject.release();
+        mTxLargeNw.release();
+        mMqttTxLargeStream.reset();
+        mNwTxLargeStream.reset();
+        mMqttBatching = false;
+        mMqttBatcher.clear();
+        mDownlinkTopicAliases.reset(0);
+        mUplinkTopicAliases.reset(0);
+        if (mMqttTransport != null) {
+            mMqttTransport.close();
+            mMqttTransport = null;
+        }
+        for (BleCommand bleCommand : mInFlight) {
+            bleCommand.getTimeout().cancel();
+        }
+        mInFlight.clear();
     }
 
     /**
-     * User initiated disconnect
+     * User initiated disconnect. The event loop keeps handling the callbacks of this device
+     * until the link is closed, then it is released.
      */
     void disconnect() {
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                disconnectGatt();
+            }
+        });
+    }
+
+    /**
+     * Told when the GATT client of the device is closed, i.e. when the device stops holding a
+     * link, whether the app disconnected it or it was not reconnected.
+     */
+    interface LinkListener {
+        void onLinkClosed();
+    }
+
+    void setLinkListener(LinkListener listener) {
+        mLinkListener = listener;
+    }
+
+    private void closeGatt(BluetoothGatt gatt) {
+        gatt.close();
+        mBluetoothGatt = null;
+        // No more GATT callbacks come once the client is closed.
+        mEventLoops.release(mBluetoothDevice.getAddress());
+        LinkListener listener = mLinkListener;
+        if (listener != null) {
+            listener.onLinkClosed();
+        }
+    }
+
+    private void disconnectGatt() {
         if (mBluetoothGatt != null) {
             mGattAutoReconnect = false;
-            mBluetoothGatt.disconnect();
+            if (mReconnectTimeout != null && mReconnectTimeout.cancel()) {
+                // Waiting to reconnect, so there is no link and no disconnect callback to wait for.
+                mReconnectTimeout = null;
+                closeGatt(mBluetoothGatt);
+            } else {
+                mBluetoothGatt.disconnect();
+            }
+        } else {
+            // The GATT client could not be created, so there is no link to close.
+            mEventLoops.release(mBluetoothDevice.getAddress());
         }
     }
 
@@ -208,7 +372,7 @@ public class AmazonFreeRTOSDevice {
     public void listNetworks(ListNetworkReq listNetworkReq, NetworkConfigCallback callback) {
         mNetworkConfigCallback = callback;
         byte[] listNetworkReqBytes = listNetworkReq.encode();
-        sendDataToDevice(UUID_NETWORK_SERVICE, UUID_NETWORK_RX, UUID_NETWORK_RXLARGE, listNetworkReqBytes);
+        sendDataToDevice(CHARACTERISTIC_NETWORK_RX, CHARACTERISTIC_NETWORK_RXLARGE, listNetworkReqBytes);
     }
 
     /**
@@ -222,7 +386,7 @@ public class AmazonFreeRTOSDevice {
     public void saveNetwork(SaveNetworkReq saveNetworkReq, NetworkConfigCallback callback) {
         mNetworkConfigCallback = callback;
         byte[] saveNetworkReqBytes = saveNetworkReq.encode();
-        sendDataToDevice(UUID_NETWORK_SERVICE, UUID_NETWORK_RX, UUID_NETWORK_RXLARGE, saveNetworkReqBytes);
+        sendDataToDevice(CHARACTERISTIC_NETWORK_RX, CHARACTERISTIC_NETWORK_RXLARGE, saveNetworkReqBytes);
     }
 
     /**
@@ -239,7 +403,7 @@ public class AmazonFreeRTOSDevice {
     public void editNetwork(EditNetworkReq editNetworkReq, NetworkConfigCallback callback) {
         mNetworkConfigCallback = callback;
         byte[] editNetworkReqBytes = editNetworkReq.encode();
-        sendDataToDevice(UUID_NETWORK_SERVICE, UUID_NETWORK_RX, UUID_NETWORK_RXLARGE, editNetworkReqBytes);
+        sendDataToDevice(CHARACTERISTIC_NETWORK_RX, CHARACTERISTIC_NETWORK_RXLARGE, editNetworkReqBytes);
     }
 
     /**
@@ -253,7 +417,7 @@ public class AmazonFreeRTOSDevice {
     public void deleteNetwork(DeleteNetworkReq deleteNetworkReq, NetworkConfigCallback callback) {
         mNetworkConfigCallback = callback;
         byte[] deleteNetworkReqBytes = deleteNetworkReq.encode();
-        sendDataToDevice(UUID_NETWORK_SERVICE, UUID_NETWORK_RX, UUID_NETWORK_RXLARGE, deleteNetworkReqBytes);
+        sendDataToDevice(CHARACTERISTIC_NETWORK_RX, CHARACTERISTIC_NETWORK_RXLARGE, deleteNetworkReqBytes);
     }
 
     /**
@@ -299,11 +463,322 @@ public class AmazonFreeRTOSDevice {
         }
     }
 
+    /**
+     * Enable or disable bulk write mode. Messages that are larger than the max payload size are
+     * written to the device in chunks through the RXLARGE characteristic. In bulk write mode these
+     * chunks are written without response, which saves an ATT round trip per chunk. To make sure
+     * the device is never overrun, every creditWindow-th chunk and the last chunk of each message
+     * are still written with response. If the RXLARGE characteristic does not support write without
+     * response, all chunks are written with response.
+     *
+     * @param enable       Whether to enable bulk write mode.
+     * @param creditWindow The number of chunks that can be written without response before an
+     *                     acknowledged write is required. Must be at least 1.
+     */
+    public void setBulkWriteMode(boolean enable, int creditWindow) {
+        if (creditWindow < 1) {
+            throw new IllegalArgumentException("Credit window must be at least 1");
+        }
+        mBulkWriteEnabled = enable;
+        mBulkWriteCredits = creditWindow;
+    }
+
+    /**
+     * Set the maximum number of writes without response that can be in flight at the same time.
+     * Acknowledged operations, i.e. reads, descriptor writes and writes with response, are always
+     * sent one at a time.
+     *
+     * @param depth The maximum number of writes without response in flight. Must be at least 1.
+     */
+    public void setWriteNoResponseDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        mWriteNoResponseDepth = depth;
+    }
+
+    /**
+     * Replace the scheduler that decides which BLE command is sent to the device next. Pending BLE
+     * commands are moved to the new scheduler.
+     *
+     * @param scheduler The new scheduler.
+     */
+    public void setBleCommandScheduler(@NonNull final BleCommandScheduler scheduler) {
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                BleCommand command;
+                while ((command = mScheduler.poll()) != null) {
+                    scheduler.add(command.getLane(), command);
+                }
+                mScheduler = scheduler;
+            }
+        });
+    }
+
+    /**
+     * Set the weight of a lane of the default WeightedRoundRobinScheduler. A lane with a higher
+     * weight sends more BLE commands in each round while other lanes have pending commands.
+     *
+     * @param lane   The lane.
+     * @param weight The weight of the lane. Must be at least 1.
+     * @throws IllegalStateException if a custom scheduler was set.
+     */
+    public void setLaneWeight(final BleCommandLane lane, final int weight) {
+        final BleCommandScheduler scheduler = mScheduler;
+        if (!(scheduler instanceof WeightedRoundRobinScheduler)) {
+            throw new IllegalStateException("Lane weights require WeightedRoundRobinScheduler");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                ((WeightedRoundRobinScheduler) scheduler).setWeight(lane, weight);
+            }
+        });
+    }
+
+    /**
+     * Get the queue depth and wait time statistics of a scheduler lane. The wait time of the
+     * MQTT_CONTROL lane shows how long MQTT control frames waited behind other traffic.
+     *
+     * @param lane The lane.
+     * @return a snapshot of the statistics of the lane.
+     */
+    public LaneStats getLaneStats(BleCommandLane lane) {
+        return mScheduler.getLaneStats(lane);
+    }
+
+    /**
+     * Enable or disable streamed delivery of large messages from the device. When enabled, a
+     * device that supports it pushes large messages through the TXLARGE characteristics as
+     * successive notifications, and they are reassembled without reading each chunk. Messages
+     * from firmware that does not stream are still read chunk by chunk.
+     *
+     * @param enable Whether to accept streamed large messages. Disabled by default.
+     */
+    public void setTxLargeStreaming(boolean enable) {
+        mTxLargeStreaming = enable;
+    }
+
+    /**
+     * Send MQTT proxy messages through an LE L2CAP connection oriented channel instead of the
+     * GATT characteristics, on phones running Android 10 or later. The channel is opened once the
+     * BLE connection is initialized; until it is open, or if it cannot be opened or fails,
+     * messages are sent through GATT.
+     *
+     * @param psm The PSM the device firmware listens on, or 0 to keep using GATT.
+     */
+    public void setL2capPsm(int psm) {
+        mL2capPsm = psm;
+    }
+
+    /**
+     * Offer to batch small MQTT proxy messages to device firmware that supports it. The device
+     * offers batching in the capabilities of its CONNECT message, and it is used in both
+     * directions once the SDK has accepted it in CONNACK. Several small messages are then packed
+     * into one write to the device, and the device may do the same with its notifications. The
+     * setting applies from the next CONNECT.
+     *
+     * @param enable       Whether to accept batching. Disabled by default.
+     * @param lingerMillis How long in ms a message may wait for other messages to be batched
+     *                     with it. Must be at least 1.
+     */
+    public void setMqttBatching(boolean enable, long lingerMillis) {
+        if (lingerMillis < 1) {
+            throw new IllegalArgumentException("Linger time must be at least 1 ms");
+        }
+        mMqttBatchingEnabled = enable;
+        mMqttBatcher.setLingerMillis(lingerMillis);
+    }
+
+    /**
+     * Offer topic aliases to device firmware that supports them. Like MQTT 5 topic aliases, the
+     * first PUBLISH on a topic assigns it a small integer alias, and later PUBLISH messages on
+     * that topic carry the alias instead of the topic string. The device states the largest
+     * alias it accepts in CONNECT, and the SDK answers with its own maximum in CONNACK. Aliases
+     * are used in both directions and last for one MQTT session. The setting applies from the
+     * next CONNECT.
+     *
+     * @param maximum The largest alias in each direction, which bounds the number of topics
+     *                aliased per session, or 0 to not use topic aliases. At most 65535.
+     */
+    public void setMqttTopicAliasMaximum(int maximum) {
+        if (maximum < 0 || maximum > 0xffff) {
+            throw new IllegalArgumentException("Invalid topic alias maximum: " + maximum);
+        }
+        mMqttTopicAliasMaximum = maximum;
+    }
+
+    /**
+     * Get the topic alias statistics of the PUBLISH messages sent to the device, i.e. the hit
+     * rate of the aliases and the bytes they saved.
+     *
+     * @return the topic aliases of the messages sent to the device.
+     */
+    public TopicAliasTable getDownlinkTopicAliasStats() {
+        return mDownlinkTopicAliases;
+    }
+
+    /**
+     * Get the topic alias statistics of the PUBLISH messages received from the device.
+     *
+     * @return the topic aliases of the messages received from the device.
+     */
+    public TopicAliasTable getUplinkTopicAliasStats() {
+        return mUplinkTopicAliases;
+    }
+
+    /**
+     * Set the limits of the buffers large messages from the device are reassembled in. Messages
+     * over the limits are dropped, so that a misbehaving device cannot exhaust the heap.
+     *
+     * @param maxMessageBytes The largest message accepted, TXLARGE_MAX_MESSAGE_SIZE by default.
+     * @param maxDeviceBytes  The most heap buffer space the messages being reassembled for this
+     *                        device may take, TXLARGE_MAX_DEVICE_SIZE by default. Messages spilled
+     *                        to a file do not count towards it.
+     */
+    public void setReassemblyLimits(int maxMessageBytes, int maxDeviceBytes) {
+        if (maxMessageBytes <= 0 || maxDeviceBytes <= 0) {
+            throw new IllegalArgumentException("Invalid reassembly limits: " + maxMessageBytes
+                    + ", " + maxDeviceBytes);
+        }
+        mReassemblyLimits.set(maxMessageBytes, maxDeviceBytes);
+    }
+
+    /**
+     * Set the size above which a large message from the device is reassembled in a
+     * memory-mapped file in the app's cache dir instead of on the heap. The file is deleted once
+     * the message has been handled.
+     *
+     * @param spillThreshold The size in bytes, TXLARGE_SPILL_THRESHOLD by default.
+     *                       Integer.MAX_VALUE keeps every message on the heap.
+     */
+    public void setReassemblySpillThreshold(int spillThreshold) {
+        mReassemblyLimits.setSpillThreshold(spillThreshold);
+    }
+
+    /**
+     * Handle MQTT proxy messages of a type the SDK does not know, or replace the way the SDK
+     * handles a type. The handler is called on the thread the message is received on, and
+     * decodes the message in the same pass that read its type.
+     *
+     * @param type    The message type, as encoded in the "w" key of the message.
+     * @param handler The handler, or null to drop the messages of this type.
+     */
+    public void registerMqttMessageHandler(int type, MessageDispatcher.Handler handler) {
+        mMqttDispatcher.register(type, handler);
+    }
+
+    /**
+     * Handle network config messages of a type the SDK does not know, or replace the way the
+     * SDK handles a type. The handler is called on the thread the message is received on, and
+     * decodes the message in the same pass that read its type.
+     *
+     * @param type    The message type, as encoded in the "w" key of the message.
+     * @param handler The handler, or null to drop the messages of this type.
+     */
+    public void registerNetworkMessageHandler(int type, MessageDispatcher.Handler handler) {
+        mNetworkDispatcher.register(type, handler);
+    }
+
+    /**
+     * Set how the MTU is negotiated with the device. The mode is used from the next service
+     * discovery on, so it should be set right after AmazonFreeRTOSManager#connectToDevice.
+     * In UP_FRONT mode the largest MTU is requested as soon as the services are discovered.
+     *
+     * @param mode The MTU negotiation mode, DEVICE_ADVERTISED by default.
+     */
+    public void setMtuNegotiationMode(@NonNull MtuNegotiationMode mode) {
+        mMtuNegotiationMode = mode;
+    }
+
+    /**
+     * Get the time in ms it took from the connection being established to the MTU being final.
+     *
+     * @return the time to MTU of the current connection, or -1 if the MTU is not final yet.
+     */
+    public long getTimeToMtu() {
+        return mMtuFinal ? mTimeToMtu : -1;
+    }
+
+    /**
+     * Set the connection priority the link returns to when it is idle. The SDK raises the link to
+     * BluetoothGatt.CONNECTION_PRIORITY_HIGH while a bulk transfer is under way, and drops it back
+     * to the idle priority once no BLE command has been pending for idleMillis.
+     *
+     * @param idlePriority BluetoothGatt.CONNECTION_PRIORITY_BALANCED or
+     *                     BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER.
+     * @param idleMillis   How long in ms the link has to be idle before the priority is dropped.
+     */
+    public void setConnectionPriorityPolicy(int idlePriority, long idleMillis) {
+        if (idlePriority != BluetoothGatt.CONNECTION_PRIORITY_BALANCED
+                && idlePriority != BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER) {
+            throw new IllegalArgumentException("Invalid idle priority: " + idlePriority);
+        }
+        mPriorityGovernor.setIdlePolicy(idlePriority, idleMillis);
+    }
+
+    /**
+     * Get the connection priority governor of this device, which counts the time the link spent
+     * in each connection priority.
+     *
+     * @return the connection priority governor.
+     */
+    public ConnectionPriorityGovernor getConnectionPriorityGovernor() {
+        return mPriorityGovernor;
+    }
+
+    /**
+     * Get the round trip time estimates of this device. The timeout of each BLE command is derived
+     * from the estimate of its type. The bounds of the timeouts can be changed through
+     * RttEstimator#setBounds.
+     *
+     * @return the round trip time estimator of this device.
+     */
+    public RttEstimator getRttEstimator() {
+        return mRttEstimator;
+    }
+
+    /**
+     * Get the statistics of the notifications received from the device, i.e. the depth of the
+     * ring they wait in for the event loop and the number dropped because it was full.
+     *
+     * @return the notification ring of this device.
+     */
+    public NotificationRing getNotificationStats() {
+        return mNotifications;
+    }
+
+    /**
+     * Get the number of streamed TXLARGE messages dropped because the device stopped sending
+     * their notifications for TXLARGE_STREAM_STALL_TIMEOUT.
+     *
+     * @return the number of stalled streamed messages, MQTT and network config combined.
+     */
+    public int getTxLargeStreamStalls() {
+        return mMqttTxLargeStream.getStalls() + mNwTxLargeStream.getStalls();
+    }
+
+    /**
+     * Get the measured goodput of the messages that were written to the device in chunks.
+     *
+     * @return a snapshot of the bulk write statistics of this device.
+     */
+    public BulkWriteStats getBulkWriteStats() {
+        return new BulkWriteStats(mBulkWriteStats);
+    }
+
     /**
      * Try to read a characteristic from the Gatt service. If pairing is enabled, it will be triggered
      * by this action.
      */
     private void probe() {
+        if (mMtuNegotiationMode == MtuNegotiationMode.UP_FRONT && mNegotiatedMtu == 0) {
+            setMtu(MAX_ATT_MTU);
+        }
         getDeviceVersion();
     }
 
@@ -314,10 +789,10 @@ public class AmazonFreeRTOSDevice {
         getDeviceType();
         getDeviceId();
         getMtu();
-        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, UUID_MQTT_PROXY_TX, UUID_MQTT_PROXY_SERVICE));
-        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, UUID_MQTT_PROXY_TXLARGE, UUID_MQTT_PROXY_SERVICE));
-        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, UUID_NETWORK_TX, UUID_NETWORK_SERVICE));
-        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, UUID_NETWORK_TXLARGE, UUID_NETWORK_SERVICE));
+        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, CHARACTERISTIC_MQTT_PROXY_TX, null));
+        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, CHARACTERISTIC_MQTT_PROXY_TXLARGE, null));
+        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, CHARACTERISTIC_NETWORK_TX, null));
+        sendBleCommand(new BleCommand(WRITE_DESCRIPTOR, CHARACTERISTIC_NETWORK_TXLARGE, null));
     }
 
     private void enableService(final String serviceUuid, final boolean enable) {
@@ -330,12 +805,12 @@ public class AmazonFreeRTOSDevice {
         switch (serviceUuid) {
             case UUID_NETWORK_SERVICE:
                 Log.i(TAG, (enable ? "Enabling" : "Disabling") + " Wifi provisioning");
-                sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, UUID_NETWORK_CONTROL, UUID_NETWORK_SERVICE, ready));
+                sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, CHARACTERISTIC_NETWORK_CONTROL, ready));
                 break;
             case UUID_MQTT_PROXY_SERVICE:
                 if (mKeystore != null || mAWSCredential != null) {
                     Log.i(TAG, (enable ? "Enabling" : "Disabling") + " MQTT Proxy");
-                    sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, UUID_MQTT_PROXY_CONTROL, UUID_MQTT_PROXY_SERVICE, ready));
+                    sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, CHARACTERISTIC_MQTT_PROXY_CONTROL, ready));
                 }
                 break;
             default:
@@ -343,49 +818,103 @@ public class AmazonFreeRTOSDevice {
         }
     }
 
-    private void processIncomingQueue() {
-        try {
-            mIncomingMutex.acquire();
-            while (mIncomingQueue.size() != 0) {
-                BleCommand bleCommand = mIncomingQueue.poll();
-                Log.d(TAG, "Processing incoming queue. size: " + mIncomingQueue.size());
-                byte[] responseBytes = bleCommand.getData();
-                String cUuid = bleCommand.getCharacteristicUuid();
-                switch (cUuid) {
-                    case UUID_MQTT_PROXY_TX:
-                        handleMqttTxMessage(responseBytes);
-                        break;
-                    case UUID_MQTT_PROXY_TXLARGE:
-                        try {
-                            mTxLargeObject.write(responseBytes);
-                            sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                    UUID_MQTT_PROXY_TXLARGE, UUID_MQTT_PROXY_SERVICE));
-                        } catch (IOException e) {
-                            Log.e(TAG, "Failed to concatenate byte array.", e);
-                        }
-                        break;
-                    case UUID_NETWORK_TX:
-                        handleNwTxMessage(responseBytes);
-                        break;
-                    case UUID_NETWORK_TXLARGE:
-                        try {
-                            mTxLargeNw.write(responseBytes);
-                            sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                    UUID_NETWORK_TXLARGE, UUID_NETWORK_SERVICE));
-                        } catch (IOException e) {
-                            Log.e(TAG, "Failed to concatenate byte array.", e);
-                        }
-                        break;
-                    default:
-                        Log.e(TAG, "Unknown characteristic " + cUuid);
+    /**
+     * Posted to the event loop when notifications are added to an empty ring. A single post is
+     * outstanding at a time, so that the Binder thread does not allocate per notification.
+     */
+    private final Runnable mDrainNotifications = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared before draining, so that a notification added during the drain posts again.
+            mNotificationDrainPosted.set(false);
+            drainNotifications();
+        }
+    };
+
+    private final NotificationRing.Consumer mNotificationConsumer = new NotificationRing.Consumer() {
+        @Override
+        public void onNotification(int handle, byte[] responseBytes) {
+            Log.d(TAG, "->->-> Characteristic changed for: "
+                    + CharacteristicRegistry.getName(handle)
+                    + " with data: " + bytesToHexString(responseBytes));
+            handleNotification(handle, responseBytes);
+        }
+    };
+
+    /**
+     * Add a notification to the ring, on the Binder thread, and wake up the event loop.
+     */
+    private void offerNotification(BluetoothGattCharacteristic characteristic, byte[] value) {
+        mNotifications.offer(mCharacteristics.getHandle(characteristic), value);
+        Handler handler = mHandler;
+        if (handler != null && mNotificationDrainPosted.compareAndSet(false, true)) {
+            handler.post(mDrainNotifications);
+        }
+    }
+
+    private void drainNotifications() {
+        mNotifications.drain(mNotificationConsumer);
+        long dropped = mNotifications.getDropped();
+        if (dropped != mLoggedNotificationDrops) {
+            Log.w(TAG, (dropped - mLoggedNotificationDrops) + " notifications dropped. "
+                    + mNotifications);
+            mLoggedNotificationDrops = dropped;
+        }
+    }
+
+    private void handleNotification(int handle, byte[] responseBytes) {
+        switch (handle) {
+            case CHARACTERISTIC_MQTT_PROXY_TX:
+                handleMqttTxMessage(responseBytes);
+                break;
+            case CHARACTERISTIC_MQTT_PROXY_TXLARGE:
+                if (isStreamedChunk(mMqttTxLargeStream, responseBytes)) {
+                    ByteBuffer largeMessage = mMqttTxLargeStream.onNotification(responseBytes);
+                    if (largeMessage != null) {
+                        Log.d(TAG, "MQTT Large object streamed from device successfully: "
+                                + largeMessage.remaining() + " bytes");
+                        handleMqttTxMessage(largeMessage);
+                        mMqttTxLargeStream.release();
+                    }
+                    break;
                 }
-            }
-            mIncomingMutex.release();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Incoming mutex error, ", e);
+                mTxLargeObject.append(responseBytes);
+                sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                        CHARACTERISTIC_MQTT_PROXY_TXLARGE, null));
+                break;
+            case CHARACTERISTIC_NETWORK_TX:
+                handleNwTxMessage(responseBytes);
+                break;
+            case CHARACTERISTIC_NETWORK_TXLARGE:
+                if (isStreamedChunk(mNwTxLargeStream, responseBytes)) {
+                    ByteBuffer largeMessage = mNwTxLargeStream.onNotification(responseBytes);
+                    if (largeMessage != null) {
+                        Log.d(TAG, "NW Large object streamed from device successfully: "
+                                + largeMessage.remaining() + " bytes");
+                        handleNwTxMessage(largeMessage);
+                        mNwTxLargeStream.release();
+                    }
+                    break;
+                }
+                mTxLargeNw.append(responseBytes);
+                sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                        CHARACTERISTIC_NETWORK_TXLARGE, null));
+                break;
+            default:
+                Log.e(TAG, "Unknown characteristic " + handle);
         }
     }
 
+    /**
+     * A TXLARGE notification belongs to the stream if it starts a message with the stream
+     * header, or if the device has already streamed on this characteristic, in which case the
+     * stream drops it unless it continues a message. Any other notification is the first chunk
+     * of a message that is read chunk by chunk, as sent by firmware that does not stream.
+     */
+    private boolean isStreamedChunk(final TxLargeStream stream, final byte[] notification) {
+        return mTxLargeStreaming && (stream.isStreaming() || TxLargeStream.isHeader(notification));
+    }
+
     private void registerBondStateCallback() {
 
         mBondStateCallback = new BroadcastReceiver() {
@@ -408,6 +937,7 @@ public class AmazonFreeRTOSDevice {
                             if (services == null || services.isEmpty()) {
                                 discoverServices();
                             } else {
+                                mCharacteristics.build(mBluetoothGatt);
                                 probe();
                             }
                         }
@@ -420,7 +950,8 @@ public class AmazonFreeRTOSDevice {
         };
 
         final IntentFilter bondFilter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-        mContext.registerReceiver(mBondStateCallback, bondFilter);
+        // The broadcasts are received on the event loop.
+        mContext.registerReceiver(mBondStateCallback, bondFilter, null, mHandler);
     }
 
     private void unRegisterBondStateCallback() {
@@ -436,68 +967,213 @@ public class AmazonFreeRTOSDevice {
 
 
     /**
-     * This is the callback for all BLE commands sent from SDK to device. The response of BLE
-     * command is included in the callback, together with the status code.
+     * The events of the Bluetooth stack, as handled on the event loop. They mirror the methods of
+     * BluetoothGattCallback, with the value of the characteristic as it was when the callback was
+     * received, since the stack may overwrite it before the event is handled.
      */
-    private final BluetoothGattCallback mGattCallback =
-            new BluetoothGattCallback() {
-                @Override
-                public void onConnectionStateChange(BluetoothGatt gatt, int status,
-                                                    int newState) {
-                    Log.i(TAG, "BLE connection state changed: " + status + "; new state: "
-                            + AmazonFreeRTOSConstants.BleConnectionState.values()[newState]);
-                    if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
-                        int bondState = mBluetoothDevice.getBondState();
-
-                        Log.i(TAG, "Connected to GATT server.");
-                        mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_CONNECTED;
-                        mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+    private abstract static class GattEvents {
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {}
 
-                        // If the device is already bonded or will not bond we can call discoverServices() immediately
-                        if (mBluetoothDevice.getBondState() != BOND_BONDING) {
-                            discoverServices();
-                        } else {
-                            registerBondStateCallback();
-                        }
-                    } else {
-                        Log.i(TAG, "Disconnected from GATT server due to error or peripheral initiated disconnect.");
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {}
 
-                        mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_DISCONNECTED;
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {}
 
-                        if (mMqttConnectionState != AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Disconnected) {
-                            disconnectFromIot();
-                        }
+        public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {}
 
-                        unRegisterBondStateCallback();
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {}
 
-                        cleanUp();
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {}
 
-                        mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         byte[] value, int status) {}
 
-                        /**
-                         * If auto reconnect is enabled, start a reconnect procedure in background
-                         * using connect() method. Else close the GATT.
-                         * Auto reconnect will be disabled when user initiates disconnect.
-                         */
-                        if (!mGattAutoReconnect) {
-                            gatt.close();
-                            mBluetoothGatt = null;
-                        } else {
-                            mBluetoothGatt.connect();
-                        }
-                    }
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          byte[] value, int status) {}
+    }
 
+    /**
+     * This is the callback for all BLE commands sent from SDK to device. It is called on Binder
+     * threads, and posts each callback to the event loop as an event handled by mGattEvents.
+     */
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(final BluetoothGatt gatt, final int status,
+                                            final int newState) {
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onConnectionStateChange(gatt, status, newState);
                 }
+            });
+        }
 
+        @Override
+        public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
+            runOnEventLoop(new Runnable() {
                 @Override
-                // New services discovered
-                public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                    if (status == BluetoothGatt.GATT_SUCCESS) {
-                        Log.i(TAG, "Discovered Ble gatt services successfully. Bonding state: "
-                                + mBluetoothDevice.getBondState());
-                        describeGattServices(mBluetoothGatt.getServices());
+                public void run() {
+                    mGattEvents.onServicesDiscovered(gatt, status);
+                }
+            });
+        }
 
-                        /**
+        @Override
+        public void onCharacteristicChanged(final BluetoothGatt gatt,
+                                            final BluetoothGattCharacteristic characteristic) {
+            // The Bluetooth stack sets a new value array for each notification, so the array
+            // is handed over without a copy.
+            offerNotification(characteristic, characteristic.getValue());
+        }
+
+        @Override
+        public void onPhyUpdate(final BluetoothGatt gatt, final int txPhy, final int rxPhy,
+                                final int status) {
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onPhyUpdate(gatt, txPhy, rxPhy, status);
+                }
+            });
+        }
+
+        @Override
+        public void onPhyRead(final BluetoothGatt gatt, final int txPhy, final int rxPhy,
+                              final int status) {
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onPhyRead(gatt, txPhy, rxPhy, status);
+                }
+            });
+        }
+
+        @Override
+        public void onDescriptorWrite(final BluetoothGatt gatt,
+                                      final BluetoothGattDescriptor descriptor, final int status) {
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onDescriptorWrite(gatt, descriptor, status);
+                }
+            });
+        }
+
+        @Override
+        public void onMtuChanged(final BluetoothGatt gatt, final int mtu, final int status) {
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onMtuChanged(gatt, mtu, status);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicRead(final BluetoothGatt gatt,
+                                         final BluetoothGattCharacteristic characteristic,
+                                         final int status) {
+            final byte[] value = characteristic.getValue();
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onCharacteristicRead(gatt, characteristic, value, status);
+                }
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(final BluetoothGatt gatt,
+                                          final BluetoothGattCharacteristic characteristic,
+                                          final int status) {
+            final byte[] value = characteristic.getValue();
+            runOnEventLoop(new Runnable() {
+                @Override
+                public void run() {
+                    mGattEvents.onCharacteristicWrite(gatt, characteristic, value, status);
+                }
+            });
+        }
+    };
+
+    /**
+     * Handles the events of the Bluetooth stack on the event loop. The response of BLE command is
+     * included in the event, together with the status code.
+     */
+    private final GattEvents mGattEvents =
+            new GattEvents() {
+                @Override
+                public void onConnectionStateChange(BluetoothGatt gatt, int status,
+                                                    int newState) {
+                    Log.i(TAG, "BLE connection state changed: " + status + "; new state: "
+                            + AmazonFreeRTOSConstants.BleConnectionState.values()[newState]);
+                    if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+                        int bondState = mBluetoothDevice.getBondState();
+
+                        Log.i(TAG, "Connected to GATT server.");
+                        mReconnectAttempts = 0;
+                        mConnectedTime = SystemClock.uptimeMillis();
+                        mTimeToMtu = -1;
+                        mPriorityGovernor.onConnected(mConnectedTime);
+                        armPriorityIdleCheck();
+                        applyPhyPolicy();
+                        mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_CONNECTED;
+                        mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+
+                        // If the device is already bonded or will not bond we can call discoverServices() immediately
+                        if (mBluetoothDevice.getBondState() != BOND_BONDING) {
+                            discoverServices();
+                        } else {
+                            registerBondStateCallback();
+                        }
+                    } else {
+                        Log.i(TAG, "Disconnected from GATT server due to error or peripheral initiated disconnect.");
+
+                        mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_DISCONNECTED;
+
+                        if (mMqttConnectionState != AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Disconnected) {
+                            disconnectFromIot();
+                        }
+
+                        unRegisterBondStateCallback();
+
+                        mPriorityGovernor.onDisconnected(SystemClock.uptimeMillis());
+                        if (mPriorityIdleCheck != null) {
+                            mPriorityIdleCheck.cancel();
+                            mPriorityIdleCheck = null;
+                        }
+
+                        cleanUp();
+
+                        mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+
+                        /**
+                         * If auto reconnect is enabled, start a reconnect procedure in background
+                         * using connect() method. Else close the GATT.
+                         * Auto reconnect will be disabled when user initiates disconnect.
+                         */
+                        if (!mGattAutoReconnect) {
+                            closeGatt(gatt);
+                        } else {
+                            mLinkLosses++;
+                            scheduleReconnect();
+                        }
+                    }
+
+                }
+
+                @Override
+                // New services discovered
+                public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        Log.i(TAG, "Discovered Ble gatt services successfully. Bonding state: "
+                                + mBluetoothDevice.getBondState());
+                        describeGattServices(mBluetoothGatt.getServices());
+                        mCharacteristics.build(mBluetoothGatt);
+
+                        /**
                          *  Trigger bonding if needed, by reading device version characteristic, if bonding is not already
                          *  in progress by the stack.
                          */
@@ -508,56 +1184,55 @@ public class AmazonFreeRTOSDevice {
                         Log.e(TAG, "onServicesDiscovered received: " + status);
                         disconnect();
                     }
-                    processNextBleCommand();
+                    completeBleCommand(DISCOVER_SERVICES, NO_CHARACTERISTIC);
+                }
+
+                @Override
+                public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                    Log.i(TAG, "onPhyUpdate tx: " + txPhy + " rx: " + rxPhy
+                            + " status: " + (status == 0 ? "Success" : status));
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        mBleConnectionStatusCallback.onPhyUpdate(txPhy, rxPhy);
+                    }
                 }
 
                 @Override
-                public void onCharacteristicChanged(BluetoothGatt gatt,
-                                                    BluetoothGattCharacteristic characteristic) {
-                    byte[] responseBytes = characteristic.getValue();
-                    Log.d(TAG, "->->-> Characteristic changed for: "
-                            + uuidToName.get(characteristic.getUuid().toString())
-                            + " with data: " + bytesToHexString(responseBytes));
-                    BleCommand incomingCommand = new BleCommand(NOTIFICATION,
-                            characteristic.getUuid().toString(),
-                            characteristic.getService().getUuid().toString(), responseBytes);
-                    mIncomingQueue.add(incomingCommand);
-
-                    if (!mRWinProgress) {
-                        processIncomingQueue();
+                public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                    Log.i(TAG, "onPhyRead tx: " + txPhy + " rx: " + rxPhy
+                            + " status: " + (status == 0 ? "Success" : status));
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        mBleConnectionStatusCallback.onPhyUpdate(txPhy, rxPhy);
                     }
                 }
 
                 @Override
                 public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
                                               int status) {
+                    int handle = mCharacteristics.getHandle(descriptor.getCharacteristic());
                     Log.d(TAG, "onDescriptorWrite for characteristic: "
-                            + uuidToName.get(descriptor.getCharacteristic().getUuid().toString())
+                            + CharacteristicRegistry.getName(handle)
                             + "; Status: " + (status == 0 ? "Success" : status));
-                    processNextBleCommand();
+                    completeBleCommand(WRITE_DESCRIPTOR, handle);
                 }
 
                 @Override
                 public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
                     Log.i(TAG, "onMTUChanged : " + mtu + " status: " + (status == 0 ? "Success" : status));
-                    mMtu = mtu;
-                    mMaxPayloadLen = Math.max(mMtu - 3, 0);
-                    // The BLE service should be initialized at this stage
-                    if (mBleConnectionState == BleConnectionState.BLE_INITIALIZING) {
-                        mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_INITIALIZED;
-                        mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+                    mNegotiatedMtu = mtu;
+                    if (mMtuNegotiationMode == MtuNegotiationMode.UP_FRONT) {
+                        reconcileMtu();
+                    } else {
+                        onMtuFinal(mtu);
                     }
-                    enableService(UUID_NETWORK_SERVICE, true);
-                    enableService(UUID_MQTT_PROXY_SERVICE, true);
-                    processNextBleCommand();
+                    completeBleCommand(REQUEST_MTU, NO_CHARACTERISTIC);
                 }
 
                 @Override
                 // Result of a characteristic read operation
                 public void onCharacteristicRead(BluetoothGatt gatt,
                                                  BluetoothGattCharacteristic characteristic,
-                                                 int status) {
-                    mRWinProgress = false;
+                                                 byte[] responseBytes, int status) {
+                    int handle = mCharacteristics.getHandle(characteristic);
                     Log.d(TAG, "->->-> onCharacteristicRead status: " + (status == 0 ? "Success. " : status));
 
                     if (status == BluetoothGatt.GATT_SUCCESS) {
@@ -568,59 +1243,64 @@ public class AmazonFreeRTOSDevice {
                             mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
                             initialize();
                         }
-                        byte[] responseBytes = characteristic.getValue();
                         Log.d(TAG, "->->-> onCharacteristicRead: " + bytesToHexString(responseBytes));
-                        switch (characteristic.getUuid().toString()) {
-                            case UUID_MQTT_PROXY_TXLARGE:
-                                try {
-                                    mTxLargeObject.write(responseBytes);
-                                    if (responseBytes.length < mMaxPayloadLen) {
-                                        byte[] largeMessage = mTxLargeObject.toByteArray();
+                        switch (handle) {
+                            case CHARACTERISTIC_MQTT_PROXY_TXLARGE: {
+                                // A message over the limits is still read to its end, then dropped.
+                                boolean kept = mTxLargeObject.append(responseBytes);
+                                if (responseBytes.length < mMaxPayloadLen) {
+                                    ByteBuffer largeMessage = kept ? mTxLargeObject.getMessage() : null;
+                                    if (largeMessage != null) {
                                         Log.d(TAG, "MQTT Large object received from device successfully: "
-                                                + bytesToHexString(largeMessage));
+                                                + largeMessage.remaining() + " bytes");
                                         handleMqttTxMessage(largeMessage);
-                                        mTxLargeObject.reset();
-                                    } else {
-                                        sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                                UUID_MQTT_PROXY_TXLARGE, UUID_MQTT_PROXY_SERVICE));
                                     }
-                                } catch (IOException e) {
-                                    Log.e(TAG, "Failed to concatenate byte array.", e);
+                                    mTxLargeObject.release();
+                                } else {
+                                    sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                                            CHARACTERISTIC_MQTT_PROXY_TXLARGE, null));
                                 }
                                 break;
-                            case UUID_NETWORK_TXLARGE:
-                                try {
-                                    mTxLargeNw.write(responseBytes);
-                                    if (responseBytes.length < mMaxPayloadLen) {
-                                        byte[] largeMessage = mTxLargeNw.toByteArray();
+                            }
+                            case CHARACTERISTIC_NETWORK_TXLARGE: {
+                                boolean kept = mTxLargeNw.append(responseBytes);
+                                if (responseBytes.length < mMaxPayloadLen) {
+                                    ByteBuffer largeMessage = kept ? mTxLargeNw.getMessage() : null;
+                                    if (largeMessage != null) {
                                         Log.d(TAG, "NW Large object received from device successfully: "
-                                                + bytesToHexString(largeMessage));
+                                                + largeMessage.remaining() + " bytes");
                                         handleNwTxMessage(largeMessage);
-                                        mTxLargeNw.reset();
-                                    } else {
-                                        sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
-                                                UUID_NETWORK_TXLARGE, UUID_NETWORK_SERVICE));
                                     }
-                                } catch (IOException e) {
-                                    Log.e(TAG, "Failed to concatenate byte array.", e);
+                                    mTxLargeNw.release();
+                                } else {
+                                    sendBleCommand(new BleCommand(READ_CHARACTERISTIC,
+                                            CHARACTERISTIC_NETWORK_TXLARGE, null));
                                 }
                                 break;
-                            case UUID_DEVICE_MTU:
+                            }
+                            case CHARACTERISTIC_DEVICE_MTU:
                                 Mtu currentMtu = new Mtu();
                                 currentMtu.mtu = new String(responseBytes);
                                 Log.i(TAG, "Default MTU is set to: " + currentMtu.mtu);
                                 try {
-                                    mMtu = Integer.parseInt(currentMtu.mtu);
-                                    mMaxPayloadLen = Math.max(mMtu - 3, 0);
+                                    mAdvertisedMtu = Integer.parseInt(currentMtu.mtu);
                                     if (mDeviceInfoCallback != null) {
-                                        mDeviceInfoCallback.onObtainMtu(mMtu);
+                                        mDeviceInfoCallback.onObtainMtu(mAdvertisedMtu);
+                                    }
+                                    if (mMtuNegotiationMode == MtuNegotiationMode.UP_FRONT) {
+                                        reconcileMtu();
+                                    } else {
+                                        mMtu = mAdvertisedMtu;
+                                        mMaxPayloadLen = Math.max(mMtu - 3, 0);
+                                        setMtu(mMtu);
                                     }
-                                    setMtu(mMtu);
                                 } catch (NumberFormatException e) {
                                     Log.e(TAG, "Cannot parse default MTU value.");
+                                    mAdvertisedMtu = -1;
+                                    onMtuUnavailable();
                                 }
                                 break;
-                            case UUID_IOT_ENDPOINT:
+                            case CHARACTERISTIC_IOT_ENDPOINT:
                                 BrokerEndpoint currentEndpoint = new BrokerEndpoint();
                                 currentEndpoint.brokerEndpoint = new String(responseBytes);
                                 Log.i(TAG, "Current broker endpoint is set to: "
@@ -629,7 +1309,7 @@ public class AmazonFreeRTOSDevice {
                                     mDeviceInfoCallback.onObtainBrokerEndpoint(currentEndpoint.brokerEndpoint);
                                 }
                                 break;
-                            case UUID_DEVICE_VERSION:
+                            case CHARACTERISTIC_DEVICE_VERSION:
                                 Version currentVersion = new Version();
                                 currentVersion.version = new String(responseBytes);
                                 if (!currentVersion.version.isEmpty()) {
@@ -640,14 +1320,14 @@ public class AmazonFreeRTOSDevice {
                                     mDeviceInfoCallback.onObtainDeviceSoftwareVersion(currentVersion.version);
                                 }
                                 break;
-                            case UUID_DEVICE_PLATFORM:
+                            case CHARACTERISTIC_DEVICE_PLATFORM:
                                 String platform = new String(responseBytes);
                                 if (!platform.isEmpty()) {
                                     mAmazonFreeRTOSDeviceType = platform;
                                 }
                                 Log.i(TAG, "Device type is: " + mAmazonFreeRTOSDeviceType);
                                 break;
-                            case UUID_DEVICE_ID:
+                            case CHARACTERISTIC_DEVICE_ID:
                                 String devId = new String(responseBytes);
                                 if (!devId.isEmpty()) {
                                     mAmazonFreeRTOSDeviceId = devId;
@@ -658,24 +1338,20 @@ public class AmazonFreeRTOSDevice {
                                 Log.w(TAG, "Unknown characteristic read. ");
                         }
                     }
-                    processIncomingQueue();
-                    processNextBleCommand();
+                    completeBleCommand(READ_CHARACTERISTIC, handle);
                 }
 
                 @Override
                 public void onCharacteristicWrite(BluetoothGatt gatt,
                                                   BluetoothGattCharacteristic characteristic,
-                                                  int status) {
-                    mRWinProgress = false;
-                    byte[] value = characteristic.getValue();
+                                                  byte[] value, int status) {
+                    int handle = mCharacteristics.getHandle(characteristic);
                     Log.d(TAG, "onCharacteristicWrite for: "
-                            + uuidToName.get(characteristic.getUuid().toString())
+                            + CharacteristicRegistry.getName(handle)
                             + "; status: " + (status == 0 ? "Success" : status) + "; value: " + bytesToHexString(value));
-                    if (Arrays.equals(mValueWritten, value)) {
-                        processIncomingQueue();
-                        processNextBleCommand();
-                    } else {
-                        Log.e(TAG, "values don't match!");
+                    BleCommand completed = completeBleCommand(WRITE_CHARACTERISTIC, handle);
+                    if (completed != null) {
+                        onBulkChunkWritten(completed.getBulkTransfer());
                     }
                 }
             };
@@ -687,23 +1363,35 @@ public class AmazonFreeRTOSDevice {
      * @param message message received from device.
      */
     private void handleMqttTxMessage(byte[] message) {
-        MessageType messageType = new MessageType();
-        if (!messageType.decode(message)) {
-            return;
-        }
-        Log.i(TAG, "Handling Mqtt Message type : " + messageType.type);
-        switch (messageType.type) {
-            case MQTT_MSG_CONNECT:
-                final Connect connect = new Connect();
-                if (connect.decode(message)) {
-                    connectToIoT(connect);
-                }
-                break;
-            case MQTT_MSG_SUBSCRIBE:
+        handleMqttTxMessage(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Handle mqtt messages received from device.
+     *
+     * @param message read-only view of the message received from device. It is only valid
+     *                until this method returns.
+     */
+    private void handleMqttTxMessage(ByteBuffer message) {
+        mMqttDispatcher.dispatch(message);
+    }
+
+    private void registerMqttMessageHandlers() {
+        mMqttDispatcher.register(MQTT_MSG_CONNECT, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
+                Connect connect = new Connect();
+                connect.decodeEntries(type, reader);
+                connectToIoT(connect);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_SUBSCRIBE, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 final Subscribe subscribe = new Subscribe();
-                if (subscribe.decode(message)) {
-                    Log.d(TAG, subscribe.toString());
-                    subscribeToIoT(subscribe);
+                subscribe.decodeEntries(type, reader);
+                Log.d(TAG, subscribe.toString());
+                subscribeToIoT(subscribe);
                 /*
                   Currently, because the IoT part of aws mobile sdk for Android
                   does not provide suback callback when subscribe is successful,
@@ -712,92 +1400,135 @@ public class AmazonFreeRTOSDevice {
                   Message is received from the subscribed topic before suback
                   is sent to device.
                  */
-                    mHandler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            sendSubAck(subscribe);
-                        }
-                    }, 500);
-                }
-                break;
-            case MQTT_MSG_UNSUBSCRIBE:
-                final Unsubscribe unsubscribe = new Unsubscribe();
-                if (unsubscribe.decode(message)) {
-                    unsubscribeToIoT(unsubscribe);
+                scheduleOnHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendSubAck(subscribe);
+                    }
+                }, 500);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_UNSUBSCRIBE, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
+                Unsubscribe unsubscribe = new Unsubscribe();
+                unsubscribe.decodeEntries(type, reader);
+                unsubscribeToIoT(unsubscribe);
                 /*
                   TODO: add unsuback support in Aws Mobile sdk
                  */
-                    sendUnsubAck(unsubscribe);
-                }
-                break;
-            case MQTT_MSG_PUBLISH:
-                final Publish publish = new Publish();
-                if (publish.decode(message)) {
-                    mMessageId = publish.getMsgID();
-                    publishToIoT(publish);
+                sendUnsubAck(unsubscribe);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_PUBLISH, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
+                Publish publish = new Publish();
+                publish.decodeEntries(type, reader, mUplinkTopicAliases);
+                if (publish.getTopic() == null) {
+                    Log.e(TAG, "Dropping mqtt publish from device with unknown topic alias.");
+                    return;
                 }
-                break;
-            case MQTT_MSG_DISCONNECT:
+                mMessageId = publish.getMsgID();
+                publishToIoT(publish);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_DISCONNECT, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) {
                 disconnectFromIot();
-                break;
-            case MQTT_MSG_PUBACK:
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_PUBACK, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 /*
                  AWS Iot SDK currently sends pub ack back to cloud without waiting
                  for pub ack from device.
                  */
-                final Puback puback = new Puback();
-                if (puback.decode(message)) {
-                    Log.w(TAG, "Received mqtt pub ack from device. MsgID: " + puback.msgID);
-                }
-                break;
-            case MQTT_MSG_PINGREQ:
+                Puback puback = new Puback();
+                puback.decodeEntries(type, reader);
+                Log.w(TAG, "Received mqtt pub ack from device. MsgID: " + puback.msgID);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_PINGREQ, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) {
                 PingResp pingResp = new PingResp();
                 byte[] pingRespBytes = pingResp.encode();
-                sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, pingRespBytes);
-                break;
-            default:
-                Log.e(TAG, "Unknown mqtt message type: " + messageType.type);
-        }
+                sendMqttControlToDevice(pingRespBytes);
+            }
+        });
+        mMqttDispatcher.register(MQTT_MSG_BATCH, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
+                int count = MessageBatcher.dispatchBatch(reader, mMqttDispatcher);
+                Log.d(TAG, "Handled batch of " + count + " mqtt messages.");
+            }
+        });
     }
 
     private void handleNwTxMessage(byte[] message) {
-        MessageType messageType = new MessageType();
-        if (!messageType.decode(message)) {
-            return;
-        }
-        Log.i(TAG, "Handling Network Message type : " + messageType.type);
-        switch (messageType.type) {
-            case LIST_NETWORK_RESP:
+        handleNwTxMessage(ByteBuffer.wrap(message));
+    }
+
+    private void handleNwTxMessage(ByteBuffer message) {
+        mNetworkDispatcher.dispatch(message);
+    }
+
+    private void registerNetworkMessageHandlers() {
+        mNetworkDispatcher.register(LIST_NETWORK_RESP, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 ListNetworkResp listNetworkResp = new ListNetworkResp();
-                if (listNetworkResp.decode(message) && mNetworkConfigCallback != null) {
+                listNetworkResp.decodeEntries(reader);
+                if (mNetworkConfigCallback != null) {
                     Log.d(TAG, listNetworkResp.toString());
                     mNetworkConfigCallback.onListNetworkResponse(listNetworkResp);
                 }
-                break;
-            case SAVE_NETWORK_RESP:
+            }
+        });
+        mNetworkDispatcher.register(SAVE_NETWORK_RESP, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 SaveNetworkResp saveNetworkResp = new SaveNetworkResp();
-                if (saveNetworkResp.decode(message) && mNetworkConfigCallback != null) {
+                saveNetworkResp.decodeEntries(reader);
+                if (mNetworkConfigCallback != null) {
                     mNetworkConfigCallback.onSaveNetworkResponse(saveNetworkResp);
                 }
-                break;
-            case EDIT_NETWORK_RESP:
+            }
+        });
+        mNetworkDispatcher.register(EDIT_NETWORK_RESP, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 EditNetworkResp editNetworkResp = new EditNetworkResp();
-                if (editNetworkResp.decode(message) && mNetworkConfigCallback != null) {
+                editNetworkResp.decodeEntries(reader);
+                if (mNetworkConfigCallback != null) {
                     mNetworkConfigCallback.onEditNetworkResponse(editNetworkResp);
                 }
-                break;
-            case DELETE_NETWORK_RESP:
+            }
+        });
+        mNetworkDispatcher.register(DELETE_NETWORK_RESP, new MessageDispatcher.Handler() {
+            @Override
+            public void onMessage(int type, CborReader reader) throws CborException {
                 DeleteNetworkResp deleteNetworkResp = new DeleteNetworkResp();
-                if (deleteNetworkResp.decode(message) && mNetworkConfigCallback != null) {
+                deleteNetworkResp.decodeEntries(reader);
+                if (mNetworkConfigCallback != null) {
                     mNetworkConfigCallback.onDeleteNetworkResponse(deleteNetworkResp);
                 }
-                break;
-            default:
-                Log.e(TAG, "Unknown network message type: " + messageType.type);
-        }
+            }
+        });
     }
 
     private void connectToIoT(final Connect connect) {
+        // Messages are not batched until the CONNACK answering this CONNECT has been sent.
+        mMqttBatcher.flush();
+        mMqttBatching = false;
+        mMqttCapabilities = mMqttBatchingEnabled
+                ? connect.capabilities & MQTT_PROXY_CAPABILITY_BATCHING : 0;
+        // Aliases are only used with firmware that announced its own maximum.
+        mDownlinkTopicAliases.reset(Math.min(connect.topicAliasMaximum, mMqttTopicAliasMaximum));
+        mUplinkTopicAliases.reset(connect.topicAliasMaximum > 0 ? mMqttTopicAliasMaximum : 0);
         if (mMqttConnectionState == AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connected) {
             Log.w(TAG, "Already connected to IOT, sending connack to device again.");
             sendConnAck();
@@ -819,28 +1550,13 @@ public class AmazonFreeRTOSDevice {
 
         AWSIotMqttClientStatusCallback mqttClientStatusCallback = new AWSIotMqttClientStatusCallback() {
             @Override
-            public void onStatusChanged(AWSIotMqttClientStatus status, Throwable throwable) {
-                Log.i(TAG, "mqtt connection status changed to: " + status);
-                switch (status) {
-                    case Connected:
-                        mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connected;
-                        //sending connack
-                        if (isBLEConnected() && mBluetoothGatt != null) {
-                            sendConnAck();
-                        } else {
-                            Log.e(TAG, "Cannot send CONNACK because BLE connection is: " + mBleConnectionState);
-                        }
-                        break;
-                    case Connecting:
-                    case Reconnecting:
-                        mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connecting;
-                        break;
-                    case ConnectionLost:
-                        mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Disconnected;
-                        break;
-                    default:
-                        Log.e(TAG, "Unknown mqtt connection state: " + status);
-                }
+            public void onStatusChanged(final AWSIotMqttClientStatus status, Throwable throwable) {
+                runOnEventLoop(new Runnable() {
+                    @Override
+                    public void run() {
+                        onMqttStatusChanged(status);
+                    }
+                });
             }
         };
 
@@ -853,7 +1569,36 @@ public class AmazonFreeRTOSDevice {
         }
     }
 
+    private void onMqttStatusChanged(AWSIotMqttClientStatusCallback.AWSIotMqttClientStatus status) {
+        Log.i(TAG, "mqtt connection status changed to: " + status);
+        switch (status) {
+            case Connected:
+                mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connected;
+                //sending connack
+                if (isBLEConnected() && mBluetoothGatt != null) {
+                    sendConnAck();
+                } else {
+                    Log.e(TAG, "Cannot send CONNACK because BLE connection is: " + mBleConnectionState);
+                }
+                break;
+            case Connecting:
+            case Reconnecting:
+                mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connecting;
+                break;
+            case ConnectionLost:
+                mMqttConnectionState = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Disconnected;
+                break;
+            default:
+                Log.e(TAG, "Unknown mqtt connection state: " + status);
+        }
+    }
+
     private void disconnectFromIot() {
+        mMqttBatcher.flush();
+        mMqttBatching = false;
+        if (mDownlinkTopicAliases.getMaximum() > 0) {
+            Log.i(TAG, "Downlink " + mDownlinkTopicAliases + ", uplink " + mUplinkTopicAliases);
+        }
         if (mIotMqttManager != null) {
             try {
                 mIotMqttManager.disconnect();
@@ -879,9 +1624,8 @@ public class AmazonFreeRTOSDevice {
                 mIotMqttManager.subscribeToTopic(topic, qos, new AWSIotMqttNewMessageCallback() {
                     @Override
                     public void onMessageArrived(final String topic, final byte[] data) {
-                        String message = new String(data, StandardCharsets.UTF_8);
-                        Log.i(TAG, " Message arrived on topic: " + topic);
-                        Log.v(TAG, "   Message: " + message);
+                        Log.i(TAG, " Message arrived on topic: " + topic + ", "
+                                + data.length + " bytes");
                         Publish publish = new Publish(
                                 MQTT_MSG_PUBLISH,
                                 topic,
@@ -933,7 +1677,7 @@ public class AmazonFreeRTOSDevice {
             String topic = publish.getTopic();
             byte[] data = publish.getPayload();
             Log.i(TAG, "Sending mqtt message to IoT on topic: " + topic
-                    + " message: " + new String(data)
+                    + " message: " + data.length + " bytes"
                     + " MsgID: " + publish.getMsgID());
             mIotMqttManager.publishData(data, topic, AWSIotMqttQos.values()[publish.getQos()],
                     deliveryCallback, null);
@@ -946,8 +1690,15 @@ public class AmazonFreeRTOSDevice {
         Connack connack = new Connack();
         connack.type = MQTT_MSG_CONNACK;
         connack.status = AmazonFreeRTOSConstants.MqttConnectionState.MQTT_Connected.ordinal();
+        connack.capabilities = mMqttCapabilities;
+        connack.topicAliasMaximum = mUplinkTopicAliases.getMaximum();
         byte[] connackBytes = connack.encode();
-        sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, connackBytes);
+        // CONNACK is never batched, the device only expects batches once it has received it.
+        sendMqttControlToDevice(connackBytes, false);
+        if ((mMqttCapabilities & MQTT_PROXY_CAPABILITY_BATCHING) != 0) {
+            Log.i(TAG, "Batching mqtt messages to device.");
+            mMqttBatching = true;
+        }
     }
 
     private boolean isBLEConnected() {
@@ -968,7 +1719,7 @@ public class AmazonFreeRTOSDevice {
         suback.msgID = subscribe.msgID;
         suback.status = subscribe.qoSs.get(0);
         byte[] subackBytes = suback.encode();
-        sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, subackBytes);
+        sendMqttControlToDevice(subackBytes);
     }
 
     private void sendUnsubAck(final Unsubscribe unsubscribe) {
@@ -982,7 +1733,7 @@ public class AmazonFreeRTOSDevice {
         unsuback.type = MQTT_MSG_UNSUBACK;
         unsuback.msgID = unsubscribe.msgID;
         byte[] unsubackBytes = unsuback.encode();
-        sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, unsubackBytes);
+        sendMqttControlToDevice(unsubackBytes);
     }
 
     private void sendPubAck(final Publish publish) {
@@ -996,7 +1747,7 @@ public class AmazonFreeRTOSDevice {
         puback.type = MQTT_MSG_PUBACK;
         puback.msgID = publish.getMsgID();
         byte[] pubackBytes = puback.encode();
-        sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, pubackBytes);
+        sendMqttControlToDevice(pubackBytes);
     }
 
     private void publishToDevice(final Publish publish) {
@@ -1005,11 +1756,23 @@ public class AmazonFreeRTOSDevice {
                     " is not connected");
             return;
         }
+        byte[] payload = publish.getPayload();
         Log.d(TAG, "Sending received mqtt message back to device, topic: " + publish.getTopic()
-                + " payload bytes: " + bytesToHexString(publish.getPayload())
+                + " payload length: " + (payload == null ? 0 : payload.length)
                 + " MsgID: " + publish.getMsgID());
-        byte[] publishBytes = publish.encode();
-        sendDataToDevice(UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX, UUID_MQTT_PROXY_RXLARGE, publishBytes);
+        // The topic aliases are assigned in the order the messages are sent, on the event loop.
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                // The payload is not copied into the encoded message, frames are cut from it as
+                // they are written.
+                FrameSource frames = publish.encodeFrames(mDownlinkTopicAliases);
+                if (frames != null && !sendBatched(frames)) {
+                    sendDataToDevice(CHARACTERISTIC_MQTT_PROXY_RX,
+                            CHARACTERISTIC_MQTT_PROXY_RXLARGE, frames);
+                }
+            }
+        });
     }
 
     private void discoverServices() {
@@ -1032,7 +1795,7 @@ public class AmazonFreeRTOSDevice {
     private boolean getMtu() {
         if (isBLEConnected() && mBluetoothGatt != null) {
             Log.d(TAG, "Getting current MTU.");
-            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, UUID_DEVICE_MTU, UUID_DEVICE_INFORMATION_SERVICE));
+            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, CHARACTERISTIC_DEVICE_MTU, null));
             return true;
         } else {
             Log.w(TAG, "Bluetooth is not connected.");
@@ -1043,7 +1806,7 @@ public class AmazonFreeRTOSDevice {
     private boolean getBrokerEndpoint() {
         if (isBLEConnected() && mBluetoothGatt != null) {
             Log.d(TAG, "Getting broker endpoint.");
-            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, UUID_IOT_ENDPOINT, UUID_DEVICE_INFORMATION_SERVICE));
+            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, CHARACTERISTIC_IOT_ENDPOINT, null));
             return true;
         } else {
             Log.w(TAG, "Bluetooth is not connected.");
@@ -1054,7 +1817,7 @@ public class AmazonFreeRTOSDevice {
     private boolean getDeviceVersion() {
         if (isBLEConnected() && mBluetoothGatt != null) {
             Log.d(TAG, "Getting ble software version on device.");
-            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, UUID_DEVICE_VERSION, UUID_DEVICE_INFORMATION_SERVICE));
+            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, CHARACTERISTIC_DEVICE_VERSION, null));
             return true;
         } else {
             Log.w(TAG, "Bluetooth is not connected.");
@@ -1065,7 +1828,7 @@ public class AmazonFreeRTOSDevice {
     private boolean getDeviceType() {
         if (isBLEConnected() && mBluetoothGatt != null) {
             Log.d(TAG, "Getting device type...");
-            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, UUID_DEVICE_PLATFORM, UUID_DEVICE_INFORMATION_SERVICE));
+            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, CHARACTERISTIC_DEVICE_PLATFORM, null));
             return true;
         } else {
             Log.w(TAG, "Bluetooth is not connected.");
@@ -1076,7 +1839,7 @@ public class AmazonFreeRTOSDevice {
     private boolean getDeviceId() {
         if (isBLEConnected() && mBluetoothGatt != null) {
             Log.d(TAG, "Getting device cert id...");
-            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, UUID_DEVICE_ID, UUID_DEVICE_INFORMATION_SERVICE));
+            sendBleCommand(new BleCommand(READ_CHARACTERISTIC, CHARACTERISTIC_DEVICE_ID, null));
             return true;
         } else {
             Log.w(TAG, "Bluetooth is not connected.");
@@ -1084,189 +1847,796 @@ public class AmazonFreeRTOSDevice {
         }
     }
 
-    private void sendDataToDevice(final String service, final String rx, final String rxlarge, byte[] data) {
-        if (data != null) {
-            if (data.length < mMaxPayloadLen) {
-                sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, rx, service, data));
-            } else {
-                mTotalPackets = data.length / mMaxPayloadLen + 1;
-                Log.i(TAG, "This message is larger than max payload size: " + mMaxPayloadLen
-                        + ". Breaking down to " + mTotalPackets + " packets.");
-                mPacketCount = 0; //reset packet count
-                while (mMaxPayloadLen * mPacketCount <= data.length) {
-                    byte[] packet = Arrays.copyOfRange(data, mMaxPayloadLen * mPacketCount,
-                            Math.min(data.length, mMaxPayloadLen * mPacketCount + mMaxPayloadLen));
-                    mPacketCount++;
-                    Log.d(TAG, "Packet #" + mPacketCount + ": " + bytesToHexString(packet));
-                    sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, rxlarge, service, packet));
-                }
+    /**
+     * In UP_FRONT mode the MTU is final once both the negotiated and the advertised MTU are known,
+     * or failed to be obtained (-1). The device cannot take more than it advertises, so the
+     * smaller of the known values is used, or DEFAULT_ATT_MTU if neither is known.
+     */
+    private void reconcileMtu() {
+        if (mNegotiatedMtu == 0 || mAdvertisedMtu == 0) {
+            return;
+        }
+        Log.i(TAG, "Negotiated MTU: " + mNegotiatedMtu + ", device MTU: " + mAdvertisedMtu);
+        int mtu;
+        if (mNegotiatedMtu > 0 && mAdvertisedMtu > 0) {
+            mtu = Math.min(mNegotiatedMtu, mAdvertisedMtu);
+        } else if (mNegotiatedMtu > 0 || mAdvertisedMtu > 0) {
+            mtu = Math.max(mNegotiatedMtu, mAdvertisedMtu);
+        } else {
+            mtu = DEFAULT_ATT_MTU;
+        }
+        onMtuFinal(mtu);
+    }
+
+    /**
+     * The MTU request failed to be sent or timed out, or the MTU advertised by the device could
+     * not be parsed. The MTU is made final with what is known, so that the services are still
+     * enabled.
+     */
+    private void onMtuUnavailable() {
+        if (mMtuFinal) {
+            return;
+        }
+        if (mMtuNegotiationMode == MtuNegotiationMode.UP_FRONT) {
+            reconcileMtu();
+        } else {
+            int mtu = mNegotiatedMtu > 0 ? mNegotiatedMtu : DEFAULT_ATT_MTU;
+            Log.w(TAG, "MTU could not be obtained, using " + mtu);
+            onMtuFinal(mtu);
+        }
+    }
+
+    private void onMtuRequestFailed() {
+        if (mNegotiatedMtu == 0) {
+            // No exchange took place, so the link keeps its default MTU.
+            mNegotiatedMtu = -1;
+        }
+        onMtuUnavailable();
+    }
+
+    /**
+     * Set the MTU used to break down messages, enable the services on the device, and send the
+     * messages that were held back until the MTU was final.
+     */
+    private void onMtuFinal(int mtu) {
+        mMtu = mtu;
+        mMaxPayloadLen = Math.max(mMtu - 3, 0);
+        mFragmentBuffers.setBufferSize(mMaxPayloadLen);
+        if (!mMtuFinal) {
+            mMtuFinal = true;
+            mTimeToMtu = SystemClock.uptimeMillis() - mConnectedTime;
+            Log.i(TAG, "MTU is set to " + mMtu + " in " + mTimeToMtu + "ms.");
+            mBleConnectionStatusCallback.onMtuNegotiated(mMtu, mTimeToMtu);
+        }
+        // The BLE service should be initialized at this stage
+        if (mBleConnectionState == BleConnectionState.BLE_INITIALIZING) {
+            mBleConnectionState = AmazonFreeRTOSConstants.BleConnectionState.BLE_INITIALIZED;
+            mBleConnectionStatusCallback.onBleConnectionStatusChanged(mBleConnectionState);
+        }
+        enableService(UUID_NETWORK_SERVICE, true);
+        enableService(UUID_MQTT_PROXY_SERVICE, true);
+        while (!mPendingSends.isEmpty()) {
+            mPendingSends.remove(0).run();
+        }
+        openMqttTransport();
+    }
+
+    /**
+     * Open the L2CAP channel for MQTT proxy messages, if enabled and supported by the phone.
+     * Messages keep going through GATT until the channel is open.
+     */
+    private void openMqttTransport() {
+        if (mL2capPsm <= 0 || mMqttTransport != null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            Log.w(TAG, "L2CAP channels require Android 10, MQTT proxy stays on GATT.");
+            return;
+        }
+        Log.i(TAG, "Opening L2CAP channel on PSM " + mL2capPsm);
+        final MqttProxyTransport transport = new L2capTransport(mBluetoothDevice, mL2capPsm);
+        mMqttTransport = transport;
+        transport.open(new MqttProxyTransport.Listener() {
+            @Override
+            public void onOpened() {
+                Log.i(TAG, "MQTT proxy messages are now sent through the L2CAP channel.");
+            }
+
+            @Override
+            public void onMessage(final byte[] message) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleMqttTxMessage(message);
+                    }
+                });
+            }
+
+            @Override
+            public void onClosed(IOException cause) {
+                Log.i(TAG, "L2CAP channel closed, MQTT proxy falls back to GATT.");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mMqttTransport == transport) {
+                            mMqttTransport = null;
+                        }
+                    }
+                });
             }
+
+            @Override
+            public void onSendFailed(FrameSource message) {
+                // The transport is closed, so the message goes through GATT.
+                sendDataToDevice(CHARACTERISTIC_MQTT_PROXY_RX, CHARACTERISTIC_MQTT_PROXY_RXLARGE,
+                        message);
+            }
+        });
+    }
+
+    /**
+     * Queue a whole MQTT proxy message on the alternative transport, if it is open. The message
+     * is written by the writer thread of the transport, so that a slow channel does not stall the
+     * event loop shared with other devices.
+     * @return true if the message was queued, false if it has to be sent through GATT.
+     */
+    private boolean sendThroughMqttTransport(final FrameSource message) {
+        MqttProxyTransport transport = mMqttTransport;
+        if (transport == null || !transport.isOpen()) {
+            return false;
+        }
+        try {
+            transport.send(message);
+            return true;
+        } catch (IOException e) {
+            // The channel is closed, or too far behind to take more messages.
+            Log.w(TAG, "Failed to send through the L2CAP channel, falling back to GATT: "
+                    + e.getMessage());
+            return false;
         }
     }
 
-    private void sendBleCommand(final BleCommand command) {
-        if (UUID_MQTT_PROXY_SERVICE.equals(command.getServiceUuid())) {
-            mMqttQueue.add(command);
+    /**
+     * Hold back a message until the MTU is final.
+     * @return true if the message was held back.
+     */
+    private boolean holdUntilMtuFinal(final int rx, final Runnable send) {
+        if (mMtuFinal || !isBLEConnected()) {
+            return false;
+        }
+        if (mPendingSends.size() >= MAX_PENDING_SENDS) {
+            Log.w(TAG, "MTU is not final yet and " + MAX_PENDING_SENDS
+                    + " messages are held back, dropping message.");
+            onMessageDropped(rx);
+            return true;
+        }
+        Log.d(TAG, "MTU is not final yet, holding message back.");
+        mPendingSends.add(send);
+        return true;
+    }
+
+    /**
+     * Add a small MQTT proxy message to the batch sent to the device, if batching was negotiated
+     * and messages are sent through GATT. The batch is sent before a message that is too large
+     * to be batched, so messages reach the device in order.
+     *
+     * @param message the encoded message.
+     * @return true if the message was batched.
+     */
+    private boolean sendBatched(final FrameSource message) {
+        MqttProxyTransport transport = mMqttTransport;
+        if (!mMqttBatching || !mMtuFinal || (transport != null && transport.isOpen())) {
+            return false;
+        }
+        int length = message.getLength();
+        if (length >= mMaxPayloadLen) {
+            mMqttBatcher.flush();
+            return false;
+        }
+        byte[] data = message instanceof ByteArrayFrameSource
+                ? ((ByteArrayFrameSource) message).getSingleArray() : null;
+        if (data == null) {
+            data = new byte[length];
+            message.read(0, data, 0, length);
+        }
+        mMqttBatcher.add(data, mMaxPayloadLen - 1);
+        return true;
+    }
+
+    /**
+     * Send a small MQTT control frame to the device through the MQTT_CONTROL lane, which preempts
+     * queued bulk data at chunk boundaries. Frames that do not fit in a single write are sent
+     * through the MQTT_BULK lane, so that their chunks are not interleaved with other RXLARGE data.
+     */
+    private void sendMqttControlToDevice(final byte[] data) {
+        sendMqttControlToDevice(data, true);
+    }
+
+    private void sendMqttControlToDevice(final byte[] data, final boolean batch) {
+        if (data != null && sendThroughMqttTransport(new ByteArrayFrameSource(data))) {
+            return;
+        }
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                writeMqttControlToDevice(data, batch);
+            }
+        });
+    }
+
+    private void writeMqttControlToDevice(final byte[] data, final boolean batch) {
+        if (holdUntilMtuFinal(CHARACTERISTIC_MQTT_PROXY_RX, new Runnable() {
+            @Override
+            public void run() {
+                sendMqttControlToDevice(data, batch);
+            }
+        })) {
+            return;
+        }
+        if (batch && data != null && sendBatched(new ByteArrayFrameSource(data))) {
+            return;
+        }
+        if (data != null && data.length < mMaxPayloadLen) {
+            BleCommand command = new BleCommand(WRITE_CHARACTERISTIC, CHARACTERISTIC_MQTT_PROXY_RX,
+                    data);
+            command.setLane(BleCommandLane.MQTT_CONTROL);
+            sendBleCommand(command);
         } else {
-            mNetworkQueue.add(command);
+            sendDataToDevice(CHARACTERISTIC_MQTT_PROXY_RX, CHARACTERISTIC_MQTT_PROXY_RXLARGE, data);
         }
-        processBleCommandQueue();
+    }
+
+    private void sendDataToDevice(final int rx, final int rxlarge, final byte[] data) {
+        if (data != null) {
+            sendDataToDevice(rx, rxlarge, new ByteArrayFrameSource(data));
+        }
+    }
+
+    /**
+     * Send a message from its frame source. A message that does not fit in a single write is
+     * read from the source one frame at a time, as each frame is written.
+     */
+    private void sendDataToDevice(final int rx, final int rxlarge, @NonNull final FrameSource source) {
+        if (rx == CHARACTERISTIC_MQTT_PROXY_RX && sendThroughMqttTransport(source)) {
+            return;
+        }
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                writeDataToDevice(rx, rxlarge, source);
+            }
+        });
+    }
+
+    /**
+     * Write a message to the characteristics, on the event loop.
+     */
+    private void writeDataToDevice(final int rx, final int rxlarge, final FrameSource source) {
+        if (holdUntilMtuFinal(rx, new Runnable() {
+            @Override
+            public void run() {
+                sendDataToDevice(rx, rxlarge, source);
+            }
+        })) {
+            return;
+        }
+        int length = source.getLength();
+        if (mMaxPayloadLen <= 0) {
+            Log.w(TAG, "MTU is not known, dropping message of " + length + " bytes.");
+            onMessageDropped(rx);
+        } else if (length < mMaxPayloadLen) {
+            byte[] data = source instanceof ByteArrayFrameSource
+                    ? ((ByteArrayFrameSource) source).getSingleArray() : null;
+            if (data == null) {
+                data = new byte[length];
+                source.read(0, data, 0, length);
+            }
+            sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, rx, data));
+        } else {
+            MessageFragmenter fragmenter = new MessageFragmenter(source, mMaxPayloadLen,
+                    mBulkWriteEnabled ? mBulkWriteCredits : 0);
+            Log.i(TAG, "This message is larger than max payload size: " + mMaxPayloadLen
+                    + ". Breaking down to " + fragmenter.getFragmentCount() + " packets.");
+            sendBleCommand(new BleCommand(WRITE_CHARACTERISTIC, rxlarge, fragmenter,
+                    new BulkTransfer(length, fragmenter.getFragmentCount())));
+        }
+    }
+
+    /**
+     * A message written to a characteristic was dropped, or its write timed out. If it went to
+     * the MQTT proxy, it may have introduced a topic alias the device never learned, so the next
+     * message on each topic carries its topic again.
+     *
+     * @param handle the characteristic the message was written to.
+     */
+    private void onMessageDropped(final int handle) {
+        if (handle == CHARACTERISTIC_MQTT_PROXY_RX || handle == CHARACTERISTIC_MQTT_PROXY_RXLARGE) {
+            mDownlinkTopicAliases.resendTopics();
+        }
+    }
+
+    private void onBulkChunkWritten(final BulkTransfer transfer) {
+        if (transfer != null && transfer.onChunkWritten()) {
+            mBulkWriteStats.record(transfer.totalBytes, transfer.elapsedMillis());
+            Log.i(TAG, "Bulk message of " + transfer.totalBytes + " bytes written in "
+                    + transfer.elapsedMillis() + "ms. " + mBulkWriteStats);
+        }
+    }
+
+    private void sendBleCommand(final BleCommand command) {
+        runOnEventLoop(new Runnable() {
+            @Override
+            public void run() {
+                if (command.getLane() == null) {
+                    command.setLane(getLane(command));
+                }
+                mScheduler.add(command.getLane(), command);
+                processBleCommandQueue();
+            }
+        });
     }
 
     private void processBleCommandQueue() {
-        try {
-            mutex.acquire();
-            if (mBleOperationInProgress) {
-                Log.d(TAG, "Ble operation is in progress. mqtt queue: " + mMqttQueue.size()
-                        + " network queue: " + mNetworkQueue.size());
+        while (true) {
+            BleCommand bleCommand = mScheduler.peek();
+            if (bleCommand == null) {
+                Log.d(TAG, "There's no ble command in the queue.");
+                break;
+            }
+            MessageFragmenter fragmenter = bleCommand.getFragmenter();
+            if (fragmenter != null) {
+                bleCommand.setWithoutResponse(fragmenter.isWithoutResponse());
+            }
+            if (bleCommand.getType() == WRITE_CHARACTERISTIC && bleCommand.isWithoutResponse()) {
+                resolveWriteType(bleCommand);
+            }
+            if (!canSendBleCommand(bleCommand)) {
+                Log.d(TAG, "Ble operation is in progress. in flight: " + mInFlight.size()
+                        + " queued: " + mScheduler.size());
+                break;
+            }
+            Log.d(TAG, "Processing BLE command: " + bleCommand.getType()
+                    + " remaining queued " + (mScheduler.size() - 1));
+            if (sendBleCommandToGatt(bleCommand)) {
+                int bulkBytes = getBulkBytes(bleCommand);
+                mScheduler.poll();
+                bleCommand.setFailedSends(0);
+                if (fragmenter != null && fragmenter.advance()) {
+                    // Keep the rest of the message ahead of the other commands of its lane.
+                    mScheduler.addFirst(bleCommand.getLane(), bleCommand);
+                }
+                bleCommand.setSentTime(SystemClock.uptimeMillis());
+                if (bleCommand.getTimeout() != null) {
+                    // The timeout of a fragmented message covers its latest fragment.
+                    bleCommand.getTimeout().cancel();
+                }
+                BleCommandTimeout timeoutTask = new BleCommandTimeout(bleCommand);
+                timeoutTask.mTimeout = scheduleOnHandler(timeoutTask,
+                        mRttEstimator.getTimeout(bleCommand.getType()));
+                bleCommand.setTimeout(timeoutTask.mTimeout);
+                mInFlight.add(bleCommand);
+                onLinkActivity(bulkBytes);
+            } else if (!mInFlight.isEmpty()) {
+                // The Bluetooth stack is still busy with an operation in flight. Keep the
+                // command at the head of the queue and retry once an operation completes.
+                break;
+            } else if (bleCommand.getFailedSends() < BLE_COMMAND_MAX_RETRIES) {
+                // The Bluetooth stack may still be busy with a command that timed out. Keep the
+                // command at the head of the queue and retry it shortly.
+                bleCommand.setFailedSends(bleCommand.getFailedSends() + 1);
+                Log.w(TAG, "Ble command " + bleCommand.getType() + " was refused, retry "
+                        + bleCommand.getFailedSends() + " in " + BLE_COMMAND_RETRY_DELAY + "ms");
+                scheduleOnHandler(resetOperationInProgress, BLE_COMMAND_RETRY_DELAY);
+                break;
             } else {
-                if (mMqttQueue.peek() == null && mNetworkQueue.peek() == null) {
-                    Log.d(TAG, "There's no ble command in the queue.");
-                    mBleOperationInProgress = false;
-                } else {
-                    mBleOperationInProgress = true;
-                    BleCommand bleCommand;
-                    if (mNetworkQueue.peek() != null && mMqttQueue.peek() != null) {
-                        if (rr) {
-                            bleCommand = mMqttQueue.poll();
-                        } else {
-                            bleCommand = mNetworkQueue.poll();
-                        }
-                        rr = !rr;
-                    } else if (mNetworkQueue.peek() != null) {
-                        bleCommand = mNetworkQueue.poll();
-                    } else {
-                        bleCommand = mMqttQueue.poll();
-                    }
-                    Log.d(TAG, "Processing BLE command: " + bleCommand.getType()
-                            + " remaining mqtt queue " + mMqttQueue.size()
-                            + ", network queue " + mNetworkQueue.size());
-                    boolean commandSent = false;
-                    switch (bleCommand.getType()) {
-                        case WRITE_DESCRIPTOR:
-                            if (writeDescriptor(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid())) {
-                                commandSent = true;
-                            }
-                            break;
-                        case WRITE_CHARACTERISTIC:
-                            if (writeCharacteristic(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid(),
-                                    bleCommand.getData())) {
-                                commandSent = true;
-                            }
-                            break;
-                        case READ_CHARACTERISTIC:
-                            if (readCharacteristic(bleCommand.getServiceUuid(), bleCommand.getCharacteristicUuid())) {
-                                commandSent = true;
-                            }
-                            break;
-                        case DISCOVER_SERVICES:
-                            if (mBluetoothGatt.discoverServices()) {
-                                commandSent = true;
-                            } else {
-                                Log.e(TAG, "Failed to discover services!");
-                            }
-                            break;
-                        case REQUEST_MTU:
-                            if (mBluetoothGatt.requestMtu(ByteBuffer.wrap(bleCommand.getData()).getInt())) {
-                                commandSent = true;
-                            } else {
-                                Log.e(TAG, "Failed to set MTU.");
-                            }
-                            break;
-                        default:
-                            Log.w(TAG, "Unknown Ble command, cannot process.");
-                    }
-                    if (commandSent) {
-                        mHandler.postDelayed(resetOperationInProgress, BLE_COMMAND_TIMEOUT);
-                    } else {
-                        mHandler.post(resetOperationInProgress);
+                mScheduler.poll();
+                Log.e(TAG, "Ble command failed to be sent: " + bleCommand.getType());
+                if (bleCommand.getType() == REQUEST_MTU) {
+                    onMtuRequestFailed();
+                }
+                onMessageDropped(bleCommand.getHandle());
+                mHandler.post(resetOperationInProgress);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Classify a BLE command into the scheduler lane it is sent through.
+     */
+    private static BleCommandLane getLane(final BleCommand command) {
+        switch (command.getType()) {
+            case DISCOVER_SERVICES:
+            case REQUEST_MTU:
+            case WRITE_DESCRIPTOR:
+                return BleCommandLane.CONTROL;
+            default:
+                break;
+        }
+        switch (command.getHandle()) {
+            case CHARACTERISTIC_NETWORK_CONTROL:
+            case CHARACTERISTIC_MQTT_PROXY_CONTROL:
+                return BleCommandLane.CONTROL;
+            case CHARACTERISTIC_DEVICE_VERSION:
+            case CHARACTERISTIC_IOT_ENDPOINT:
+            case CHARACTERISTIC_DEVICE_MTU:
+            case CHARACTERISTIC_DEVICE_PLATFORM:
+            case CHARACTERISTIC_DEVICE_ID:
+                return BleCommandLane.DEVICE_INFO;
+            case CHARACTERISTIC_MQTT_PROXY_TX:
+            case CHARACTERISTIC_MQTT_PROXY_RX:
+            case CHARACTERISTIC_MQTT_PROXY_TXLARGE:
+            case CHARACTERISTIC_MQTT_PROXY_RXLARGE:
+                return BleCommandLane.MQTT_BULK;
+            default:
+                return BleCommandLane.NETWORK_CONFIG;
+        }
+    }
+
+    /**
+     * Acknowledged operations are serialized: they are only sent when no other operation is in
+     * flight. Writes without response can be pipelined up to mWriteNoResponseDepth, as long as
+     * no acknowledged operation is in flight.
+     */
+    private boolean canSendBleCommand(final BleCommand bleCommand) {
+        if (mInFlight.isEmpty()) {
+            return true;
+        }
+        if (bleCommand.isAcknowledged()) {
+            return false;
+        }
+        int unacknowledged = 0;
+        for (BleCommand inFlight : mInFlight) {
+            if (inFlight.isAcknowledged()) {
+                return false;
+            }
+            unacknowledged++;
+        }
+        return unacknowledged < mWriteNoResponseDepth;
+    }
+
+    /**
+     * Fall back to an acknowledged write if the characteristic does not support write without
+     * response.
+     */
+    private void resolveWriteType(final BleCommand bleCommand) {
+        BluetoothGattCharacteristic characteristic = mCharacteristics.get(bleCommand.getHandle());
+        if (characteristic != null && (characteristic.getProperties()
+                & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) == 0) {
+            bleCommand.setWithoutResponse(false);
+        }
+    }
+
+    private boolean sendBleCommandToGatt(final BleCommand bleCommand) {
+        boolean commandSent = false;
+        switch (bleCommand.getType()) {
+            case WRITE_DESCRIPTOR:
+                if (writeDescriptor(bleCommand.getHandle())) {
+                    commandSent = true;
+                }
+                break;
+            case WRITE_CHARACTERISTIC: {
+                MessageFragmenter fragmenter = bleCommand.getFragmenter();
+                byte[] value = fragmenter == null ? bleCommand.getData()
+                        : fragmenter.copyFragment(mFragmentBuffers);
+                if (writeCharacteristic(bleCommand.getHandle(), value, bleCommand.isWithoutResponse())) {
+                    commandSent = true;
+                    if (bleCommand.getBulkTransfer() != null) {
+                        bleCommand.getBulkTransfer().onChunkSent();
                     }
                 }
+                if (fragmenter != null) {
+                    // The Bluetooth stack copies the value when the write is issued.
+                    mFragmentBuffers.release(value);
+                }
+                break;
             }
-            mutex.release();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Mutex error", e);
+            case READ_CHARACTERISTIC:
+                if (readCharacteristic(bleCommand.getHandle())) {
+                    commandSent = true;
+                }
+                break;
+            case DISCOVER_SERVICES:
+                if (mBluetoothGatt.discoverServices()) {
+                    commandSent = true;
+                } else {
+                    Log.e(TAG, "Failed to discover services!");
+                }
+                break;
+            case REQUEST_MTU:
+                if (mBluetoothGatt.requestMtu(ByteBuffer.wrap(bleCommand.getData()).getInt())) {
+                    commandSent = true;
+                } else {
+                    Log.e(TAG, "Failed to set MTU.");
+                }
+                break;
+            default:
+                Log.w(TAG, "Unknown Ble command, cannot process.");
         }
+        return commandSent;
     }
 
     private Runnable resetOperationInProgress = new Runnable() {
         @Override
         public void run() {
-            Log.e(TAG, "Ble command failed to be sent OR timeout after " + BLE_COMMAND_TIMEOUT + "ms");
-            // If current ble command timed out, process the next ble command.
+            // If the ble command failed to be sent, process the next ble command.
             if (mBluetoothDevice.getBondState() != BluetoothDevice.BOND_BONDING) {
-                processNextBleCommand();
+                processBleCommandQueue();
             }
         }
     };
 
-    private void processNextBleCommand() {
-        mHandler.removeCallbacks(resetOperationInProgress);
-        mBleOperationInProgress = false;
+    /**
+     * This runs on the handler thread when a ble command in flight reaches its timeout.
+     */
+    private class BleCommandTimeout implements Runnable {
+        private final BleCommand mBleCommand;
+        /**
+         * The timeout this task was scheduled with. Cancelling it cannot stop the task once the
+         * timer has posted it to the handler, so the task checks that the command still waits
+         * on this timeout, and not on the one of a later fragment sent with the same command.
+         */
+        private HashedWheelTimer.Timeout mTimeout;
+
+        BleCommandTimeout(BleCommand bleCommand) {
+            mBleCommand = bleCommand;
+        }
+
+        @Override
+        public void run() {
+            if (mBleCommand.getTimeout() != mTimeout) {
+                return;
+            }
+            // While bonding, the command completes once the bond is created.
+            if (mBluetoothDevice.getBondState() == BluetoothDevice.BOND_BONDING) {
+                return;
+            }
+            // All fragments of a fragmented message in flight are covered by one timeout.
+            boolean removed = false;
+            while (mInFlight.remove(mBleCommand)) {
+                removed = true;
+            }
+            if (removed) {
+                Log.e(TAG, "Ble command " + mBleCommand.getType() + " timeout after "
+                        + (SystemClock.uptimeMillis() - mBleCommand.getSentTime()) + "ms");
+                mRttEstimator.onTimeout(mBleCommand.getType());
+                if (mBleCommand.getType() == REQUEST_MTU) {
+                    onMtuRequestFailed();
+                }
+                onMessageDropped(mBleCommand.getHandle());
+                // If current ble command timed out, process the next ble command.
+                processBleCommandQueue();
+            }
+        }
+    }
+
+    /**
+     * Run a task on the handler thread after a delay, using the timer shared by all devices.
+     *
+     * @param task        the task to run.
+     * @param delayMillis the delay in ms.
+     * @return the handle to cancel the task.
+     */
+    private HashedWheelTimer.Timeout scheduleOnHandler(final Runnable task, long delayMillis) {
+        return mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(task);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * @return the number of bytes a ble command moves through a RXLARGE or TXLARGE characteristic.
+     */
+    private int getBulkBytes(final BleCommand bleCommand) {
+        int handle = bleCommand.getHandle();
+        if (bleCommand.getType() == WRITE_CHARACTERISTIC && (handle == CHARACTERISTIC_MQTT_PROXY_RXLARGE
+                || handle == CHARACTERISTIC_NETWORK_RXLARGE)) {
+            MessageFragmenter fragmenter = bleCommand.getFragmenter();
+            return fragmenter != null ? fragmenter.getFragmentLength() : bleCommand.getData().length;
+        } else if (bleCommand.getType() == READ_CHARACTERISTIC && (handle == CHARACTERISTIC_MQTT_PROXY_TXLARGE
+                || handle == CHARACTERISTIC_NETWORK_TXLARGE)) {
+            return mMaxPayloadLen;
+        }
+        return 0;
+    }
+
+    private void onLinkActivity(int bulkBytes) {
+        int priority = mPriorityGovernor.onActivity(bulkBytes, mScheduler.size() + mInFlight.size(),
+                SystemClock.uptimeMillis());
+        if (priority >= 0) {
+            requestConnectionPriority(priority);
+        }
+        armPriorityIdleCheck();
+    }
+
+    /**
+     * While the link is not at its idle priority, check periodically whether it has been idle
+     * long enough to drop back.
+     */
+    private void armPriorityIdleCheck() {
+        if (mPriorityIdleCheck != null || mPriorityGovernor.isAtIdlePriority()) {
+            return;
+        }
+        mPriorityIdleCheck = scheduleOnHandler(new Runnable() {
+            @Override
+            public void run() {
+                mPriorityIdleCheck = null;
+                int priority = mPriorityGovernor.onIdleCheck(mScheduler.size() + mInFlight.size(),
+                        SystemClock.uptimeMillis());
+                if (priority >= 0) {
+                    requestConnectionPriority(priority);
+                }
+                armPriorityIdleCheck();
+            }
+        }, mPriorityGovernor.getIdleMillis());
+    }
+
+    /**
+     * Ask for the LE PHY chosen by mPhyPolicy. If the phone cannot use that PHY, or runs a version
+     * of Android without PHY preferences, the PHY chosen by the Bluetooth stack is kept. With the
+     * AUTO policy, this is called on every reconnect, so the coded PHY is asked for once the link
+     * has been lost often enough.
+     */
+    private void applyPhyPolicy() {
+        if (mPhyPolicy == PhyPolicy.DEFAULT || mBluetoothGatt == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            Log.w(TAG, "PHY preference requires Android 8.0, keeping default PHY.");
+            return;
+        }
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        int phyMask = 0;
+        int phyOptions = BluetoothDevice.PHY_OPTION_NO_PREFERRED;
+        switch (mPhyPolicy) {
+            case PREFER_2M:
+                if (adapter != null && adapter.isLe2MPhySupported()) {
+                    phyMask = BluetoothDevice.PHY_LE_2M_MASK;
+                }
+                break;
+            case AUTO:
+                if (mLinkLosses >= AUTO_PHY_CODED_LINK_LOSSES && adapter != null
+                        && adapter.isLeCodedPhySupported()) {
+                    Log.i(TAG, "Link lost " + mLinkLosses + " times, falling back to coded PHY.");
+                    phyMask = BluetoothDevice.PHY_LE_CODED_MASK;
+                } else if (adapter != null && adapter.isLe2MPhySupported()) {
+                    // Leave the stack free to drop to 1M when 2M does not hold up.
+                    phyMask = BluetoothDevice.PHY_LE_2M_MASK | BluetoothDevice.PHY_LE_1M_MASK;
+                }
+                break;
+            case PREFER_CODED:
+                if (adapter != null && adapter.isLeCodedPhySupported()) {
+                    phyMask = BluetoothDevice.PHY_LE_CODED_MASK;
+                }
+                break;
+            default:
+                break;
+        }
+        if (phyMask == 0) {
+            Log.w(TAG, "PHY policy " + mPhyPolicy + " is not supported by this phone, keeping default PHY.");
+            // Still report the PHY in use.
+            mBluetoothGatt.readPhy();
+            return;
+        }
+        Log.i(TAG, "Setting preferred PHY for policy: " + mPhyPolicy);
+        mBluetoothGatt.setPreferredPhy(phyMask, phyMask, phyOptions);
+    }
+
+    private void requestConnectionPriority(int priority) {
+        if (mBluetoothGatt != null) {
+            Log.i(TAG, "Requesting connection priority: " + priority);
+            if (!mBluetoothGatt.requestConnectionPriority(priority)) {
+                Log.w(TAG, "Failed to request connection priority.");
+            }
+        }
+    }
+
+    /**
+     * Reconnect after an unexpected disconnect. The first attempt is made immediately. If the
+     * link drops again before it is reestablished, the delay before the next attempt doubles,
+     * up to RECONNECT_BACKOFF_MAX.
+     */
+    private void scheduleReconnect() {
+        long delay = mReconnectAttempts == 0 ? 0
+                : Math.min(RECONNECT_BACKOFF_INITIAL << Math.min(mReconnectAttempts - 1, 16),
+                RECONNECT_BACKOFF_MAX);
+        mReconnectAttempts++;
+        Log.i(TAG, "Reconnecting in " + delay + "ms, attempt " + mReconnectAttempts);
+        mReconnectTimeout = scheduleOnHandler(new Runnable() {
+            @Override
+            public void run() {
+                mReconnectTimeout = null;
+                if (mGattAutoReconnect && mBluetoothGatt != null) {
+                    mBluetoothGatt.connect();
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Match a completion reported by the BluetoothGattCallback with the oldest operation in flight
+     * of the same type on the same characteristic, then process the next ble command.
+     *
+     * @param type               the type of the completed operation.
+     * @param handle the characteristic of the completed operation, or NO_CHARACTERISTIC for
+     *               operations that are not bound to a characteristic.
+     * @return the completed command, or null if no matching operation was in flight.
+     */
+    private BleCommand completeBleCommand(final BleCommand.CommandType type, final int handle) {
+        BleCommand completed = null;
+        Iterator<BleCommand> iterator = mInFlight.iterator();
+        while (iterator.hasNext()) {
+            BleCommand bleCommand = iterator.next();
+            if (bleCommand.getType() == type
+                    && bleCommand.getHandle() == handle) {
+                iterator.remove();
+                completed = bleCommand;
+                // With several fragments of a message in flight, the sent time is that of the
+                // latest one, so only the completion of the last one gives a round trip time.
+                if (!mInFlight.contains(bleCommand)) {
+                    bleCommand.getTimeout().cancel();
+                    // A write without response completes once the Bluetooth stack has taken it,
+                    // long before an acknowledged write would, so it says nothing about the
+                    // round trip to the device.
+                    if (bleCommand.isAcknowledged()) {
+                        mRttEstimator.addSample(type,
+                                SystemClock.uptimeMillis() - bleCommand.getSentTime());
+                    }
+                }
+                break;
+            }
+        }
+        if (completed == null) {
+            Log.w(TAG, "No " + type + " operation in flight for: " + CharacteristicRegistry.getName(handle));
+        }
         processBleCommandQueue();
+        return completed;
     }
 
-    private boolean writeDescriptor(final String serviceUuid, final String characteristicUuid) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
+    private boolean writeDescriptor(final int handle) {
+        BluetoothGattCharacteristic characteristic = mCharacteristics.get(handle);
         if (characteristic != null) {
             mBluetoothGatt.setCharacteristicNotification(characteristic, true);
             BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
                     convertFromInteger(0x2902));
             if (descriptor != null) {
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                mBluetoothGatt.writeDescriptor(descriptor);
-                return true;
+                return mBluetoothGatt.writeDescriptor(descriptor);
             } else {
-                Log.w(TAG, "There's no such descriptor on characteristic: " + characteristicUuid);
+                Log.w(TAG, "There's no such descriptor on characteristic: "
+                        + CharacteristicRegistry.getName(handle));
             }
         }
         return false;
     }
 
-    private boolean writeCharacteristic(final String serviceUuid, final String characteristicUuid, final byte[] value) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
+    private boolean writeCharacteristic(final int handle, final byte[] value,
+                                        final boolean withoutResponse) {
+        BluetoothGattCharacteristic characteristic = mCharacteristics.get(handle);
         if (characteristic != null) {
-            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            Log.d(TAG, "<-<-<- Writing to characteristic: " + uuidToName.get(characteristicUuid)
+            characteristic.setWriteType(withoutResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            Log.d(TAG, "<-<-<- Writing to characteristic: " + CharacteristicRegistry.getName(handle)
                     + "  with data: " + bytesToHexString(value));
-            mValueWritten = value;
             characteristic.setValue(value);
             if (!mBluetoothGatt.writeCharacteristic(characteristic)) {
-                mRWinProgress = false;
                 Log.e(TAG, "Failed to write characteristic.");
             } else {
-                mRWinProgress = true;
                 return true;
             }
         }
         return false;
     }
 
-    private BluetoothGattCharacteristic getCharacteristic(final String serviceUuid,
-                                                          final String characteristicUuid) {
-        BluetoothGattService service = mBluetoothGatt.getService(UUID.fromString(serviceUuid));
-        if (service == null) {
-            Log.w(TAG, "There's no such service found with uuid: " + serviceUuid);
-            return null;
-        }
-        BluetoothGattCharacteristic characteristic =
-                service.getCharacteristic(UUID.fromString(characteristicUuid));
-        if (characteristic == null) {
-            Log.w(TAG, "There's no such characteristic with uuid: " + characteristicUuid);
-            return null;
-        }
-        return characteristic;
-    }
-
-    private boolean readCharacteristic(final String serviceUuid, final String characteristicUuid) {
-        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUuid, characteristicUuid);
+    private boolean readCharacteristic(final int handle) {
+        BluetoothGattCharacteristic characteristic = mCharacteristics.get(handle);
         if (characteristic != null) {
-            Log.d(TAG, "<-<-<- Reading from characteristic: " + uuidToName.get(characteristicUuid));
+            Log.d(TAG, "<-<-<- Reading from characteristic: " + CharacteristicRegistry.getName(handle));
             if (!mBluetoothGatt.readCharacteristic(characteristic)) {
-                mRWinProgress = false;
                 Log.e(TAG, "Failed to read characteristic.");
             } else {
-                mRWinProgress = true;
                 return true;
             }
         }
@@ -59,6 +59,9 @@ public class AmazonFreeRTOSManager {
                     new ParcelUuid(UUID.fromString(UUID_AmazonFreeRTOS))).build());
 
     private Map<String, AmazonFreeRTOSDevice> mAFreeRTOSDevices = new HashMap<>();
+    private final EventLoopPool mEventLoops;
+    private final ConnectionAdmissionController mAdmission = new ConnectionAdmissionController(
+            HashedWheelTimer.getInstance(), MAX_CONCURRENT_LINKS, VISIT_SLICE_TIME);
 
     private BleScanResultCallback mBleScanResultCallback;
 
@@ -70,8 +73,28 @@ public class AmazonFreeRTOSManager {
      * @param bluetoothAdapter BluetoothAdaptor passed in by the app.
      */
     public AmazonFreeRTOSManager(Context context, BluetoothAdapter bluetoothAdapter) {
+        this(context, bluetoothAdapter, new EventLoopPool());
+    }
+
+    /**
+     * Construct an AmazonFreeRTOSManager instance whose devices share a given number of event
+     * loops.
+     *
+     * @param context          The app context. Should be passed in by the app that creates a new instance
+     *                         of AmazonFreeRTOSManager.
+     * @param bluetoothAdapter BluetoothAdaptor passed in by the app.
+     * @param eventLoops       The number of threads the GATT operations of all connected devices
+     *                         run on. By default, one per available processor.
+     */
+    public AmazonFreeRTOSManager(Context context, BluetoothAdapter bluetoothAdapter, int eventLoops) {
+        this(context, bluetoothAdapter, new EventLoopPool(eventLoops));
+    }
+
+    private AmazonFreeRTOSManager(Context context, BluetoothAdapter bluetoothAdapter,
+                                  EventLoopPool eventLoops) {
         mContext = context;
         mBluetoothAdapter = bluetoothAdapter;
+        mEventLoops = eventLoops;
     }
 
     /**
@@ -191,12 +214,58 @@ public class AmazonFreeRTOSManager {
                                                 @NonNull final BleConnectionStatusCallback connectionStatusCallback,
                                                 final AWSCredentialsProvider cp,
                                                 final boolean autoReconnect) {
-        AmazonFreeRTOSDevice aDevice = new AmazonFreeRTOSDevice(btDevice, mContext, cp);
+        return connectToDevice(btDevice, connectionStatusCallback, cp, autoReconnect, PhyPolicy.DEFAULT);
+    }
+
+    /**
+     * Connect to the BLE device, and notify the connection state via BleConnectionStatusCallback.
+     *
+     * @param connectionStatusCallback The callback to notify app whether the BLE connection is
+     *                                 successful. Must not be null.
+     * @param btDevice                 the BLE device to be connected to.
+     * @param cp                       the AWSCredential used to connect to AWS IoT.
+     * @param autoReconnect            auto reconnect to device after unexpected disconnect
+     * @param phyPolicy                the LE PHY to ask for once connected. The negotiated PHY is
+     *                                 reported through BleConnectionStatusCallback#onPhyUpdate.
+     */
+    public AmazonFreeRTOSDevice connectToDevice(@NonNull final BluetoothDevice btDevice,
+                                                @NonNull final BleConnectionStatusCallback connectionStatusCallback,
+                                                final AWSCredentialsProvider cp,
+                                                final boolean autoReconnect,
+                                                @NonNull final PhyPolicy phyPolicy) {
+        AmazonFreeRTOSDevice aDevice = new AmazonFreeRTOSDevice(btDevice, mContext, cp, mEventLoops);
         mAFreeRTOSDevices.put(btDevice.getAddress(), aDevice);
-        aDevice.connect(connectionStatusCallback, autoReconnect);
+        admit(aDevice, connectionStatusCallback, autoReconnect, phyPolicy);
         return aDevice;
     }
 
+    /**
+     * Connect the device once the admission controller gives it a link. The controller is told
+     * when the GATT client of the device is closed, so that its link is given to the next device.
+     */
+    private void admit(final AmazonFreeRTOSDevice aDevice,
+                       final BleConnectionStatusCallback connectionStatusCallback,
+                       final boolean autoReconnect, final PhyPolicy phyPolicy) {
+        final String address = aDevice.getMBluetoothDevice().getAddress();
+        aDevice.setLinkListener(new AmazonFreeRTOSDevice.LinkListener() {
+            @Override
+            public void onLinkClosed() {
+                mAdmission.onLinkClosed(address);
+            }
+        });
+        mAdmission.request(address, new ConnectionAdmissionController.Link() {
+            @Override
+            public void open() {
+                aDevice.connect(connectionStatusCallback, autoReconnect, phyPolicy);
+            }
+
+            @Override
+            public void close() {
+                aDevice.disconnect();
+            }
+        });
+    }
+
     /**
      * Connect to the BLE device, and notify the connection state via BleConnectionStatusCallback.
      *
@@ -210,9 +279,28 @@ public class AmazonFreeRTOSManager {
                                                 @NonNull final BleConnectionStatusCallback connectionStatusCallback,
                                                 final KeyStore ks,
                                                 final boolean autoReconnect) {
-        AmazonFreeRTOSDevice aDevice = new AmazonFreeRTOSDevice(btDevice, mContext, ks);
+        return connectToDevice(btDevice, connectionStatusCallback, ks, autoReconnect, PhyPolicy.DEFAULT);
+    }
+
+    /**
+     * Connect to the BLE device, and notify the connection state via BleConnectionStatusCallback.
+     *
+     * @param connectionStatusCallback The callback to notify app whether the BLE connection is
+     *                                 successful. Must not be null.
+     * @param btDevice                 the BLE device to be connected to.
+     * @param ks                       the KeyStore that contains certificate used to connect to AWS IoT.
+     * @param autoReconnect            auto reconnect to device after unexpected disconnect
+     * @param phyPolicy                the LE PHY to ask for once connected. The negotiated PHY is
+     *                                 reported through BleConnectionStatusCallback#onPhyUpdate.
+     */
+    public AmazonFreeRTOSDevice connectToDevice(@NonNull final BluetoothDevice btDevice,
+                                                @NonNull final BleConnectionStatusCallback connectionStatusCallback,
+                                                final KeyStore ks,
+                                                final boolean autoReconnect,
+                                                @NonNull final PhyPolicy phyPolicy) {
+        AmazonFreeRTOSDevice aDevice = new AmazonFreeRTOSDevice(btDevice, mContext, ks, mEventLoops);
         mAFreeRTOSDevices.put(btDevice.getAddress(), aDevice);
-        aDevice.connect(connectionStatusCallback, autoReconnect);
+        admit(aDevice, connectionStatusCallback, autoReconnect, phyPolicy);
         return aDevice;
     }
 
@@ -223,9 +311,74 @@ public class AmazonFreeRTOSManager {
      */
     public void disconnectFromDevice(@NonNull final AmazonFreeRTOSDevice aDevice) {
         mAFreeRTOSDevices.remove(aDevice.getMBluetoothDevice().getAddress());
+        // The link is given to the next device once the GATT client of this one is closed.
+        mAdmission.release(aDevice.getMBluetoothDevice().getAddress());
         aDevice.disconnect();
     }
 
+    /**
+     * Set the number of devices that are connected at the same time. Devices over the limit wait
+     * for a link, without any BleConnectionStatusCallback until they connect. By default
+     * AmazonFreeRTOSConstants.class#MAX_CONCURRENT_LINKS.
+     *
+     * @param maxLinks the maximum number of concurrent links.
+     */
+    public void setMaxConcurrentLinks(int maxLinks) {
+        mAdmission.setMaxLinks(maxLinks);
+    }
+
+    /**
+     * Enable visit mode, so that a fleet larger than the maximum number of concurrent links is
+     * served in turns. Once a device has been connected for a time slice while other devices are
+     * waiting, it is disconnected, and connected again after its turn in the queue.
+     *
+     * @param visitSliceMillis the time in ms a device keeps its link while other devices wait for
+     *                         one, or 0 to disable visit mode.
+     */
+    public void setVisitSlice(long visitSliceMillis) {
+        mAdmission.setVisitSliceMillis(visitSliceMillis);
+    }
+
+    /**
+     * Set the priority of a device for the links. A device with a higher priority is connected
+     * before the waiting devices with a lower priority. The default priority is 0.
+     *
+     * @param macAddr  the mac address of the BLE device.
+     * @param priority the priority of the device.
+     */
+    public void setConnectionPriority(@NonNull String macAddr, int priority) {
+        mAdmission.setPriority(macAddr, priority);
+    }
+
+    /**
+     * Get the time a device waited for a link before it was connected.
+     *
+     * @param macAddr the mac address of the BLE device.
+     * @return a snapshot of the wait statistics of the device.
+     */
+    public ConnectionWaitStats getConnectionWaitStats(@NonNull String macAddr) {
+        return mAdmission.getWaitStats(macAddr);
+    }
+
+    /**
+     * Get the admission controller of the links, e.g. to check how many devices are waiting.
+     *
+     * @return the connection admission controller of this manager.
+     */
+    public ConnectionAdmissionController getConnectionAdmission() {
+        return mAdmission;
+    }
+
+    /**
+     * Get the pool of event loops the devices are assigned to, e.g. to check how many devices
+     * share each loop.
+     *
+     * @return the event loop pool of this manager.
+     */
+    public EventLoopPool getEventLoopPool() {
+        return mEventLoops;
+    }
+
     /**
      * Get the instance of AmazonFreeRTOSDevice given the mac address of the BLE device
      *
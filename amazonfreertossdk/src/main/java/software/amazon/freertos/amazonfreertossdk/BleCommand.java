@@ -24,7 +24,7 @@ import lombok.Getter;
  */
 @Getter
 public class BleCommand {
-    enum CommandType {
+    public enum CommandType {
         WRITE_DESCRIPTOR,
         WRITE_CHARACTERISTIC,
         READ_CHARACTERISTIC,
@@ -38,6 +38,11 @@ public class BleCommand {
      */
     private CommandType type;
 
+    /**
+     * The handle of the characteristic of the BLE command, or NO_CHARACTERISTIC.
+     */
+    private int handle;
+
     /**
      * The characteristic uuid of the BLE command.
      */
@@ -53,6 +58,48 @@ public class BleCommand {
      */
     private byte[] data;
 
+    /**
+     * Whether the data should be written without waiting for an ATT write response.
+     */
+    private boolean withoutResponse;
+
+    /**
+     * The bulk transfer this command is a chunk of, or null if it is not part of one.
+     */
+    private BulkTransfer bulkTransfer;
+
+    /**
+     * The fragmentation state of a message that is written in fragments, or null if the
+     * command is written in one piece. The command stays at the head of its lane until every
+     * fragment has been written.
+     */
+    private MessageFragmenter fragmenter;
+
+    /**
+     * The pending timeout of the command, once it has been sent.
+     */
+    private HashedWheelTimer.Timeout timeout;
+
+    /**
+     * The uptime in ms when the command was sent.
+     */
+    private long sentTime;
+
+    /**
+     * The uptime in ms when the command was added to the scheduler.
+     */
+    private long enqueueTime;
+
+    /**
+     * The scheduler lane the command is sent through.
+     */
+    private AmazonFreeRTOSConstants.BleCommandLane lane;
+
+    /**
+     * How many times in a row the Bluetooth stack refused to send the command.
+     */
+    private int failedSends;
+
     /**
      * Construct a BLE command with data.
      * @param t the BLE command type.
@@ -62,11 +109,39 @@ public class BleCommand {
      */
     public BleCommand(CommandType t, String cUuid, String sUuid, byte[] d) {
         type = t;
+        handle = CharacteristicRegistry.getHandle(cUuid);
         characteristicUuid = cUuid;
         serviceUuid = sUuid;
         data = d;
     }
 
+    /**
+     * Construct a BLE command on a characteristic of the SDK.
+     * @param t the BLE command type.
+     * @param h the characteristic handle.
+     * @param d the data to be sent with the BLE command, or null.
+     */
+    BleCommand(CommandType t, int h, byte[] d) {
+        type = t;
+        handle = h;
+        characteristicUuid = CharacteristicRegistry.getCharacteristicUuid(h);
+        serviceUuid = CharacteristicRegistry.getServiceUuid(h);
+        data = d;
+    }
+
+    /**
+     * Construct a BLE write command for a message that is written in fragments.
+     * @param t the BLE command type.
+     * @param h the characteristic handle.
+     * @param f the fragmentation state of the message.
+     * @param transfer the bulk transfer the fragments belong to.
+     */
+    BleCommand(CommandType t, int h, MessageFragmenter f, BulkTransfer transfer) {
+        this(t, h, null);
+        fragmenter = f;
+        bulkTransfer = transfer;
+    }
+
     /**
      * Construct a BLE command without any data.
      * @param t the BLE command type.
@@ -84,4 +159,36 @@ public class BleCommand {
     public BleCommand(CommandType t, int mtu) {
         this(t, null, null, ByteBuffer.allocate(4).putInt(mtu).array());
     }
+
+    /**
+     * @return true if the Bluetooth stack reports the completion of this command only after the
+     * device has responded, in which case no other command may be in flight at the same time.
+     */
+    boolean isAcknowledged() {
+        return !(type == CommandType.WRITE_CHARACTERISTIC && withoutResponse);
+    }
+
+    void setWithoutResponse(boolean noResponse) {
+        withoutResponse = noResponse;
+    }
+
+    void setTimeout(HashedWheelTimer.Timeout t) {
+        timeout = t;
+    }
+
+    void setSentTime(long uptimeMillis) {
+        sentTime = uptimeMillis;
+    }
+
+    void setEnqueueTime(long uptimeMillis) {
+        enqueueTime = uptimeMillis;
+    }
+
+    void setLane(AmazonFreeRTOSConstants.BleCommandLane l) {
+        lane = l;
+    }
+
+    void setFailedSends(int failures) {
+        failedSends = failures;
+    }
 }
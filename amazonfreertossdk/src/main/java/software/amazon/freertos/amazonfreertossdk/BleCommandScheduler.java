@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BleCommandLane;
+
+/**
+ * This interface defines how the SDK picks the next BLE command to send to the device. BLE
+ * commands are added to a named lane, and the scheduler decides which lane is served next.
+ * Commands within a lane are always sent in the order they were added.
+ */
+public interface BleCommandScheduler {
+    /**
+     * Add a BLE command to the tail of a lane.
+     *
+     * @param lane    the lane of the BLE command.
+     * @param command the BLE command.
+     */
+    void add(BleCommandLane lane, BleCommand command);
+
+    /**
+     * @return the BLE command that should be sent next, without removing it, or null if there is
+     * no pending BLE command. Calling peek repeatedly without poll must return the same command.
+     */
+    BleCommand peek();
+
+    /**
+     * Put a BLE command that poll returned back at the head of its lane. This is used for a
+     * message written in fragments, so that its remaining fragments are sent before the other
+     * commands of the lane. The command counts as newly added for the lane statistics.
+     *
+     * @param lane    the lane of the BLE command.
+     * @param command the BLE command.
+     */
+    void addFirst(BleCommandLane lane, BleCommand command);
+
+    /**
+     * Remove the BLE command returned by the last call to peek.
+     *
+     * @return the removed BLE command, or null if there is no pending BLE command.
+     */
+    BleCommand poll();
+
+    /**
+     * @return the total number of pending BLE commands in all lanes.
+     */
+    int size();
+
+    /**
+     * Remove all pending BLE commands.
+     */
+    void clear();
+
+    /**
+     * @param lane the lane.
+     * @return a snapshot of the queue depth and wait time statistics of the lane, which may be
+     * taken from any thread.
+     */
+    LaneStats getLaneStats(BleCommandLane lane);
+}
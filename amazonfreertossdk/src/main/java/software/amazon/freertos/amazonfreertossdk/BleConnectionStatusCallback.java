@@ -24,4 +24,20 @@ public abstract class BleConnectionStatusCallback {
      * @param connectionStatus The BLE connection state.
      */
     public void onBleConnectionStatusChanged(AmazonFreeRTOSConstants.BleConnectionState connectionStatus) {}
+
+    /**
+     * This callback is triggered when the LE PHY of the connection is negotiated or changes.
+     * @param txPhy The transmitter PHY, one of BluetoothDevice.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED.
+     * @param rxPhy The receiver PHY, one of BluetoothDevice.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED.
+     */
+    public void onPhyUpdate(int txPhy, int rxPhy) {}
+
+    /**
+     * This callback is triggered once the MTU used for the connection is final, before the
+     * services on the device are enabled.
+     * @param mtu The MTU used for the connection.
+     * @param timeToMtuMillis The time in ms from the connection being established to the MTU
+     *                        being final.
+     */
+    public void onMtuNegotiated(int mtu, long timeToMtuMillis) {}
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.os.SystemClock;
+
+/**
+ * This class tracks one message that is written to the device in chunks through a RXLARGE
+ * characteristic, so that the goodput of the transfer can be measured once the last chunk
+ * has been written.
+ */
+class BulkTransfer {
+    /**
+     * Total number of payload bytes in the message.
+     */
+    final int totalBytes;
+    /**
+     * Number of chunks that have not been written yet.
+     */
+    private int mChunksRemaining;
+    /**
+     * Time when the first chunk was handed to the Bluetooth stack, 0 if not started yet.
+     */
+    private long mStartTime = 0;
+
+    BulkTransfer(int totalBytes, int totalChunks) {
+        this.totalBytes = totalBytes;
+        mChunksRemaining = totalChunks;
+    }
+
+    /**
+     * Called when a chunk of this transfer is handed to the Bluetooth stack.
+     */
+    void onChunkSent() {
+        if (mStartTime == 0) {
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Called when the Bluetooth stack reports that a chunk of this transfer has been written.
+     *
+     * @return true if this was the last chunk of the transfer.
+     */
+    boolean onChunkWritten() {
+        mChunksRemaining--;
+        return mChunksRemaining <= 0;
+    }
+
+    /**
+     * @return the time in ms elapsed since the first chunk was sent.
+     */
+    long elapsedMillis() {
+        return mStartTime == 0 ? 0 : SystemClock.elapsedRealtime() - mStartTime;
+    }
+}
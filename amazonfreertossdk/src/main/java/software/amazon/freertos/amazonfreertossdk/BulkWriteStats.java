@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import lombok.Getter;
+
+/**
+ * This class represents the measured goodput of bulk writes, i.e. messages that are larger than
+ * the max payload size and are therefore written to the device in chunks through a RXLARGE
+ * characteristic.
+ */
+@Getter
+public class BulkWriteStats {
+    /**
+     * Number of bulk messages written to the device.
+     */
+    private long messages;
+    /**
+     * Total number of payload bytes written in bulk messages.
+     */
+    private long bytes;
+    /**
+     * Total time in ms spent writing bulk messages.
+     */
+    private long durationMillis;
+    /**
+     * Goodput of the last bulk message in bytes per second.
+     */
+    private long lastGoodput;
+
+    BulkWriteStats() {
+    }
+
+    /**
+     * Copy the statistics, so that a snapshot handed out does not change while messages are
+     * written.
+     */
+    BulkWriteStats(BulkWriteStats other) {
+        synchronized (other) {
+            messages = other.messages;
+            bytes = other.bytes;
+            durationMillis = other.durationMillis;
+            lastGoodput = other.lastGoodput;
+        }
+    }
+
+    synchronized void record(int messageBytes, long messageMillis) {
+        messages++;
+        bytes += messageBytes;
+        durationMillis += messageMillis;
+        lastGoodput = messageBytes * 1000L / Math.max(messageMillis, 1);
+    }
+
+    /**
+     * @return the average goodput of all bulk messages in bytes per second.
+     */
+    public long getAverageGoodput() {
+        return bytes * 1000L / Math.max(durationMillis, 1);
+    }
+
+    public String toString() {
+        return String.format("Bulk write stats -> messages: %d bytes: %d duration: %dms"
+                + " last goodput: %dB/s average goodput: %dB/s",
+                messages, bytes, durationMillis, lastGoodput, getAverageGoodput());
+    }
+}
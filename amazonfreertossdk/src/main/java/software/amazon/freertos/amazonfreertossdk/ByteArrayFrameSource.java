@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import lombok.NonNull;
+
+/**
+ * A frame source over an encoded message that is held in one or more consecutive arrays, such
+ * as the encoded header of an MQTT PUBLISH and its payload. The arrays are referenced, not
+ * copied, so they must not be modified while the message is being sent.
+ */
+public class ByteArrayFrameSource implements FrameSource {
+    private final byte[][] mParts;
+    private final int mLength;
+
+    /**
+     * @param parts the consecutive parts of the encoded message.
+     */
+    public ByteArrayFrameSource(@NonNull byte[]... parts) {
+        mParts = parts;
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        mLength = length;
+    }
+
+    @Override
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override
+    public void read(int position, byte[] dst, int offset, int length) {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new IndexOutOfBoundsException("Cannot read " + length + " bytes at " + position
+                    + " from a message of " + mLength + " bytes");
+        }
+        int partStart = 0;
+        for (byte[] part : mParts) {
+            if (length == 0) {
+                break;
+            }
+            int partEnd = partStart + part.length;
+            if (position < partEnd) {
+                int count = Math.min(length, partEnd - position);
+                System.arraycopy(part, position - partStart, dst, offset, count);
+                position += count;
+                offset += count;
+                length -= count;
+            }
+            partStart = partEnd;
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] part : mParts) {
+            out.write(part);
+        }
+    }
+
+    /**
+     * @return the encoded message if it is held in a single array, which can then be sent
+     * without being copied, or null.
+     */
+    byte[] getSingleArray() {
+        return mParts.length == 1 ? mParts[0] : null;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.util.UUID;
+
+import lombok.NonNull;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.*;
+
+/**
+ * This class resolves the characteristics used by the SDK once services are discovered, and
+ * keeps the BluetoothGattCharacteristic of each of them by handle. BLE commands then reach their
+ * characteristic without parsing UUIDs or searching the services of the BluetoothGatt, and
+ * notifications are mapped back to a handle by comparing a few references.
+ */
+class CharacteristicRegistry {
+    private static final String TAG = "CharacteristicRegistry";
+
+    private static final String[] SERVICE_UUIDS = new String[CHARACTERISTIC_COUNT];
+    private static final String[] CHARACTERISTIC_UUIDS = new String[CHARACTERISTIC_COUNT];
+    private static final String[] NAMES = new String[CHARACTERISTIC_COUNT];
+    private static final UUID[] SERVICES = new UUID[CHARACTERISTIC_COUNT];
+    private static final UUID[] CHARACTERISTICS = new UUID[CHARACTERISTIC_COUNT];
+
+    static {
+        define(CHARACTERISTIC_NETWORK_CONTROL, UUID_NETWORK_SERVICE, UUID_NETWORK_CONTROL);
+        define(CHARACTERISTIC_NETWORK_TX, UUID_NETWORK_SERVICE, UUID_NETWORK_TX);
+        define(CHARACTERISTIC_NETWORK_RX, UUID_NETWORK_SERVICE, UUID_NETWORK_RX);
+        define(CHARACTERISTIC_NETWORK_TXLARGE, UUID_NETWORK_SERVICE, UUID_NETWORK_TXLARGE);
+        define(CHARACTERISTIC_NETWORK_RXLARGE, UUID_NETWORK_SERVICE, UUID_NETWORK_RXLARGE);
+        define(CHARACTERISTIC_MQTT_PROXY_CONTROL, UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_CONTROL);
+        define(CHARACTERISTIC_MQTT_PROXY_TX, UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_TX);
+        define(CHARACTERISTIC_MQTT_PROXY_RX, UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RX);
+        define(CHARACTERISTIC_MQTT_PROXY_TXLARGE, UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_TXLARGE);
+        define(CHARACTERISTIC_MQTT_PROXY_RXLARGE, UUID_MQTT_PROXY_SERVICE, UUID_MQTT_PROXY_RXLARGE);
+        define(CHARACTERISTIC_DEVICE_VERSION, UUID_DEVICE_INFORMATION_SERVICE, UUID_DEVICE_VERSION);
+        define(CHARACTERISTIC_IOT_ENDPOINT, UUID_DEVICE_INFORMATION_SERVICE, UUID_IOT_ENDPOINT);
+        define(CHARACTERISTIC_DEVICE_MTU, UUID_DEVICE_INFORMATION_SERVICE, UUID_DEVICE_MTU);
+        define(CHARACTERISTIC_DEVICE_PLATFORM, UUID_DEVICE_INFORMATION_SERVICE, UUID_DEVICE_PLATFORM);
+        define(CHARACTERISTIC_DEVICE_ID, UUID_DEVICE_INFORMATION_SERVICE, UUID_DEVICE_ID);
+    }
+
+    /**
+     * The characteristics of the connection by handle, null until they are resolved. The array is
+     * replaced rather than modified, as it is read from the Bluetooth callbacks and the handler.
+     */
+    private volatile BluetoothGattCharacteristic[] mCharacteristics =
+            new BluetoothGattCharacteristic[CHARACTERISTIC_COUNT];
+
+    private static void define(int handle, String serviceUuid, String characteristicUuid) {
+        SERVICE_UUIDS[handle] = serviceUuid;
+        CHARACTERISTIC_UUIDS[handle] = characteristicUuid;
+        NAMES[handle] = uuidToName.get(characteristicUuid);
+        SERVICES[handle] = UUID.fromString(serviceUuid);
+        CHARACTERISTICS[handle] = UUID.fromString(characteristicUuid);
+    }
+
+    /**
+     * Resolve the characteristics of the services discovered. Characteristics the device does not
+     * have are left unresolved, and commands sent to them fail.
+     *
+     * @param gatt the connection whose services were discovered.
+     */
+    void build(@NonNull BluetoothGatt gatt) {
+        BluetoothGattCharacteristic[] characteristics =
+                new BluetoothGattCharacteristic[CHARACTERISTIC_COUNT];
+        int resolved = 0;
+        for (int handle = 0; handle < CHARACTERISTIC_COUNT; handle++) {
+            BluetoothGattService service = gatt.getService(SERVICES[handle]);
+            if (service != null) {
+                characteristics[handle] = service.getCharacteristic(CHARACTERISTICS[handle]);
+            }
+            if (characteristics[handle] != null) {
+                resolved++;
+            }
+        }
+        mCharacteristics = characteristics;
+        Log.d(TAG, "Resolved " + resolved + " of " + CHARACTERISTIC_COUNT + " characteristics.");
+    }
+
+    /**
+     * Forget the characteristics of a connection that is closed.
+     */
+    void clear() {
+        mCharacteristics = new BluetoothGattCharacteristic[CHARACTERISTIC_COUNT];
+    }
+
+    /**
+     * @param handle the handle of the characteristic.
+     * @return the characteristic, or null if it was not resolved.
+     */
+    BluetoothGattCharacteristic get(int handle) {
+        BluetoothGattCharacteristic characteristic = handle >= 0 && handle < CHARACTERISTIC_COUNT
+                ? mCharacteristics[handle] : null;
+        if (characteristic == null) {
+            Log.w(TAG, "There's no such characteristic: " + getName(handle));
+        }
+        return characteristic;
+    }
+
+    /**
+     * Map a characteristic reported by the Bluetooth stack back to its handle. The stack reports
+     * the objects it returned at discovery, so they are compared by reference first.
+     *
+     * @param characteristic the characteristic.
+     * @return the handle, or NO_CHARACTERISTIC if the SDK does not use the characteristic.
+     */
+    int getHandle(BluetoothGattCharacteristic characteristic) {
+        BluetoothGattCharacteristic[] characteristics = mCharacteristics;
+        for (int handle = 0; handle < CHARACTERISTIC_COUNT; handle++) {
+            if (characteristics[handle] == characteristic) {
+                return handle;
+            }
+        }
+        if (characteristic != null) {
+            UUID uuid = characteristic.getUuid();
+            for (int handle = 0; handle < CHARACTERISTIC_COUNT; handle++) {
+                if (CHARACTERISTICS[handle].equals(uuid)) {
+                    return handle;
+                }
+            }
+        }
+        return NO_CHARACTERISTIC;
+    }
+
+    /**
+     * @param characteristicUuid the UUID string of a characteristic, which may be null.
+     * @return the handle, or NO_CHARACTERISTIC if the SDK does not use the characteristic.
+     */
+    static int getHandle(String characteristicUuid) {
+        for (int handle = 0; handle < CHARACTERISTIC_COUNT; handle++) {
+            if (CHARACTERISTIC_UUIDS[handle].equals(characteristicUuid)) {
+                return handle;
+            }
+        }
+        return NO_CHARACTERISTIC;
+    }
+
+    static String getServiceUuid(int handle) {
+        return handle >= 0 && handle < CHARACTERISTIC_COUNT ? SERVICE_UUIDS[handle] : null;
+    }
+
+    static String getCharacteristicUuid(int handle) {
+        return handle >= 0 && handle < CHARACTERISTIC_COUNT ? CHARACTERISTIC_UUIDS[handle] : null;
+    }
+
+    /**
+     * @return the name of a characteristic used in logs.
+     */
+    static String getName(int handle) {
+        return handle >= 0 && handle < CHARACTERISTIC_COUNT ? NAMES[handle] : "UNKNOWN";
+    }
+}
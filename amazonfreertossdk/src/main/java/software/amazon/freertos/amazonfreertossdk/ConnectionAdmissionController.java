@@ -0,0 +1,393 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import lombok.NonNull;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.LINK_CLOSE_TIMEOUT;
+
+/**
+ * This class limits the number of devices of a manager that are connected at the same time, so
+ * that the limit of the Android stack on GATT clients is not hit. Devices over the limit wait in
+ * a priority queue, higher priorities first and in the order they asked to connect within a
+ * priority. In visit mode, a connected device gives its link to a waiting device of the same or
+ * a higher priority once its time slice is over, and goes back to the queue, so that a fleet
+ * larger than the limit is visited in turns.
+ *
+ * A link counts against the limit until the device reports that its GATT client is closed, or
+ * until LINK_CLOSE_TIMEOUT after it was asked to close. Links are opened and closed outside the
+ * lock of the controller.
+ */
+public class ConnectionAdmissionController {
+    private static final String TAG = "ConnectionAdmission";
+
+    /**
+     * The link of a device, opened once the device is admitted and closed when it is rotated out.
+     */
+    interface Link {
+        void open();
+
+        void close();
+    }
+
+    private static class Request {
+        final String address;
+        int priority;
+        long sequence;
+        long enqueueTime;
+        Link link;
+        boolean admitted = false;
+        /**
+         * The link was asked to close and still counts against the limit.
+         */
+        boolean closing = false;
+        /**
+         * The app disconnected the device, so it leaves once its link is closed.
+         */
+        boolean released = false;
+        HashedWheelTimer.Timeout timeout;
+
+        Request(String a, Link l) {
+            address = a;
+            link = l;
+        }
+    }
+
+    /**
+     * The links to open and close once the lock of the controller is released.
+     */
+    private static class Actions {
+        final List<Link> open = new ArrayList<>();
+        final List<Link> close = new ArrayList<>();
+
+        void run() {
+            for (Link link : close) {
+                link.close();
+            }
+            for (Link link : open) {
+                link.open();
+            }
+        }
+    }
+
+    private static final Comparator<Request> ORDER = new Comparator<Request>() {
+        @Override
+        public int compare(Request a, Request b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final HashedWheelTimer mTimer;
+    private int mMaxLinks;
+    private long mVisitSliceMillis;
+    private long mNextSequence = 0;
+    /**
+     * The number of devices holding a link, including the ones being closed.
+     */
+    private int mActiveLinks = 0;
+    private final PriorityQueue<Request> mPending = new PriorityQueue<>(11, ORDER);
+    /**
+     * The devices waiting for a link or holding one, by MAC address.
+     */
+    private final Map<String, Request> mRequests = new HashMap<>();
+    private final Map<String, Integer> mPriorities = new HashMap<>();
+    private final Map<String, ConnectionWaitStats> mWaitStats = new HashMap<>();
+
+    ConnectionAdmissionController(@NonNull HashedWheelTimer timer, int maxLinks,
+                                  long visitSliceMillis) {
+        mTimer = timer;
+        setMaxLinks(maxLinks);
+        setVisitSliceMillis(visitSliceMillis);
+    }
+
+    /**
+     * Set the number of devices that may be connected at the same time. Lowering it does not
+     * disconnect any device, the next devices wait until enough links are released.
+     *
+     * @param maxLinks the maximum number of concurrent links.
+     */
+    public void setMaxLinks(int maxLinks) {
+        if (maxLinks < 1) {
+            throw new IllegalArgumentException("Invalid maximum number of links: " + maxLinks);
+        }
+        Actions actions = new Actions();
+        synchronized (this) {
+            mMaxLinks = maxLinks;
+            admitPending(actions);
+        }
+        actions.run();
+    }
+
+    /**
+     * Set the time slice of visit mode.
+     *
+     * @param visitSliceMillis the time in ms a device keeps its link while other devices wait for
+     *                         one, or 0 to disable visit mode.
+     */
+    public synchronized void setVisitSliceMillis(long visitSliceMillis) {
+        if (visitSliceMillis < 0) {
+            throw new IllegalArgumentException("Invalid visit slice: " + visitSliceMillis);
+        }
+        mVisitSliceMillis = visitSliceMillis;
+        for (Request request : mRequests.values()) {
+            if (request.admitted && !request.closing) {
+                armSlice(request);
+            }
+        }
+    }
+
+    /**
+     * Set the priority of a device. A device with a higher priority is connected before the
+     * waiting devices with a lower priority. The default priority is 0.
+     *
+     * @param address the MAC address of the device.
+     * @param priority the priority of the device.
+     */
+    public synchronized void setPriority(@NonNull String address, int priority) {
+        mPriorities.put(address, priority);
+        Request request = mRequests.get(address);
+        if (request != null && !request.admitted) {
+            mPending.remove(request);
+            request.priority = priority;
+            mPending.add(request);
+        } else if (request != null) {
+            request.priority = priority;
+        }
+    }
+
+    /**
+     * Ask for a link for a device. The link is opened right away if one is free, else once the
+     * device is admitted. A device that already holds a link opens the new one in its place, and
+     * a device whose link is still closing waits for its next turn.
+     *
+     * @param address the MAC address of the device.
+     * @param link the link of the device.
+     */
+    void request(@NonNull String address, @NonNull Link link) {
+        Actions actions = new Actions();
+        synchronized (this) {
+            Request request = mRequests.get(address);
+            if (request != null) {
+                request.link = link;
+                request.released = false;
+                if (request.admitted && !request.closing) {
+                    actions.open.add(link);
+                }
+            } else {
+                request = new Request(address, link);
+                mRequests.put(address, request);
+                enqueue(request);
+                admitPending(actions);
+                if (!request.admitted) {
+                    Log.i(TAG, "Device " + address + " waits for a link. " + this);
+                }
+            }
+        }
+        actions.run();
+    }
+
+    /**
+     * Give up the place in the queue of a device the app disconnects. A device holding a link
+     * keeps counting against the limit until its link is closed.
+     *
+     * @param address the MAC address of the device.
+     */
+    synchronized void release(@NonNull String address) {
+        Request request = mRequests.get(address);
+        if (request == null) {
+            return;
+        }
+        if (!request.admitted) {
+            mRequests.remove(address);
+            mPending.remove(request);
+            return;
+        }
+        request.released = true;
+        if (!request.closing) {
+            request.closing = true;
+            armCloseTimeout(request);
+        }
+    }
+
+    /**
+     * Called when the GATT client of a device is closed. Its link is given to the next device.
+     *
+     * @param address the MAC address of the device.
+     */
+    void onLinkClosed(@NonNull String address) {
+        Actions actions = new Actions();
+        synchronized (this) {
+            Request request = mRequests.get(address);
+            if (request != null && request.admitted) {
+                onLinkClosed(request, actions);
+            }
+        }
+        actions.run();
+    }
+
+    private void onLinkClosed(Request request, Actions actions) {
+        cancelTimeout(request);
+        request.admitted = false;
+        mActiveLinks--;
+        if (request.closing && !request.released) {
+            // Rotated out, so back to the queue behind the devices of the same priority.
+            request.closing = false;
+            enqueue(request);
+        } else {
+            mRequests.remove(request.address);
+        }
+        admitPending(actions);
+    }
+
+    private void enqueue(Request request) {
+        Integer priority = mPriorities.get(request.address);
+        request.priority = priority != null ? priority : 0;
+        request.sequence = mNextSequence++;
+        request.enqueueTime = SystemClock.uptimeMillis();
+        mPending.add(request);
+    }
+
+    private void admitPending(Actions actions) {
+        while (mActiveLinks < mMaxLinks && !mPending.isEmpty()) {
+            Request request = mPending.poll();
+            request.admitted = true;
+            mActiveLinks++;
+            long waitMillis = SystemClock.uptimeMillis() - request.enqueueTime;
+            waitStats(request.address).onAdmitted(waitMillis);
+            Log.i(TAG, "Device " + request.address + " admitted after " + waitMillis + "ms. "
+                    + this);
+            armSlice(request);
+            actions.open.add(request.link);
+        }
+    }
+
+    private void armSlice(final Request request) {
+        cancelTimeout(request);
+        if (mVisitSliceMillis > 0) {
+            request.timeout = mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onSliceOver(request);
+                }
+            }, mVisitSliceMillis);
+        }
+    }
+
+    private void armCloseTimeout(final Request request) {
+        cancelTimeout(request);
+        request.timeout = mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onCloseTimeout(request);
+            }
+        }, LINK_CLOSE_TIMEOUT);
+    }
+
+    private void onSliceOver(Request request) {
+        Link close = null;
+        synchronized (this) {
+            if (mRequests.get(request.address) != request || !request.admitted
+                    || request.closing) {
+                return;
+            }
+            request.timeout = null;
+            Request next = mPending.peek();
+            if (next == null || next.priority < request.priority) {
+                armSlice(request);
+                return;
+            }
+            Log.i(TAG, "Device " + request.address + " gives its link to " + next.address);
+            request.closing = true;
+            waitStats(request.address).onRotated();
+            armCloseTimeout(request);
+            close = request.link;
+        }
+        close.close();
+    }
+
+    private void onCloseTimeout(Request request) {
+        Actions actions = new Actions();
+        synchronized (this) {
+            if (mRequests.get(request.address) != request || !request.closing) {
+                return;
+            }
+            Log.w(TAG, "Device " + request.address + " did not report its link closed.");
+            request.timeout = null;
+            onLinkClosed(request, actions);
+        }
+        actions.run();
+    }
+
+    private static void cancelTimeout(Request request) {
+        if (request.timeout != null) {
+            request.timeout.cancel();
+            request.timeout = null;
+        }
+    }
+
+    private ConnectionWaitStats waitStats(String address) {
+        ConnectionWaitStats stats = mWaitStats.get(address);
+        if (stats == null) {
+            stats = new ConnectionWaitStats();
+            mWaitStats.put(address, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Get the time a device waited to connect.
+     *
+     * @param address the MAC address of the device.
+     * @return a snapshot of the wait statistics of the device.
+     */
+    public synchronized ConnectionWaitStats getWaitStats(@NonNull String address) {
+        ConnectionWaitStats stats = mWaitStats.get(address);
+        return stats != null ? new ConnectionWaitStats(stats) : new ConnectionWaitStats();
+    }
+
+    /**
+     * @return the number of devices holding a link.
+     */
+    public synchronized int getActiveLinks() {
+        return mActiveLinks;
+    }
+
+    /**
+     * @return the number of devices waiting for a link.
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public synchronized String toString() {
+        return "Connection admission -> links: " + mActiveLinks + "/" + mMaxLinks
+                + " waiting: " + mPending.size()
+                + (mVisitSliceMillis > 0 ? " visit slice: " + mVisitSliceMillis + "ms" : "");
+    }
+}
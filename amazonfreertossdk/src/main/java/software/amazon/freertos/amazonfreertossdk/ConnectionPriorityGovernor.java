@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.SystemClock;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.CONNECTION_PRIORITY_IDLE_TIMEOUT;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.CONNECTION_PRIORITY_RAISE_BYTES;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.CONNECTION_PRIORITY_RAISE_DEPTH;
+
+/**
+ * This class decides when the connection priority of a device should change. The priority is
+ * raised to CONNECTION_PRIORITY_HIGH once a bulk transfer is under way, that is when
+ * CONNECTION_PRIORITY_RAISE_BYTES have gone through the RXLARGE or TXLARGE characteristics, or
+ * when CONNECTION_PRIORITY_RAISE_DEPTH BLE commands are pending. It is only dropped back to the
+ * idle priority after the link has been quiet for the whole idle period, so that short gaps
+ * between messages do not make the priority flap. The time spent in each priority is counted.
+ */
+public class ConnectionPriorityGovernor {
+    private int mIdlePriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private long mIdleMillis = CONNECTION_PRIORITY_IDLE_TIMEOUT;
+    private int mPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private long mPrioritySince = 0;
+    private long mLastActive = 0;
+    private long mBulkBytes = 0;
+    private long mPriorityChanges = 0;
+    // Indexed by BluetoothGatt.CONNECTION_PRIORITY_BALANCED, _HIGH and _LOW_POWER.
+    private final long[] mTimeInPriority = new long[3];
+
+    /**
+     * Set the priority the link returns to when it is idle, and how long it has to be idle first.
+     */
+    synchronized void setIdlePolicy(int idlePriority, long idleMillis) {
+        mIdlePriority = idlePriority;
+        mIdleMillis = idleMillis;
+    }
+
+    synchronized long getIdleMillis() {
+        return mIdleMillis;
+    }
+
+    synchronized boolean isAtIdlePriority() {
+        return mPriority == mIdlePriority;
+    }
+
+    /**
+     * Record activity on the link.
+     *
+     * @param bulkBytes      the number of bytes that went through a RXLARGE or TXLARGE
+     *                       characteristic, 0 for other activity.
+     * @param pendingCommands the number of BLE commands that are pending or in flight.
+     * @param now            the current uptime in ms.
+     * @return the priority to request, or -1 if the priority should not change.
+     */
+    synchronized int onActivity(int bulkBytes, int pendingCommands, long now) {
+        mLastActive = now;
+        mBulkBytes += bulkBytes;
+        if (mPriority != BluetoothGatt.CONNECTION_PRIORITY_HIGH
+                && (mBulkBytes >= CONNECTION_PRIORITY_RAISE_BYTES
+                || pendingCommands >= CONNECTION_PRIORITY_RAISE_DEPTH)) {
+            return setPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH, now);
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether the link has been idle long enough to drop the priority.
+     *
+     * @param pendingCommands the number of BLE commands that are pending or in flight.
+     * @param now            the current uptime in ms.
+     * @return the priority to request, or -1 if the priority should not change.
+     */
+    synchronized int onIdleCheck(int pendingCommands, long now) {
+        if (pendingCommands > 0) {
+            mLastActive = now;
+        } else if (now - mLastActive >= mIdleMillis) {
+            mBulkBytes = 0;
+            if (mPriority != mIdlePriority) {
+                return setPriority(mIdlePriority, now);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called when the link is established. Every link starts at balanced priority.
+     */
+    synchronized void onConnected(long now) {
+        mBulkBytes = 0;
+        mLastActive = now;
+        mPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        mPrioritySince = now;
+    }
+
+    /**
+     * Called when the link is lost. Time is not counted while disconnected.
+     */
+    synchronized void onDisconnected(long now) {
+        if (mPrioritySince != 0) {
+            mTimeInPriority[mPriority] += now - mPrioritySince;
+            mPrioritySince = 0;
+        }
+    }
+
+    private int setPriority(int priority, long now) {
+        if (mPrioritySince != 0) {
+            mTimeInPriority[mPriority] += now - mPrioritySince;
+        }
+        mPriority = priority;
+        mPrioritySince = now;
+        mPriorityChanges++;
+        return priority;
+    }
+
+    /**
+     * @return the current connection priority.
+     */
+    public synchronized int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @param priority one of the BluetoothGatt.CONNECTION_PRIORITY_* values.
+     * @return the total time in ms the link spent in the priority.
+     */
+    public synchronized long getTimeInPriority(int priority) {
+        long time = mTimeInPriority[priority];
+        if (priority == mPriority && mPrioritySince != 0) {
+            time += SystemClock.uptimeMillis() - mPrioritySince;
+        }
+        return time;
+    }
+
+    /**
+     * @return the number of times the connection priority was changed.
+     */
+    public synchronized long getPriorityChanges() {
+        return mPriorityChanges;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import lombok.Getter;
+
+/**
+ * This class represents the time one device waited for the ConnectionAdmissionController of
+ * its manager to let it connect.
+ */
+@Getter
+public class ConnectionWaitStats {
+    /**
+     * Number of times the device was let to connect.
+     */
+    private long admissions;
+    /**
+     * Number of times the device was disconnected to give its link to a waiting device.
+     */
+    private long rotations;
+    /**
+     * Total time in ms the device waited to connect.
+     */
+    private long totalWaitMillis;
+    /**
+     * Time in ms the device waited before its last connection.
+     */
+    private long lastWaitMillis;
+    /**
+     * Longest time in ms the device waited to connect.
+     */
+    private long maxWaitMillis;
+
+    ConnectionWaitStats() {
+    }
+
+    /**
+     * Copy the statistics, so that a snapshot handed out does not change while the device waits
+     * and connects.
+     */
+    ConnectionWaitStats(ConnectionWaitStats other) {
+        admissions = other.admissions;
+        rotations = other.rotations;
+        totalWaitMillis = other.totalWaitMillis;
+        lastWaitMillis = other.lastWaitMillis;
+        maxWaitMillis = other.maxWaitMillis;
+    }
+
+    void onAdmitted(long waitMillis) {
+        admissions++;
+        totalWaitMillis += waitMillis;
+        lastWaitMillis = waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+    }
+
+    void onRotated() {
+        rotations++;
+    }
+
+    /**
+     * @return the average time in ms the device waited to connect.
+     */
+    public long getAverageWaitMillis() {
+        return admissions == 0 ? 0 : totalWaitMillis / admissions;
+    }
+
+    public String toString() {
+        return String.format("Connection wait stats -> admissions: %d rotations: %d"
+                + " last wait: %dms average wait: %dms max wait: %dms",
+                admissions, rotations, lastWaitMillis, getAverageWaitMillis(), maxWaitMillis);
+    }
+}
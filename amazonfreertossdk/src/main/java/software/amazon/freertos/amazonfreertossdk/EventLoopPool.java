@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lombok.NonNull;
+
+/**
+ * This class is a fixed pool of event loops shared by the devices of an AmazonFreeRTOSManager,
+ * so that the number of threads does not grow with the number of devices, nor with the number of
+ * times they reconnect. A device is assigned to a loop by consistent hashing of its MAC address,
+ * so a device keeps its loop across connections and the devices spread evenly over the loops.
+ * Each loop is a HandlerThread, started when its first device is assigned to it, and quit once
+ * its last device releases it, so an idle pool holds no threads.
+ */
+public class EventLoopPool {
+    private static final String TAG = "EventLoopPool";
+    /**
+     * Number of points each loop has on the hash ring. More points spread the devices more
+     * evenly over the loops.
+     */
+    private static final int POINTS_PER_LOOP = 32;
+
+    private final int mSize;
+    private final TreeMap<Integer, Integer> mRing = new TreeMap<>();
+    private final HandlerThread[] mThreads;
+    private final int[] mDeviceCounts;
+    /**
+     * The loop of each device that holds one, by MAC address.
+     */
+    private final Map<String, Integer> mAssignments = new HashMap<>();
+
+    /**
+     * Construct a pool with one event loop per available processor.
+     */
+    public EventLoopPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param size the number of event loops.
+     */
+    public EventLoopPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid event loop count: " + size);
+        }
+        mSize = size;
+        mThreads = new HandlerThread[size];
+        mDeviceCounts = new int[size];
+        for (int loop = 0; loop < size; loop++) {
+            for (int point = 0; point < POINTS_PER_LOOP; point++) {
+                mRing.put(hash("loop-" + loop + "#" + point), loop);
+            }
+        }
+    }
+
+    /**
+     * Get the loop a device is assigned to, without starting it.
+     *
+     * @param address the MAC address of the device.
+     * @return the index of the loop, between 0 and getSize() - 1.
+     */
+    int indexOf(@NonNull String address) {
+        Map.Entry<Integer, Integer> entry = mRing.ceilingEntry(hash(address));
+        return entry != null ? entry.getValue() : mRing.firstEntry().getValue();
+    }
+
+    /**
+     * Assign a device to its event loop, starting the loop if needed. A device that already
+     * holds a loop gets the same loop.
+     *
+     * @param address the MAC address of the device.
+     * @return the looper of the event loop of the device.
+     */
+    synchronized Looper acquire(@NonNull String address) {
+        Integer held = mAssignments.get(address);
+        int loop = held != null ? held : indexOf(address);
+        if (mThreads[loop] == null) {
+            mThreads[loop] = new HandlerThread("AmazonFreeRTOSEventLoop-" + loop);
+            mThreads[loop].start();
+            Log.i(TAG, "Started event loop " + loop + " of " + mSize);
+        }
+        if (held == null) {
+            mAssignments.put(address, loop);
+            mDeviceCounts[loop]++;
+            Log.d(TAG, "Device " + address + " assigned to event loop " + loop + ". " + this);
+        }
+        return mThreads[loop].getLooper();
+    }
+
+    /**
+     * Release the event loop of a device. The loop keeps running for the devices still assigned
+     * to it. Once no device is assigned to it, it quits after the tasks already due, and the next
+     * device hashed to it starts it again. The device should release its loop only once it
+     * expects no more callbacks, as tasks posted to a quit loop are dropped.
+     *
+     * @param address the MAC address of the device.
+     */
+    synchronized void release(@NonNull String address) {
+        Integer loop = mAssignments.remove(address);
+        if (loop != null) {
+            mDeviceCounts[loop]--;
+            Log.d(TAG, "Device " + address + " released event loop " + loop + ". " + this);
+            if (mDeviceCounts[loop] == 0) {
+                mThreads[loop].quitSafely();
+                mThreads[loop] = null;
+                Log.i(TAG, "Stopped event loop " + loop + " of " + mSize);
+            }
+        }
+    }
+
+    /**
+     * @return the number of event loops of the pool.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @param loop the index of the loop.
+     * @return the number of devices assigned to the loop.
+     */
+    public synchronized int getDeviceCount(int loop) {
+        return mDeviceCounts[loop];
+    }
+
+    /**
+     * @param loop the index of the loop.
+     * @return true if the thread of the loop is started.
+     */
+    synchronized boolean isRunning(int loop) {
+        return mThreads[loop] != null;
+    }
+
+    /**
+     * Spread the bits of the string hash, so that addresses that only differ in their last
+     * characters land far apart on the ring.
+     */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public synchronized String toString() {
+        StringBuilder devices = new StringBuilder();
+        for (int loop = 0; loop < mSize; loop++) {
+            devices.append(loop == 0 ? "" : ", ").append(mDeviceCounts[loop]);
+        }
+        return "Event loop pool -> loops: " + mSize + " devices per loop: [" + devices + "]";
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class is a pool of the buffers that message fragments are written from. Full fragments
+ * are exactly one buffer long, so after the first message the pool serves them without
+ * allocating. Shorter fragments, which only occur at the end of a message, get a buffer of
+ * their own.
+ */
+class FragmentBufferPool {
+    private static final int MAX_FREE_BUFFERS = 4;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ArrayDeque<byte[]> mFree = new ArrayDeque<>();
+    private int mBufferSize = 0;
+
+    /**
+     * Set the size of the pooled buffers, which is the max payload length of a write. Buffers of
+     * the previous size are dropped.
+     */
+    synchronized void setBufferSize(int size) {
+        if (size != mBufferSize) {
+            mFree.clear();
+            mBufferSize = size;
+        }
+    }
+
+    /**
+     * @param length the length of the fragment.
+     * @return a buffer of exactly that length.
+     */
+    synchronized byte[] acquire(int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        if (length != mBufferSize) {
+            return new byte[length];
+        }
+        byte[] buffer = mFree.poll();
+        return buffer != null ? buffer : new byte[mBufferSize];
+    }
+
+    /**
+     * Give a buffer back to the pool.
+     */
+    synchronized void release(byte[] buffer) {
+        if (buffer.length == mBufferSize && mFree.size() < MAX_FREE_BUFFERS) {
+            mFree.push(buffer);
+        }
+    }
+}
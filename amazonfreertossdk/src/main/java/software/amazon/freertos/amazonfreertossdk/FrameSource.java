@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The encoded bytes of an outbound message, produced on demand. A message is written to the
+ * device one frame of at most the max payload length at a time, and each frame is only read
+ * from its source when the Bluetooth stack is ready to send it, so the encoded message never has
+ * to be held in a single array.
+ */
+public interface FrameSource {
+    /**
+     * @return the total length of the encoded message.
+     */
+    int getLength();
+
+    /**
+     * Copy part of the encoded message.
+     *
+     * @param position the offset in the encoded message of the first byte to copy.
+     * @param dst      the array to copy into.
+     * @param offset   the offset in dst to copy to.
+     * @param length   the number of bytes to copy.
+     */
+    void read(int position, byte[] dst, int offset, int length);
+
+    /**
+     * Write the whole encoded message to a stream.
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a hashed timing wheel that is shared by all devices for BLE command timeouts,
+ * reconnect backoff and delayed acks. Scheduling and cancelling a task are O(1): a task is linked
+ * into the bucket of the tick it expires on, and unlinked again when it is cancelled. A single
+ * worker thread advances the wheel one tick at a time and runs the tasks that have expired. Tasks
+ * run on the worker thread, so they should only hand work off to another thread. While no task
+ * is pending, the worker waits instead of ticking, so an idle timer does not wake the CPU.
+ */
+public final class HashedWheelTimer {
+    private static final String TAG = "HashedWheelTimer";
+    private static final long TICK_MILLIS = 20;
+    private static final int WHEEL_SIZE = 512;
+
+    private static HashedWheelTimer sInstance;
+
+    private final long mTickNanos;
+    private final Timeout[] mWheel;
+    private final int mMask;
+    private final long mStartTime;
+    private long mTick = 0;
+    private int mPending = 0;
+
+    /**
+     * A task scheduled on the timer.
+     */
+    public static final class Timeout {
+        private final HashedWheelTimer mTimer;
+        private final Runnable mTask;
+        private long mRemainingRounds;
+        private int mBucket = -1;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        private Timeout(HashedWheelTimer timer, Runnable task) {
+            mTimer = timer;
+            mTask = task;
+        }
+
+        /**
+         * Cancel the task if it has not run yet.
+         *
+         * @return true if the task was pending and will not run.
+         */
+        public boolean cancel() {
+            synchronized (mTimer) {
+                if (mBucket < 0) {
+                    return false;
+                }
+                mTimer.unlink(this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the timer shared by all devices. The worker thread is started on first use.
+     */
+    public static synchronized HashedWheelTimer getInstance() {
+        if (sInstance == null) {
+            sInstance = new HashedWheelTimer(TICK_MILLIS, WHEEL_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Use {@link #getInstance()}; a separate timer is only meant for tests.
+     *
+     * @param tickMillis the duration of a tick in ms.
+     * @param wheelSize  the number of buckets of the wheel, a power of two.
+     */
+    HashedWheelTimer(long tickMillis, int wheelSize) {
+        mTickNanos = tickMillis * 1000000L;
+        mWheel = new Timeout[wheelSize];
+        mMask = wheelSize - 1;
+        mStartTime = System.nanoTime();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, "AmazonFreeRTOSTimer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedule a task to run once after a delay.
+     *
+     * @param task        the task to run on the timer thread.
+     * @param delayMillis the delay in ms.
+     * @return the handle to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task);
+        long deadline = System.nanoTime() - mStartTime + Math.max(delayMillis, 0) * 1000000L;
+        synchronized (this) {
+            if (mPending == 0) {
+                // The wheel is empty and the worker is waiting, so skip the ticks that passed.
+                mTick = Math.max(mTick, (System.nanoTime() - mStartTime) / mTickNanos);
+                notifyAll();
+            }
+            mPending++;
+            // The tick whose processing happens at or after the deadline.
+            long tick = Math.max((deadline + mTickNanos - 1) / mTickNanos - 1, mTick);
+            timeout.mRemainingRounds = (tick - mTick) / mWheel.length;
+            timeout.mBucket = (int) (tick & mMask);
+            timeout.mNext = mWheel[timeout.mBucket];
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrev = timeout;
+            }
+            mWheel[timeout.mBucket] = timeout;
+        }
+        return timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else {
+            mWheel[timeout.mBucket] = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout.mPrev;
+        }
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mBucket = -1;
+        mPending--;
+    }
+
+    /**
+     * @return the number of tasks that have not run yet.
+     */
+    synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    private void runWorker() {
+        List<Timeout> expired = new ArrayList<>();
+        while (true) {
+            long sleepNanos;
+            synchronized (this) {
+                while (mPending == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Log.w(TAG, "Timer thread interrupted.");
+                    }
+                }
+                sleepNanos = (mTick + 1) * mTickNanos - (System.nanoTime() - mStartTime);
+            }
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Timer thread interrupted.");
+                }
+                continue;
+            }
+            synchronized (this) {
+                Timeout timeout = mWheel[(int) (mTick & mMask)];
+                while (timeout != null) {
+                    Timeout next = timeout.mNext;
+                    if (timeout.mRemainingRounds <= 0) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    } else {
+                        timeout.mRemainingRounds--;
+                    }
+                    timeout = next;
+                }
+                mTick++;
+            }
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.mTask.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Timer task failed.", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
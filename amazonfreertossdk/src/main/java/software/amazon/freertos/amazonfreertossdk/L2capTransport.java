@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.io.IOException;
+
+import lombok.NonNull;
+
+/**
+ * This class is a MqttProxyTransport over an LE credit based L2CAP connection oriented channel.
+ * The channel is opened to the PSM the device firmware listens on. It carries the same framed
+ * MQTT proxy messages as StreamTransport, without the per operation overhead of ATT.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+class L2capTransport extends StreamTransport {
+    private final BluetoothDevice mDevice;
+    private final int mPsm;
+    private volatile BluetoothSocket mSocket;
+
+    L2capTransport(@NonNull BluetoothDevice device, int psm) {
+        super("MqttProxyL2cap");
+        mDevice = device;
+        mPsm = psm;
+    }
+
+    @Override
+    protected void connect() throws IOException {
+        mSocket = mDevice.createInsecureL2capChannel(mPsm);
+        mSocket.connect();
+        setStreams(mSocket.getInputStream(), mSocket.getOutputStream());
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closeQuietly(mSocket);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import lombok.Getter;
+
+/**
+ * This class represents the queue depth and wait time statistics of one lane of a
+ * BleCommandScheduler.
+ */
+@Getter
+public class LaneStats {
+    /**
+     * Current number of pending BLE commands in the lane.
+     */
+    private int depth;
+    /**
+     * Highest number of pending BLE commands seen in the lane.
+     */
+    private int maxDepth;
+    /**
+     * Number of BLE commands that have been taken from the lane.
+     */
+    private long dequeued;
+    /**
+     * Total time in ms that the dequeued BLE commands waited in the lane.
+     */
+    private long totalWaitMillis;
+    /**
+     * Longest time in ms that a BLE command waited in the lane.
+     */
+    private long maxWaitMillis;
+
+    public LaneStats() {
+    }
+
+    /**
+     * Copy the statistics, so that a snapshot handed out does not change while the lane is
+     * served.
+     *
+     * @param other the statistics to copy.
+     */
+    public LaneStats(LaneStats other) {
+        synchronized (other) {
+            depth = other.depth;
+            maxDepth = other.maxDepth;
+            dequeued = other.dequeued;
+            totalWaitMillis = other.totalWaitMillis;
+            maxWaitMillis = other.maxWaitMillis;
+        }
+    }
+
+    /**
+     * Record that a BLE command has been added to the lane.
+     */
+    public synchronized void onEnqueued() {
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    /**
+     * Record that a BLE command has been taken from the lane.
+     *
+     * @param waitMillis the time in ms the BLE command waited in the lane.
+     */
+    public synchronized void onDequeued(long waitMillis) {
+        depth--;
+        dequeued++;
+        totalWaitMillis += waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+    }
+
+    /**
+     * Record that all pending BLE commands have been removed from the lane.
+     */
+    public synchronized void onCleared() {
+        depth = 0;
+    }
+
+    /**
+     * @return the average time in ms that the dequeued BLE commands waited in the lane.
+     */
+    public long getAverageWaitMillis() {
+        return dequeued == 0 ? 0 : totalWaitMillis / dequeued;
+    }
+
+    public String toString() {
+        return String.format("depth: %d max depth: %d dequeued: %d average wait: %dms max wait: %dms",
+                depth, maxDepth, dequeued, getAverageWaitMillis(), maxWaitMillis);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.NonNull;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_BATCH;
+
+/**
+ * This class packs small MQTT proxy messages sent to the device into a batch envelope,
+ * {"w": MQTT_MSG_BATCH, "x": [message, ...]}, where each message is a CBOR byte string holding
+ * an encoded proxy message. A batch is sent once the next message would not fit in one frame,
+ * or once its first message has waited for the linger time. A batch of one message is sent
+ * without the envelope. The linger flush runs through the Scheduler, which should run it on the
+ * thread the messages are added on, so that batches and unbatched messages are sent in order.
+ */
+class MessageBatcher {
+    private static final String TAG = "MessageBatcher";
+    private static final char TYPE_KEY = 'w';
+    private static final char MESSAGES_KEY = 'x';
+    /**
+     * The length of the envelope map up to the array of messages: the map header, the type key
+     * and value, and the messages key.
+     */
+    private static final int ENVELOPE_HEADER_LENGTH = 6;
+
+    /**
+     * Sends the frames of the batcher to the device.
+     */
+    interface Sink {
+        void send(FrameSource frame);
+    }
+
+    /**
+     * Runs the linger flush of the batcher after a delay.
+     */
+    interface Scheduler {
+        HashedWheelTimer.Timeout schedule(Runnable task, long delayMillis);
+    }
+
+    private final Sink mSink;
+    private final Scheduler mScheduler;
+    private final List<byte[]> mMessages = new ArrayList<>();
+    /**
+     * The length of the encoded messages of the batch, including their byte string headers.
+     */
+    private int mMessagesLength = 0;
+    private long mLingerMillis;
+    private HashedWheelTimer.Timeout mLingerTimeout;
+    private final Runnable mLingerTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    MessageBatcher(@NonNull Sink sink, @NonNull Scheduler scheduler, long lingerMillis) {
+        mSink = sink;
+        mScheduler = scheduler;
+        mLingerMillis = lingerMillis;
+    }
+
+    synchronized void setLingerMillis(long lingerMillis) {
+        mLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Add a message to the batch, sending the batch first if the message does not fit in it.
+     * A message that does not fit in a frame even on its own is sent right away.
+     *
+     * @param message        the encoded message.
+     * @param maxFrameLength the largest frame that is sent to the device in one write.
+     */
+    synchronized void add(@NonNull byte[] message, int maxFrameLength) {
+        int entryLength = headerLength(message.length) + message.length;
+        if (!mMessages.isEmpty() && batchLength(mMessages.size() + 1, mMessagesLength
+                + entryLength) > maxFrameLength) {
+            flush();
+        }
+        if (mLingerMillis <= 0 || batchLength(1, entryLength) > maxFrameLength) {
+            mSink.send(new ByteArrayFrameSource(message));
+            return;
+        }
+        mMessages.add(message);
+        mMessagesLength += entryLength;
+        if (mMessages.size() == 1) {
+            mLingerTimeout = mScheduler.schedule(mLingerTask, mLingerMillis);
+        }
+    }
+
+    /**
+     * Send the messages of the batch, if there are any.
+     */
+    synchronized void flush() {
+        if (mLingerTimeout != null) {
+            mLingerTimeout.cancel();
+            mLingerTimeout = null;
+        }
+        if (mMessages.isEmpty()) {
+            return;
+        }
+        if (mMessages.size() == 1) {
+            mSink.send(new ByteArrayFrameSource(mMessages.get(0)));
+        } else {
+            CborWriter writer = new CborWriter(batchLength(mMessages.size(), mMessagesLength));
+            try {
+                writer.writeMapStart(2)
+                        .writeKey(TYPE_KEY).writeInt(MQTT_MSG_BATCH)
+                        .writeKey(MESSAGES_KEY).writeArrayStart(mMessages.size());
+                for (byte[] message : mMessages) {
+                    writer.writeBytes(message);
+                }
+                mSink.send(new ByteArrayFrameSource(writer.toByteArray()));
+            } catch (CborException e) {
+                Log.e(TAG, "Failed to encode batch of " + mMessages.size() + " messages.", e);
+            }
+        }
+        mMessages.clear();
+        mMessagesLength = 0;
+    }
+
+    /**
+     * Drop the messages of the batch without sending them.
+     */
+    synchronized void clear() {
+        if (mLingerTimeout != null) {
+            mLingerTimeout.cancel();
+            mLingerTimeout = null;
+        }
+        mMessages.clear();
+        mMessagesLength = 0;
+    }
+
+    /**
+     * Pass each message of a batch received from the device to a dispatcher.
+     *
+     * @param reader     the reader of the batch, positioned inside the envelope map.
+     * @param dispatcher the dispatcher of the messages.
+     * @return the number of messages in the batch.
+     * @throws CborException if the batch is malformed.
+     */
+    static int dispatchBatch(@NonNull CborReader reader, @NonNull MessageDispatcher dispatcher)
+            throws CborException {
+        int count = 0;
+        while (reader.hasNext()) {
+            if (reader.readKey() != MESSAGES_KEY) {
+                reader.skip();
+                continue;
+            }
+            reader.readArrayStart();
+            while (reader.hasNext()) {
+                ByteBuffer message = reader.readBytesSlice();
+                dispatcher.dispatch(message);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int batchLength(int count, int messagesLength) {
+        return ENVELOPE_HEADER_LENGTH + headerLength(count) + messagesLength;
+    }
+
+    /**
+     * @return the length of the CBOR header of an array of, or a byte string of, length items.
+     */
+    private static int headerLength(int length) {
+        if (length < 24) {
+            return 1;
+        } else if (length < 0x100) {
+            return 2;
+        } else if (length < 0x10000) {
+            return 3;
+        }
+        return 5;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import lombok.NonNull;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+
+/**
+ * Routes the messages received from the device to a handler registered for each message type.
+ * The type key is read once and the handler continues decoding the same map, so each message is
+ * parsed in a single pass.
+ */
+public class MessageDispatcher {
+    private static final String TAG = "MessageDispatcher";
+    private static final char TYPE_KEY = 'w';
+    /**
+     * How many times a handler may dispatch the messages nested in its own, e.g. the messages of
+     * a batch. Deeper messages are dropped, so that nested envelopes cannot overflow the stack.
+     */
+    private static final int MAX_NESTING = 1;
+
+    /**
+     * Handles the messages of one type.
+     */
+    public interface Handler {
+        /**
+         * Called with a reader positioned inside the message map. The entries that are left are
+         * typically decoded with {@code while (reader.hasNext())}. When the type is the first
+         * entry of the map, which is how the device encodes its messages, the reader is just past
+         * it; otherwise the reader is at the first entry and the type entry is read again.
+         * @param type the message type.
+         * @param reader the reader of the message.
+         * @throws CborException if the message is malformed. The error is logged and the rest of
+         * the message is dropped.
+         */
+        void onMessage(int type, CborReader reader) throws CborException;
+    }
+
+    /**
+     * The kind of messages dispatched, used in logs.
+     */
+    private final String mName;
+    /**
+     * The handlers indexed by message type. The array is replaced rather than modified, so
+     * messages can be dispatched while handlers are registered from another thread.
+     */
+    private volatile Handler[] mHandlers = new Handler[0];
+    /**
+     * The nesting of the message being dispatched. Messages are dispatched on one thread at a
+     * time, the event loop of the device.
+     */
+    private int mNesting = 0;
+
+    public MessageDispatcher(String name) {
+        mName = name;
+    }
+
+    /**
+     * Register the handler of a message type, replacing any handler already registered for it.
+     * @param type the message type, as encoded in the "w" key of the message.
+     * @param handler the handler, or null to stop handling the type.
+     */
+    public synchronized void register(int type, Handler handler) {
+        if (type < 0) {
+            throw new IllegalArgumentException("Invalid message type: " + type);
+        }
+        Handler[] handlers = Arrays.copyOf(mHandlers, Math.max(mHandlers.length, type + 1));
+        handlers[type] = handler;
+        mHandlers = handlers;
+    }
+
+    /**
+     * Decode a message and pass it to the handler of its type.
+     * @param message the message. Its position is left unchanged.
+     * @return true if the message was handled.
+     */
+    public boolean dispatch(@NonNull ByteBuffer message) {
+        if (mNesting > MAX_NESTING) {
+            Log.e(TAG, mName + " message is nested too deep, dropping it.");
+            return false;
+        }
+        CborReader reader = new CborReader(message);
+        mNesting++;
+        try {
+            reader.readMapStart();
+            boolean first = true;
+            while (reader.hasNext()) {
+                if (reader.readKey() == TYPE_KEY) {
+                    int type = reader.readInt();
+                    if (!first) {
+                        // Start again so that the handler sees the entries before the type.
+                        reader.reset(message);
+                        reader.readMapStart();
+                    }
+                    return dispatch(type, reader);
+                }
+                reader.skip();
+                first = false;
+            }
+            Log.e(TAG, mName + " message has no type.");
+        } catch (CborException e) {
+            Log.e(TAG, "Failed to decode " + mName + " message.", e);
+        } finally {
+            mNesting--;
+        }
+        return false;
+    }
+
+    private boolean dispatch(int type, CborReader reader) throws CborException {
+        Handler[] handlers = mHandlers;
+        Handler handler = type >= 0 && type < handlers.length ? handlers[type] : null;
+        if (handler == null) {
+            Log.e(TAG, "Unknown " + mName + " message type: " + type);
+            return false;
+        }
+        Log.i(TAG, "Handling " + mName + " message type : " + type);
+        handler.onMessage(type, reader);
+        return true;
+    }
+}
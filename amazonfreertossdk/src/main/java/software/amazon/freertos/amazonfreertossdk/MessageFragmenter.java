@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+/**
+ * This class holds the fragmentation state of one outbound message that is written to the
+ * device through a RXLARGE characteristic. Fragments are read from the frame source of the
+ * message into a pooled buffer only when they are written, so a queued message holds no encoded
+ * copy of itself. The last fragment is always shorter than the fragment size, and may be empty,
+ * which tells the device that the message is complete.
+ */
+class MessageFragmenter {
+    private final FrameSource mSource;
+    private final int mLength;
+    private final int mFragmentSize;
+    private final int mFragmentCount;
+    /**
+     * Every mCredits-th fragment is acknowledged, the others are written without response.
+     * 0 if every fragment is acknowledged.
+     */
+    private final int mCredits;
+    private int mIndex = 0;
+
+    /**
+     * @param message      the encoded message.
+     * @param fragmentSize the size of each fragment but the last. Must be at least 1.
+     * @param credits      the bulk write credit window, or 0 to acknowledge every fragment.
+     */
+    MessageFragmenter(byte[] message, int fragmentSize, int credits) {
+        this(new ByteArrayFrameSource(message), fragmentSize, credits);
+    }
+
+    /**
+     * @param source       the encoded message.
+     * @param fragmentSize the size of each fragment but the last. Must be at least 1.
+     * @param credits      the bulk write credit window, or 0 to acknowledge every fragment.
+     */
+    MessageFragmenter(FrameSource source, int fragmentSize, int credits) {
+        mSource = source;
+        mLength = source.getLength();
+        mFragmentSize = fragmentSize;
+        mFragmentCount = mLength / fragmentSize + 1;
+        mCredits = credits;
+    }
+
+    int getFragmentCount() {
+        return mFragmentCount;
+    }
+
+    /**
+     * @return the length of the whole message.
+     */
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return the length of the current fragment.
+     */
+    int getFragmentLength() {
+        return Math.min(mFragmentSize, mLength - mIndex * mFragmentSize);
+    }
+
+    /**
+     * @return true if the current fragment should be written without response. The last
+     * fragment is always acknowledged.
+     */
+    boolean isWithoutResponse() {
+        return mCredits > 0 && (mIndex + 1) % mCredits != 0 && mIndex != mFragmentCount - 1;
+    }
+
+    /**
+     * Read the current fragment into a buffer of the pool. The buffer should be released to
+     * the pool once the Bluetooth stack has taken the value. The fragment can be read again if
+     * its write has to be retried.
+     *
+     * @param pool the pool to take the buffer from.
+     * @return a buffer holding exactly the current fragment.
+     */
+    byte[] copyFragment(FragmentBufferPool pool) {
+        int length = getFragmentLength();
+        byte[] buffer = pool.acquire(length);
+        mSource.read(mIndex * mFragmentSize, buffer, 0, length);
+        return buffer;
+    }
+
+    /**
+     * Move on to the next fragment.
+     *
+     * @return true if there is a fragment left to write.
+     */
+    boolean advance() {
+        mIndex++;
+        return mIndex < mFragmentCount;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reassembles one large message at a time from the chunks a device sends through a
+ * TXLARGE characteristic, in a buffer taken from the shared ReassemblyBufferPool. The buffer is
+ * replaced by a larger one as the message grows. Once the message grows beyond the spill
+ * threshold, it is moved to a file in the spill directory, and handed out as a memory-mapped
+ * view of that file, so that its size does not add to the heap. A message is dropped if it grows
+ * beyond the per-message limit, or if the heap buffers of all messages being reassembled for the
+ * device would exceed the per-device limit.
+ */
+class MessageReassembler {
+    private static final String TAG = "MessageReassembler";
+    private static final int INITIAL_CAPACITY = 512;
+
+    /**
+     * The reassembly limits of a device, shared by all its reassemblers.
+     */
+    static final class Limits {
+        private int mMaxMessageBytes;
+        private int mMaxDeviceBytes;
+        private int mSpillThreshold;
+        private int mReservedBytes = 0;
+
+        Limits(int maxMessageBytes, int maxDeviceBytes, int spillThreshold) {
+            set(maxMessageBytes, maxDeviceBytes);
+            setSpillThreshold(spillThreshold);
+        }
+
+        synchronized void set(int maxMessageBytes, int maxDeviceBytes) {
+            mMaxMessageBytes = maxMessageBytes;
+            mMaxDeviceBytes = maxDeviceBytes;
+        }
+
+        synchronized int getMaxMessageBytes() {
+            return mMaxMessageBytes;
+        }
+
+        synchronized void setSpillThreshold(int spillThreshold) {
+            mSpillThreshold = spillThreshold;
+        }
+
+        synchronized int getSpillThreshold() {
+            return mSpillThreshold;
+        }
+
+        /**
+         * Reserve the capacity of a buffer for the device.
+         *
+         * @return false if the device would go over its limit.
+         */
+        synchronized boolean reserve(int bytes) {
+            if (mReservedBytes + bytes > mMaxDeviceBytes) {
+                return false;
+            }
+            mReservedBytes += bytes;
+            return true;
+        }
+
+        synchronized void free(int bytes) {
+            mReservedBytes -= bytes;
+        }
+    }
+
+    private final String mName;
+    private final ReassemblyBufferPool mPool;
+    private final Limits mLimits;
+    private final File mSpillDir;
+    private ByteBuffer mBuffer;
+    private File mSpillFile;
+    private FileChannel mSpillChannel;
+    private int mSpillSize = 0;
+    private boolean mDiscarding = false;
+
+    /**
+     * @param name     the name of the reassembler, for logging.
+     * @param pool     the pool heap buffers are taken from.
+     * @param limits   the reassembly limits of the device.
+     * @param spillDir the directory large messages are spilled to, or null to keep them on the
+     *                 heap.
+     */
+    MessageReassembler(String name, ReassemblyBufferPool pool, Limits limits, File spillDir) {
+        mName = name;
+        mPool = pool;
+        mLimits = limits;
+        mSpillDir = spillDir;
+    }
+
+    /**
+     * Add a chunk to the message. If the message goes over a limit, it is dropped and the
+     * following chunks are ignored until release is called.
+     *
+     * @return false if the message is being dropped.
+     */
+    boolean append(byte[] chunk) {
+        return append(chunk, 0, chunk.length);
+    }
+
+    boolean append(byte[] chunk, int offset, int length) {
+        if (mDiscarding) {
+            return false;
+        }
+        int size = size() + length;
+        if (size > mLimits.getMaxMessageBytes()) {
+            discard("message is larger than " + mLimits.getMaxMessageBytes() + " bytes");
+            return false;
+        }
+        if (mSpillChannel == null && mSpillDir != null && size > mLimits.getSpillThreshold()) {
+            spill();
+        }
+        if (mSpillChannel != null) {
+            try {
+                ByteBuffer src = ByteBuffer.wrap(chunk, offset, length);
+                while (src.hasRemaining()) {
+                    mSpillChannel.write(src);
+                }
+                mSpillSize += length;
+                return true;
+            } catch (IOException e) {
+                discard("cannot write to " + mSpillFile + ": " + e.getMessage());
+                return false;
+            }
+        }
+        if (mBuffer == null || mBuffer.remaining() < length) {
+            int capacity = ReassemblyBufferPool.capacityFor(Math.max(size, INITIAL_CAPACITY));
+            int oldCapacity = mBuffer == null ? 0 : mBuffer.capacity();
+            if (!mLimits.reserve(capacity - oldCapacity)) {
+                discard("device is over its reassembly limit");
+                return false;
+            }
+            ByteBuffer buffer = mPool.acquire(capacity);
+            if (mBuffer != null) {
+                mBuffer.flip();
+                buffer.put(mBuffer);
+                mPool.release(mBuffer);
+            }
+            mBuffer = buffer;
+        }
+        mBuffer.put(chunk, offset, length);
+        return true;
+    }
+
+    /**
+     * @return the number of bytes of the message received so far.
+     */
+    int size() {
+        if (mSpillChannel != null) {
+            return mSpillSize;
+        }
+        return mBuffer == null ? 0 : mBuffer.position();
+    }
+
+    /**
+     * @return a read-only view of the message received so far, or null if a spilled message
+     * cannot be mapped. It is valid until release.
+     */
+    ByteBuffer getMessage() {
+        if (mSpillChannel != null) {
+            try {
+                return mSpillChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSpillSize);
+            } catch (IOException e) {
+                Log.e(TAG, mName + ": cannot map " + mSpillFile + ": " + e.getMessage());
+                return null;
+            }
+        }
+        if (mBuffer == null) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        ByteBuffer view = mBuffer.asReadOnlyBuffer();
+        view.flip();
+        return view;
+    }
+
+    /**
+     * Give the buffer back to the pool, delete the spill file, and get ready for the next
+     * message.
+     */
+    void release() {
+        releaseBuffer();
+        releaseSpillFile();
+        mDiscarding = false;
+    }
+
+    private void discard(String reason) {
+        Log.e(TAG, mName + ": dropping message, " + reason + ".");
+        releaseBuffer();
+        releaseSpillFile();
+        mDiscarding = true;
+    }
+
+    /**
+     * Move the message received so far from its heap buffer to a new spill file. If the file
+     * cannot be created, the message stays on the heap.
+     */
+    private void spill() {
+        try {
+            mSpillFile = File.createTempFile("txlarge", ".bin", mSpillDir);
+            mSpillChannel = new RandomAccessFile(mSpillFile, "rw").getChannel();
+            mSpillSize = 0;
+            if (mBuffer != null) {
+                mBuffer.flip();
+                while (mBuffer.hasRemaining()) {
+                    mSpillChannel.write(mBuffer);
+                }
+                mSpillSize = mBuffer.limit();
+                releaseBuffer();
+            }
+            Log.i(TAG, mName + ": spilling message to " + mSpillFile);
+        } catch (IOException e) {
+            Log.w(TAG, mName + ": cannot spill message, keeping it on the heap: " + e.getMessage());
+            releaseSpillFile();
+            if (mBuffer != null) {
+                // Undo the flip, so that the buffer can be appended to again.
+                mBuffer.position(mBuffer.limit());
+                mBuffer.limit(mBuffer.capacity());
+            }
+        }
+    }
+
+    private void releaseSpillFile() {
+        if (mSpillChannel != null) {
+            try {
+                mSpillChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, mName + ": cannot close " + mSpillFile + ": " + e.getMessage());
+            }
+            mSpillChannel = null;
+        }
+        if (mSpillFile != null) {
+            if (!mSpillFile.delete()) {
+                Log.w(TAG, mName + ": cannot delete " + mSpillFile);
+            }
+            mSpillFile = null;
+        }
+        mSpillSize = 0;
+    }
+
+    private void releaseBuffer() {
+        if (mBuffer != null) {
+            mLimits.free(mBuffer.capacity());
+            mPool.release(mBuffer);
+            mBuffer = null;
+        }
+    }
+}
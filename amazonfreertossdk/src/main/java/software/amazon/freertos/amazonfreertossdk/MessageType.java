@@ -17,41 +17,45 @@ package software.amazon.freertos.amazonfreertossdk;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
 
 /**
  * This class represents the message type.
  */
 public class MessageType {
     private static final String TAG = "MessageType";
-    private static final String TYPE_KEY = "w";
+    private static final char TYPE_KEY = 'w';
     /**
      * MQTT message type.
      */
     public int type;
 
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message type from a reader positioned at the start of a message. Reading stops
+     * as soon as the type has been found.
+     */
+    public boolean decode(CborReader reader) {
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            return true;
+            reader.readMapStart();
+            while (reader.hasNext()) {
+                if (reader.readKey() == TYPE_KEY) {
+                    type = reader.readInt();
+                    return true;
+                }
+                reader.skip();
+            }
+            Log.e(TAG, "Message has no type.");
+            return false;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
         }
     }
 }
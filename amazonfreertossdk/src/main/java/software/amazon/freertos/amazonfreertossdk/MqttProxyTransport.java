@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.io.IOException;
+
+/**
+ * This interface defines a transport that carries whole MQTT proxy messages between the SDK and
+ * the device, as an alternative to the GATT characteristics of the MQTT proxy service. While a
+ * transport is open, MQTT proxy messages are sent through it without being broken down into
+ * MTU sized packets. When it closes, the SDK falls back to GATT.
+ */
+public interface MqttProxyTransport {
+    /**
+     * Callbacks of a transport. They are called on a thread owned by the transport.
+     */
+    interface Listener {
+        /**
+         * The transport is open and messages can be sent through it.
+         */
+        void onOpened();
+
+        /**
+         * A whole MQTT proxy message has been received from the device.
+         *
+         * @param message the encoded message.
+         */
+        void onMessage(byte[] message);
+
+        /**
+         * The transport has been closed, or could not be opened.
+         *
+         * @param cause the error that closed the transport, or null if it was closed locally
+         *              or by the device.
+         */
+        void onClosed(IOException cause);
+
+        /**
+         * A message accepted by send could not be written, because the transport closed.
+         *
+         * @param message the encoded message.
+         */
+        void onSendFailed(FrameSource message);
+    }
+
+    /**
+     * Start opening the transport. This method returns immediately, the result is delivered
+     * through the listener.
+     *
+     * @param listener the listener of the transport.
+     */
+    void open(Listener listener);
+
+    /**
+     * Send a whole MQTT proxy message to the device.
+     *
+     * @param message the encoded message.
+     * @throws IOException if the transport is not open or the message could not be sent.
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Send a whole MQTT proxy message from its frame source, without joining it into an array.
+     * The message is queued and written by a thread owned by the transport, so this method does
+     * not block on the channel.
+     *
+     * @param message the encoded message.
+     * @throws IOException if the transport is not open or its send queue is full.
+     */
+    void send(FrameSource message) throws IOException;
+
+    /**
+     * @return true if the transport is open.
+     */
+    boolean isOpen();
+
+    /**
+     * Close the transport. The listener is notified through onClosed.
+     */
+    void close();
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded ring of notifications received from the device, between the Binder
+ * thread the Bluetooth stack calls back on and the event loop of the device. It has a single
+ * producer and a single consumer, so it needs no locks, and its slots are allocated once: a
+ * notification is stored as the handle of its characteristic and the value array the Bluetooth
+ * stack created for it. A notification that arrives while the ring is full is dropped and
+ * counted.
+ */
+public class NotificationRing {
+    /**
+     * Receives the notifications drained from the ring.
+     */
+    interface Consumer {
+        void onNotification(int handle, byte[] value);
+    }
+
+    private final int mMask;
+    private final int[] mHandles;
+    private final byte[][] mValues;
+    /**
+     * The sequence of the next notification to be offered. Only written by the producer.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+    /**
+     * The sequence of the next notification to be drained. Only written by the consumer.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile int mHighWaterMark = 0;
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two.
+     */
+    NotificationRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mHandles = new int[size];
+        mValues = new byte[size][];
+    }
+
+    /**
+     * Add a notification. Only called by the producer.
+     *
+     * @param handle the handle of the characteristic that changed.
+     * @param value the value of the notification, which must not be changed afterwards.
+     * @return true if the notification was added, false if it was dropped.
+     */
+    boolean offer(int handle, byte[] value) {
+        mReceived.lazySet(mReceived.get() + 1);
+        long tail = mTail.get();
+        int depth = (int) (tail - mHead.get());
+        if (depth > mMask) {
+            mDropped.lazySet(mDropped.get() + 1);
+            return false;
+        }
+        int index = (int) tail & mMask;
+        mHandles[index] = handle;
+        mValues[index] = value;
+        // Publishes the slot to the consumer.
+        mTail.lazySet(tail + 1);
+        if (depth + 1 > mHighWaterMark) {
+            mHighWaterMark = depth + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Pass the notifications in the ring to the consumer, in the order they were added. Only
+     * called by the consumer.
+     *
+     * @return the number of notifications drained.
+     */
+    int drain(Consumer consumer) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        int drained = 0;
+        while (head != tail) {
+            int index = (int) head & mMask;
+            int handle = mHandles[index];
+            byte[] value = mValues[index];
+            mValues[index] = null;
+            // Frees the slot for the producer before the notification is handled, since
+            // handling it may take a while.
+            mHead.lazySet(++head);
+            drained++;
+            consumer.onNotification(handle, value);
+            if (head == tail) {
+                tail = mTail.get();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Discard the notifications in the ring. Only called by the consumer.
+     */
+    void clear() {
+        long head = mHead.get();
+        long tail = mTail.get();
+        while (head != tail) {
+            mValues[(int) head & mMask] = null;
+            head++;
+        }
+        mHead.lazySet(head);
+    }
+
+    /**
+     * @return the number of slots of the ring.
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return the number of notifications waiting in the ring.
+     */
+    public int getDepth() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * @return the largest number of notifications that have waited in the ring at once.
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * @return the number of notifications received, including the dropped ones.
+     */
+    public long getReceived() {
+        return mReceived.get();
+    }
+
+    /**
+     * @return the number of notifications dropped because the ring was full.
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    public String toString() {
+        return String.format("Notification ring -> capacity: %d depth: %d high water mark: %d"
+                + " received: %d dropped: %d",
+                getCapacity(), getDepth(), mHighWaterMark, getReceived(), getDropped());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * This class is a pool of reassembly buffers shared by all devices. Buffers come in size
+ * classes, each twice as large as the previous one, so a message is held in a buffer at most
+ * twice its size. Released buffers are kept for reuse up to a total of MAX_RETAINED_BYTES;
+ * beyond that, and for messages larger than the largest class, buffers are left to the garbage
+ * collector.
+ */
+final class ReassemblyBufferPool {
+    private static final int MIN_CLASS_SHIFT = 9; // 512 bytes
+    private static final int CLASS_COUNT = 12; // up to 1 MB
+    private static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+    private static ReassemblyBufferPool sInstance;
+
+    private final ArrayDeque<ByteBuffer>[] mFree;
+    private int mRetainedBytes = 0;
+
+    /**
+     * @return the pool shared by all devices.
+     */
+    static synchronized ReassemblyBufferPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new ReassemblyBufferPool();
+        }
+        return sInstance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReassemblyBufferPool() {
+        mFree = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mFree[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return the capacity of the buffer that acquire returns for minCapacity.
+     */
+    static int capacityFor(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        return sizeClass < CLASS_COUNT ? 1 << (sizeClass + MIN_CLASS_SHIFT) : minCapacity;
+    }
+
+    private static int sizeClass(int minCapacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(minCapacity, 1) - 1);
+        return Math.max(shift - MIN_CLASS_SHIFT, 0);
+    }
+
+    /**
+     * @param minCapacity the number of bytes the buffer must hold.
+     * @return a cleared buffer of capacityFor(minCapacity) bytes.
+     */
+    synchronized ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        if (sizeClass < CLASS_COUNT) {
+            ByteBuffer buffer = mFree[sizeClass].poll();
+            if (buffer != null) {
+                mRetainedBytes -= buffer.capacity();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(capacityFor(minCapacity));
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used afterwards.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < CLASS_COUNT && buffer.capacity() == capacityFor(buffer.capacity())
+                && mRetainedBytes + buffer.capacity() <= MAX_RETAINED_BYTES) {
+            mFree[sizeClass].push(buffer);
+            mRetainedBytes += buffer.capacity();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT_CEILING;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT_FLOOR;
+
+/**
+ * This class estimates the round trip time of each type of BLE command, and derives the timeout
+ * of the next command of that type from it. The estimate follows the retransmission timer of TCP
+ * (RFC 6298): the smoothed round trip time and its mean deviation are kept as exponentially
+ * weighted moving averages, and the timeout is the smoothed round trip time plus four times the
+ * deviation, bounded by a floor and a ceiling. Every time a command times out, the timeout of its
+ * type is doubled until a new sample is taken. Only acknowledged commands are sampled; a write
+ * without response gets the timeout measured for acknowledged writes.
+ */
+public class RttEstimator {
+    private final int mTypes = BleCommand.CommandType.values().length;
+    private final long[] mSmoothedRtt = new long[mTypes];
+    private final long[] mRttVariance = new long[mTypes];
+    private final long[] mTimeout = new long[mTypes];
+    private final long[] mSamples = new long[mTypes];
+    private long mFloor = BLE_COMMAND_TIMEOUT_FLOOR;
+    private long mCeiling = BLE_COMMAND_TIMEOUT_CEILING;
+
+    RttEstimator() {
+        for (int i = 0; i < mTypes; i++) {
+            mTimeout[i] = BLE_COMMAND_TIMEOUT;
+        }
+    }
+
+    /**
+     * Set the bounds of the derived timeouts.
+     *
+     * @param floor   the lowest timeout in ms.
+     * @param ceiling the highest timeout in ms. Must not be lower than floor.
+     */
+    public synchronized void setBounds(long floor, long ceiling) {
+        if (floor < 0 || ceiling < floor) {
+            throw new IllegalArgumentException("Invalid timeout bounds: " + floor + ", " + ceiling);
+        }
+        mFloor = floor;
+        mCeiling = ceiling;
+        for (int i = 0; i < mTypes; i++) {
+            mTimeout[i] = bound(mTimeout[i]);
+        }
+    }
+
+    /**
+     * Add a measured round trip time.
+     *
+     * @param type the type of the completed BLE command.
+     * @param rtt  the time in ms between sending the command and its completion.
+     */
+    synchronized void addSample(BleCommand.CommandType type, long rtt) {
+        int i = type.ordinal();
+        if (mSamples[i] == 0) {
+            mSmoothedRtt[i] = rtt;
+            mRttVariance[i] = rtt / 2;
+        } else {
+            mRttVariance[i] = (3 * mRttVariance[i] + Math.abs(mSmoothedRtt[i] - rtt)) / 4;
+            mSmoothedRtt[i] = (7 * mSmoothedRtt[i] + rtt) / 8;
+        }
+        mSamples[i]++;
+        mTimeout[i] = bound(mSmoothedRtt[i] + 4 * mRttVariance[i]);
+    }
+
+    /**
+     * Back off the timeout of a type of BLE command after a command of that type timed out.
+     *
+     * @param type the type of the BLE command that timed out.
+     */
+    synchronized void onTimeout(BleCommand.CommandType type) {
+        mTimeout[type.ordinal()] = bound(mTimeout[type.ordinal()] * 2);
+    }
+
+    /**
+     * @param type the type of BLE command.
+     * @return the timeout in ms for the next BLE command of this type.
+     */
+    public synchronized long getTimeout(BleCommand.CommandType type) {
+        return mTimeout[type.ordinal()];
+    }
+
+    /**
+     * @param type the type of BLE command.
+     * @return the smoothed round trip time in ms, or 0 if no sample was taken yet.
+     */
+    public synchronized long getSmoothedRtt(BleCommand.CommandType type) {
+        return mSmoothedRtt[type.ordinal()];
+    }
+
+    /**
+     * @param type the type of BLE command.
+     * @return the mean deviation of the round trip time in ms, or 0 if no sample was taken yet.
+     */
+    public synchronized long getRttVariance(BleCommand.CommandType type) {
+        return mRttVariance[type.ordinal()];
+    }
+
+    /**
+     * @param type the type of BLE command.
+     * @return the number of round trip times measured.
+     */
+    public synchronized long getSampleCount(BleCommand.CommandType type) {
+        return mSamples[type.ordinal()];
+    }
+
+    private long bound(long timeout) {
+        return Math.min(Math.max(timeout, mFloor), mCeiling);
+    }
+
+    public synchronized String toString() {
+        StringBuilder stringBuilder = new StringBuilder("Rtt estimates ->");
+        for (BleCommand.CommandType type : BleCommand.CommandType.values()) {
+            int i = type.ordinal();
+            if (mSamples[i] > 0) {
+                stringBuilder.append(String.format(" %s: srtt %dms rttvar %dms timeout %dms;",
+                        type, mSmoothedRtt[i], mRttVariance[i], mTimeout[i]));
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
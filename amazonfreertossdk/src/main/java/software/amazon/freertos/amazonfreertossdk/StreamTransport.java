@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import lombok.NonNull;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PROXY_MAX_FRAME_LENGTH;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_PROXY_SEND_QUEUE_CAPACITY;
+
+/**
+ * This class is a MqttProxyTransport over a pair of byte streams. Each message is framed with
+ * its length as a 4 byte big endian integer. Incoming frames are read, and outgoing frames are
+ * written, on threads owned by the transport, so that a slow channel does not block the senders.
+ */
+public class StreamTransport implements MqttProxyTransport {
+    private static final String TAG = "StreamTransport";
+    private static final int LOOPBACK_BUFFER_SIZE = 64 * 1024;
+
+    private final String mName;
+    private volatile DataInputStream mInput;
+    private volatile DataOutputStream mOutput;
+    private volatile boolean mOpen = false;
+    private volatile boolean mClosed = false;
+    private Listener mListener;
+    private Thread mReader;
+    private Thread mWriter;
+    private final BlockingQueue<FrameSource> mOutgoing =
+            new LinkedBlockingQueue<>(MQTT_PROXY_SEND_QUEUE_CAPACITY);
+
+    /**
+     * Construct a transport over streams that are already connected.
+     *
+     * @param in  the stream messages are received from.
+     * @param out the stream messages are sent to.
+     */
+    public StreamTransport(@NonNull InputStream in, @NonNull OutputStream out) {
+        this(TAG);
+        setStreams(in, out);
+    }
+
+    /**
+     * Construct a transport whose streams are set by connect.
+     *
+     * @param name the name of the reader thread.
+     */
+    protected StreamTransport(String name) {
+        mName = name;
+    }
+
+    /**
+     * Create two transports connected to each other through in-memory pipes, so that the
+     * framing can be exercised without a radio. Each transport must be opened before use.
+     *
+     * @return the two ends of the loopback.
+     * @throws IOException if the pipes cannot be connected.
+     */
+    public static StreamTransport[] createLoopbackPair() throws IOException {
+        PipedInputStream firstIn = new PipedInputStream(LOOPBACK_BUFFER_SIZE);
+        PipedInputStream secondIn = new PipedInputStream(LOOPBACK_BUFFER_SIZE);
+        PipedOutputStream firstOut = new PipedOutputStream(secondIn);
+        PipedOutputStream secondOut = new PipedOutputStream(firstIn);
+        return new StreamTransport[] {
+                new StreamTransport(firstIn, firstOut),
+                new StreamTransport(secondIn, secondOut)
+        };
+    }
+
+    /**
+     * Connect the underlying channel and set its streams through setStreams. Called on the
+     * reader thread when the transport is opened. Transports constructed with streams are
+     * already connected.
+     *
+     * @throws IOException if the channel cannot be connected.
+     */
+    protected void connect() throws IOException {
+    }
+
+    protected final void setStreams(@NonNull InputStream in, @NonNull OutputStream out) {
+        mInput = new DataInputStream(in);
+        mOutput = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    @Override
+    public void open(@NonNull Listener listener) {
+        mListener = listener;
+        mReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, mName);
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+    private void readFrames() {
+        IOException cause = null;
+        try {
+            connect();
+            if (mClosed) {
+                return;
+            }
+            mWriter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeFrames();
+                }
+            }, mName + "Writer");
+            mWriter.setDaemon(true);
+            mWriter.start();
+            mOpen = true;
+            mListener.onOpened();
+            byte[] message;
+            while ((message = readFrame()) != null) {
+                mListener.onMessage(message);
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.w(TAG, mName + " failed: " + e.getMessage());
+                cause = e;
+            }
+        } finally {
+            close();
+            mListener.onClosed(cause);
+        }
+    }
+
+    private void writeFrames() {
+        FrameSource message = null;
+        try {
+            while (!mClosed) {
+                message = mOutgoing.take();
+                mOutput.writeInt(message.getLength());
+                message.writeTo(mOutput);
+                message = null;
+                if (mOutgoing.isEmpty()) {
+                    mOutput.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.w(TAG, mName + " failed to write: " + e.getMessage());
+            }
+            close();
+        } finally {
+            if (message != null) {
+                mListener.onSendFailed(message);
+            }
+            while ((message = mOutgoing.poll()) != null) {
+                mListener.onSendFailed(message);
+            }
+        }
+    }
+
+    /**
+     * @return the next message, or null if the stream ended between two frames.
+     */
+    private byte[] readFrame() throws IOException {
+        int length;
+        try {
+            length = mInput.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MQTT_PROXY_MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] message = new byte[length];
+        mInput.readFully(message);
+        return message;
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        send(new ByteArrayFrameSource(message));
+    }
+
+    @Override
+    public void send(@NonNull FrameSource message) throws IOException {
+        if (!mOpen) {
+            throw new IOException(mName + " is not open");
+        }
+        if (!mOutgoing.offer(message)) {
+            throw new IOException(mName + " send queue is full");
+        }
+        if (mClosed && mOutgoing.remove(message)) {
+            // Closed while the message was queued, after the writer gave back the queued ones.
+            throw new IOException(mName + " is not open");
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mOpen = false;
+        closeQuietly(mOutput);
+        closeQuietly(mInput);
+        if (mReader != null && mReader != Thread.currentThread()) {
+            mReader.interrupt();
+        }
+        if (mWriter != null && mWriter != Thread.currentThread()) {
+            mWriter.interrupt();
+        }
+    }
+
+    protected static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close stream: " + e.getMessage());
+            }
+        }
+    }
+}
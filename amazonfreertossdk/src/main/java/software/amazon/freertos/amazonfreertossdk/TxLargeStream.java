@@ -0,0 +1,238 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.TXLARGE_STREAM_HEADER_MARKER;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.TXLARGE_STREAM_HEADER_SIZE;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.TXLARGE_STREAM_STALL_TIMEOUT;
+
+/**
+ * This class reassembles a large message that the device streams through a TXLARGE
+ * characteristic as successive notifications. The first notification starts with a header of
+ * TXLARGE_STREAM_HEADER_SIZE bytes: the TXLARGE_STREAM_HEADER_MARKER byte, followed by the total
+ * length of the message as a 4 byte big endian integer. The following notifications carry the
+ * rest of the message.
+ *
+ * A message that overruns its header, or that receives no notification for a whole
+ * TXLARGE_STREAM_STALL_TIMEOUT, is dropped. Once the device has streamed a message, notifications
+ * that neither start nor continue one are dropped until the next header, so the stream resyncs
+ * instead of falling back to reading the characteristic. The stall check runs through the
+ * Scheduler, which should run it on the thread the notifications are added on.
+ */
+class TxLargeStream {
+    private static final String TAG = "TxLargeStream";
+
+    private final MessageReassembler mReassembler;
+    /**
+     * Total length of the message being reassembled, or -1 if no message is in progress.
+     */
+    private int mExpectedLength = -1;
+    /**
+     * Number of bytes of the message received so far, including dropped ones.
+     */
+    private int mReceived = 0;
+    /**
+     * Whether the device has streamed a message since the stream was reset.
+     */
+    private boolean mStreaming = false;
+    /**
+     * Number of notifications of the message being reassembled, and its value when the stall
+     * check was armed.
+     */
+    private long mNotifications = 0;
+    private long mNotificationsAtCheck = 0;
+    /**
+     * Number of messages dropped because the device stopped streaming them.
+     */
+    private volatile int mStalls = 0;
+    /**
+     * Number of notifications dropped while waiting for the header of the next message.
+     */
+    private volatile int mSkipped = 0;
+    private final MessageBatcher.Scheduler mScheduler;
+    private HashedWheelTimer.Timeout mStallTimeout;
+    /**
+     * Incremented whenever the stall check is armed or cancelled, so that a check that was
+     * already posted when it got cancelled is ignored.
+     */
+    private int mStallCheckId = 0;
+
+    TxLargeStream(MessageReassembler reassembler, MessageBatcher.Scheduler scheduler) {
+        mReassembler = reassembler;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * A message sent through the read polling path always starts with a CBOR map, so the first
+     * byte of its first chunk can never be the header marker.
+     *
+     * @return true if the notification starts a streamed message.
+     */
+    static boolean isHeader(byte[] notification) {
+        return notification != null && notification.length >= TXLARGE_STREAM_HEADER_SIZE
+                && notification[0] == TXLARGE_STREAM_HEADER_MARKER;
+    }
+
+    /**
+     * @return true if a streamed message is being reassembled.
+     */
+    boolean isActive() {
+        return mExpectedLength >= 0;
+    }
+
+    /**
+     * @return true if the device has streamed a message since the stream was reset, in which case
+     * every notification belongs to the stream.
+     */
+    boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /**
+     * Add a notification to the message being reassembled, or start a new message if the
+     * notification carries the header. A message that goes over the reassembly limits is
+     * dropped, but its notifications are still consumed. A notification that neither starts nor
+     * continues a message is dropped.
+     *
+     * @return a read-only view of the message once all of it has been received, otherwise null.
+     * The view is valid until release is called.
+     */
+    ByteBuffer onNotification(byte[] notification) {
+        int offset = 0;
+        if (!isActive()) {
+            if (!isHeader(notification)) {
+                mSkipped++;
+                Log.w(TAG, "Dropping notification outside of a streamed message. Skipped: "
+                        + mSkipped);
+                return null;
+            }
+            mStreaming = true;
+            int length = ByteBuffer.wrap(notification, 1, 4).getInt();
+            if (length <= 0) {
+                Log.e(TAG, "Invalid streamed message length: " + length);
+                return null;
+            }
+            mExpectedLength = length;
+            mReceived = 0;
+            mNotifications = 0;
+            offset = TXLARGE_STREAM_HEADER_SIZE;
+        }
+        mNotifications++;
+        if (mStallTimeout == null) {
+            armStallCheck();
+        }
+        int length = notification.length - offset;
+        mReceived += length;
+        boolean kept = mReassembler.append(notification, offset, length);
+        if (mReceived < mExpectedLength) {
+            return null;
+        }
+        ByteBuffer message = null;
+        if (mReceived > mExpectedLength) {
+            Log.e(TAG, "Streamed message is longer than its header: " + mReceived
+                    + " > " + mExpectedLength + ". Dropping it.");
+        } else if (kept) {
+            message = mReassembler.getMessage();
+        }
+        mExpectedLength = -1;
+        cancelStallTimeout();
+        if (message == null) {
+            mReassembler.release();
+        }
+        return message;
+    }
+
+    /**
+     * The stall check is armed once per message rather than once per notification. When it
+     * fires, it is armed again if a notification arrived since it was armed.
+     */
+    private void checkStall() {
+        if (!isActive()) {
+            return;
+        }
+        if (mNotifications != mNotificationsAtCheck) {
+            armStallCheck();
+            return;
+        }
+        mStalls++;
+        Log.e(TAG, "Streamed message stalled after " + mReceived + " of " + mExpectedLength
+                + " bytes. Dropping it. Stalls: " + mStalls);
+        dropMessage();
+    }
+
+    private void armStallCheck() {
+        final int id = ++mStallCheckId;
+        mNotificationsAtCheck = mNotifications;
+        mStallTimeout = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (id != mStallCheckId) {
+                    return;
+                }
+                mStallTimeout = null;
+                checkStall();
+            }
+        }, TXLARGE_STREAM_STALL_TIMEOUT);
+    }
+
+    private void cancelStallTimeout() {
+        mStallCheckId++;
+        if (mStallTimeout != null) {
+            mStallTimeout.cancel();
+            mStallTimeout = null;
+        }
+    }
+
+    /**
+     * @return the number of messages dropped because the device stopped streaming them.
+     */
+    int getStalls() {
+        return mStalls;
+    }
+
+    /**
+     * @return the number of notifications dropped while waiting for the header of a message.
+     */
+    int getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * Give the buffer of the last complete message back to the pool.
+     */
+    void release() {
+        mReassembler.release();
+    }
+
+    private void dropMessage() {
+        mReassembler.release();
+        mExpectedLength = -1;
+        cancelStallTimeout();
+    }
+
+    /**
+     * Drop the message being reassembled, and forget that the device streams, e.g. when the
+     * link is lost.
+     */
+    void reset() {
+        dropMessage();
+        mStreaming = false;
+    }
+}
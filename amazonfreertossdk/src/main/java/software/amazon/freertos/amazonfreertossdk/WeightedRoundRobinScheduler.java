@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BleCommandLane;
+
+/**
+ * This is the default BleCommandScheduler. It serves the lanes with deficit round-robin: each
+ * time a lane gets its turn, it may send up to its weight in BLE commands before the next lane
+ * with pending commands is served. A lane with nothing to send gives up its turn and does not
+ * accumulate credit. Lanes with strict priority are served before any other lane, in the order
+ * they are declared, and do not take part in the round-robin.
+ */
+public class WeightedRoundRobinScheduler implements BleCommandScheduler {
+    private final BleCommandLane[] mLanes = BleCommandLane.values();
+    private final ArrayDeque<BleCommand>[] mQueues;
+    private final int[] mWeights = new int[mLanes.length];
+    private final int[] mDeficits = new int[mLanes.length];
+    private final LaneStats[] mStats = new LaneStats[mLanes.length];
+    private int mCurrent = 0;
+    private int mSize = 0;
+
+    /**
+     * Construct a scheduler with the default weight of each lane.
+     */
+    @SuppressWarnings("unchecked")
+    public WeightedRoundRobinScheduler() {
+        mQueues = new ArrayDeque[mLanes.length];
+        for (BleCommandLane lane : mLanes) {
+            mQueues[lane.ordinal()] = new ArrayDeque<>();
+            mWeights[lane.ordinal()] = lane.getDefaultWeight();
+            mStats[lane.ordinal()] = new LaneStats();
+        }
+    }
+
+    /**
+     * Set the weight of a lane, i.e. the number of BLE commands the lane may send in one turn.
+     *
+     * @param lane   the lane.
+     * @param weight the weight of the lane. Must be at least 1.
+     */
+    public void setWeight(BleCommandLane lane, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        mWeights[lane.ordinal()] = weight;
+        mDeficits[lane.ordinal()] = Math.min(mDeficits[lane.ordinal()], weight);
+    }
+
+    /**
+     * @param lane the lane.
+     * @return the weight of the lane.
+     */
+    public int getWeight(BleCommandLane lane) {
+        return mWeights[lane.ordinal()];
+    }
+
+    @Override
+    public void add(BleCommandLane lane, BleCommand command) {
+        command.setEnqueueTime(SystemClock.uptimeMillis());
+        mQueues[lane.ordinal()].add(command);
+        mStats[lane.ordinal()].onEnqueued();
+        mSize++;
+    }
+
+    @Override
+    public void addFirst(BleCommandLane lane, BleCommand command) {
+        command.setEnqueueTime(SystemClock.uptimeMillis());
+        mQueues[lane.ordinal()].addFirst(command);
+        mStats[lane.ordinal()].onEnqueued();
+        mSize++;
+    }
+
+    @Override
+    public BleCommand peek() {
+        int lane = selectLane();
+        return lane < 0 ? null : mQueues[lane].peek();
+    }
+
+    @Override
+    public BleCommand poll() {
+        int lane = selectLane();
+        if (lane < 0) {
+            return null;
+        }
+        BleCommand command = mQueues[lane].poll();
+        if (!mLanes[lane].isStrictPriority()) {
+            mDeficits[lane]--;
+        }
+        mSize--;
+        mStats[lane].onDequeued(SystemClock.uptimeMillis() - command.getEnqueueTime());
+        return command;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mLanes.length; i++) {
+            mQueues[i].clear();
+            mDeficits[i] = 0;
+            mStats[i].onCleared();
+        }
+        mSize = 0;
+    }
+
+    @Override
+    public LaneStats getLaneStats(BleCommandLane lane) {
+        return new LaneStats(mStats[lane.ordinal()]);
+    }
+
+    /**
+     * Find the lane to serve. A strict priority lane with pending commands always wins. Otherwise
+     * the current lane keeps its turn while it has both pending commands and credit left, so
+     * repeated calls without poll return the same lane.
+     *
+     * @return the index of the lane to serve, or -1 if all lanes are empty.
+     */
+    private int selectLane() {
+        if (mSize == 0) {
+            return -1;
+        }
+        for (int i = 0; i < mLanes.length; i++) {
+            if (mLanes[i].isStrictPriority() && !mQueues[i].isEmpty()) {
+                return i;
+            }
+        }
+        while (mLanes[mCurrent].isStrictPriority() || mQueues[mCurrent].isEmpty()
+                || mDeficits[mCurrent] <= 0) {
+            if (mQueues[mCurrent].isEmpty()) {
+                mDeficits[mCurrent] = 0;
+            }
+            mCurrent = (mCurrent + 1) % mLanes.length;
+            if (!mLanes[mCurrent].isStrictPriority() && !mQueues[mCurrent].isEmpty()) {
+                mDeficits[mCurrent] += mWeights[mCurrent];
+            }
+        }
+        return mCurrent;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * A streaming CBOR reader for the maps exchanged with the device. Items are read directly from
+ * the underlying buffer in the order they are encoded, without building an intermediate tree.
+ * The single-letter keys used by the protocol are returned as a {@code char}, so a message is
+ * typically decoded in one pass:
+ * <pre>
+ *     reader.readMapStart();
+ *     while (reader.hasNext()) {
+ *         switch (reader.readKey()) {
+ *             case 'w': type = reader.readInt(); break;
+ *             default: reader.skip(); break;
+ *         }
+ *     }
+ * </pre>
+ * A reader can be reused for another message by calling {@link #reset(ByteBuffer)}.
+ */
+public class CborReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int INFO_INDEFINITE = 31;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int UNDEFINED = 0xf7;
+    private static final int BREAK = 0xff;
+
+    /**
+     * Maximum nesting of maps and arrays that can be iterated with {@link #hasNext()}, or skipped.
+     */
+    private static final int MAX_DEPTH = 8;
+    private static final long INDEFINITE = -1;
+
+    private ByteBuffer mBuffer;
+    /**
+     * The number of entries left in each open map or array, or INDEFINITE if the container is
+     * terminated by a break.
+     */
+    private final long[] mRemaining = new long[MAX_DEPTH];
+    private int mDepth;
+
+    public CborReader() {
+    }
+
+    /**
+     * Construct a reader over the remaining bytes of a buffer. The position of the buffer is
+     * left unchanged.
+     */
+    public CborReader(ByteBuffer buffer) {
+        reset(buffer);
+    }
+
+    /**
+     * Start reading the remaining bytes of a buffer. The position of the buffer is left
+     * unchanged.
+     */
+    public CborReader reset(ByteBuffer buffer) {
+        mBuffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        mDepth = 0;
+        return this;
+    }
+
+    /**
+     * Read the start of a map. Its entries are then iterated with {@link #hasNext()}, reading
+     * one key and one value per entry.
+     * @return the number of entries in the map, or -1 if the map has indefinite length.
+     */
+    public long readMapStart() throws CborException {
+        return openContainer(MAJOR_MAP);
+    }
+
+    /**
+     * Read the start of an array. Its elements are then iterated with {@link #hasNext()}.
+     * @return the number of elements in the array, or -1 if the array has indefinite length.
+     */
+    public long readArrayStart() throws CborException {
+        return openContainer(MAJOR_ARRAY);
+    }
+
+    /**
+     * Advance to the next entry of the innermost open map or array. Once the container is
+     * exhausted it is closed and reading continues in the enclosing one.
+     * @return true if there is another entry to read.
+     */
+    public boolean hasNext() throws CborException {
+        if (mDepth == 0) {
+            throw new CborException("No open map or array");
+        }
+        long remaining = mRemaining[mDepth - 1];
+        if (remaining == INDEFINITE) {
+            require(1);
+            if ((mBuffer.get(mBuffer.position()) & 0xff) != BREAK) {
+                return true;
+            }
+            mBuffer.get();
+        } else if (remaining > 0) {
+            mRemaining[mDepth - 1] = remaining - 1;
+            return true;
+        }
+        mDepth--;
+        return false;
+    }
+
+    /**
+     * Read a map key.
+     * @return the key if it is a single ASCII character, or 0 if it is any other value, in
+     * which case the key has been skipped.
+     */
+    public char readKey() throws CborException {
+        require(1);
+        int initial = mBuffer.get(mBuffer.position()) & 0xff;
+        if (initial == ((MAJOR_TEXT << 5) | 1)) {
+            require(2);
+            mBuffer.get();
+            int c = mBuffer.get() & 0xff;
+            if (c < 0x80) {
+                return (char) c;
+            }
+            return 0;
+        }
+        skip();
+        return 0;
+    }
+
+    /**
+     * @return the major type of the next item, without consuming it.
+     */
+    public int peekMajorType() throws CborException {
+        require(1);
+        return (mBuffer.get(mBuffer.position()) & 0xff) >>> 5;
+    }
+
+    /**
+     * @return true if the next item is null. The null is consumed.
+     */
+    public boolean readNull() throws CborException {
+        require(1);
+        int initial = mBuffer.get(mBuffer.position()) & 0xff;
+        if (initial == NULL || initial == UNDEFINED) {
+            mBuffer.get();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read an unsigned or negative integer that fits in an int.
+     */
+    public int readInt() throws CborException {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new CborException("Integer out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Read an unsigned or negative integer that fits in a long.
+     */
+    public long readLong() throws CborException {
+        require(1);
+        int initial = mBuffer.get() & 0xff;
+        int major = initial >>> 5;
+        if (major != MAJOR_UNSIGNED && major != MAJOR_NEGATIVE) {
+            throw unexpected("integer", initial);
+        }
+        long argument = readArgument(initial);
+        if (argument < 0) {
+            throw new CborException("Integer out of range");
+        }
+        return major == MAJOR_UNSIGNED ? argument : -1 - argument;
+    }
+
+    public boolean readBoolean() throws CborException {
+        require(1);
+        int initial = mBuffer.get() & 0xff;
+        if (initial == TRUE) {
+            return true;
+        } else if (initial == FALSE) {
+            return false;
+        }
+        throw unexpected("boolean", initial);
+    }
+
+    /**
+     * Read a text string.
+     * @return the string, or null if the item is null.
+     */
+    public String readString() throws CborException {
+        if (readNull()) {
+            return null;
+        }
+        int length = readStringHeader(MAJOR_TEXT);
+        String string;
+        if (mBuffer.hasArray()) {
+            string = new String(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(),
+                    length, UTF_8);
+            mBuffer.position(mBuffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            string = new String(bytes, UTF_8);
+        }
+        return string;
+    }
+
+    /**
+     * Read a byte string into a new array.
+     * @return the bytes, or null if the item is null.
+     */
+    public byte[] readBytes() throws CborException {
+        ByteBuffer slice = readBytesSlice();
+        if (slice == null) {
+            return null;
+        }
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read a byte string without copying it.
+     * @return a view of the bytes in the underlying buffer, or null if the item is null. The view
+     * is only valid for as long as the buffer the reader was created over.
+     */
+    public ByteBuffer readBytesSlice() throws CborException {
+        if (readNull()) {
+            return null;
+        }
+        int length = readStringHeader(MAJOR_BYTES);
+        ByteBuffer slice = mBuffer.slice();
+        slice.limit(length);
+        mBuffer.position(mBuffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Skip the next item, including everything nested in it.
+     * @throws CborException if the item is malformed, or nested deeper than MAX_DEPTH.
+     */
+    public void skip() throws CborException {
+        skip(mDepth);
+    }
+
+    /**
+     * @param depth the nesting of the item, bounded so that a malicious item cannot overflow the
+     *              stack.
+     */
+    private void skip(int depth) throws CborException {
+        if (depth > MAX_DEPTH) {
+            throw new CborException("Nesting too deep");
+        }
+        require(1);
+        int initial = mBuffer.get() & 0xff;
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        if (info == INFO_INDEFINITE) {
+            if (major == MAJOR_SIMPLE || major < MAJOR_BYTES || major == MAJOR_TAG) {
+                throw unexpected("item", initial);
+            }
+            while (true) {
+                require(1);
+                if ((mBuffer.get(mBuffer.position()) & 0xff) == BREAK) {
+                    mBuffer.get();
+                    return;
+                }
+                skip(depth + 1);
+                if (major == MAJOR_MAP) {
+                    skip(depth + 1);
+                }
+            }
+        }
+        long argument = readArgument(initial);
+        switch (major) {
+            case MAJOR_BYTES:
+            case MAJOR_TEXT:
+                if (argument < 0 || argument > mBuffer.remaining()) {
+                    throw new CborException("Unexpected end of data");
+                }
+                mBuffer.position(mBuffer.position() + (int) argument);
+                break;
+            case MAJOR_ARRAY:
+            case MAJOR_MAP:
+                long items = major == MAJOR_MAP ? argument * 2 : argument;
+                if (argument < 0 || items > mBuffer.remaining()) {
+                    throw new CborException("Unexpected end of data");
+                }
+                for (long i = 0; i < items; i++) {
+                    skip(depth + 1);
+                }
+                break;
+            case MAJOR_TAG:
+                skip(depth + 1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private long openContainer(int major) throws CborException {
+        if (mDepth == MAX_DEPTH) {
+            throw new CborException("Nesting too deep");
+        }
+        require(1);
+        int initial = mBuffer.get() & 0xff;
+        if (initial >>> 5 != major) {
+            throw unexpected(major == MAJOR_MAP ? "map" : "array", initial);
+        }
+        long count = (initial & 0x1f) == INFO_INDEFINITE ? INDEFINITE : readArgument(initial);
+        if (count < INDEFINITE) {
+            throw new CborException("Container too large");
+        }
+        mRemaining[mDepth++] = count;
+        return count;
+    }
+
+    private int readStringHeader(int major) throws CborException {
+        require(1);
+        int initial = mBuffer.get() & 0xff;
+        if (initial >>> 5 != major) {
+            throw unexpected(major == MAJOR_TEXT ? "text string" : "byte string", initial);
+        }
+        if ((initial & 0x1f) == INFO_INDEFINITE) {
+            throw new CborException("Indefinite length strings are not supported");
+        }
+        long length = readArgument(initial);
+        if (length < 0 || length > mBuffer.remaining()) {
+            throw new CborException("Unexpected end of data");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Read the argument that follows an initial byte. Arguments that do not fit in a signed long
+     * are returned as a negative number.
+     */
+    private long readArgument(int initial) throws CborException {
+        int info = initial & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                require(1);
+                return mBuffer.get() & 0xffL;
+            case 25:
+                require(2);
+                return mBuffer.getShort() & 0xffffL;
+            case 26:
+                require(4);
+                return mBuffer.getInt() & 0xffffffffL;
+            case 27:
+                require(8);
+                return mBuffer.getLong();
+            default:
+                throw unexpected("argument", initial);
+        }
+    }
+
+    private void require(int bytes) throws CborException {
+        if (mBuffer.remaining() < bytes) {
+            throw new CborException("Unexpected end of data");
+        }
+    }
+
+    private static CborException unexpected(String expected, int initial) {
+        return new CborException(String.format("Expected %s, found initial byte 0x%02x",
+                expected, initial));
+    }
+}
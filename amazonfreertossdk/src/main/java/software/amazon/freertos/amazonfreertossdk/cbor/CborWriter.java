@@ -0,0 +1,318 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A streaming CBOR writer for the maps exchanged with the device. Items are encoded directly
+ * into a byte buffer in the order they are written, using the shortest encoding of every integer
+ * and length, and definite lengths for maps and arrays. A map is written as its number of entries
+ * followed by the key and value of each entry:
+ * <pre>
+ *     writer.writeMapStart(2)
+ *           .writeKey('w').writeInt(type)
+ *           .writeKey('i').writeInt(msgID);
+ * </pre>
+ * The writer either encodes into a caller-supplied buffer, failing if it is too small, or into
+ * its own array that grows as needed.
+ */
+public class CborWriter {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+
+    private static final byte FALSE = (byte) 0xf4;
+    private static final byte TRUE = (byte) 0xf5;
+    private static final byte NULL = (byte) 0xf6;
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private ByteBuffer mBuffer;
+    private final boolean mGrowable;
+
+    /**
+     * Construct a writer that encodes into its own array, which grows as needed.
+     */
+    public CborWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a writer that encodes into its own array, which grows as needed.
+     * @param initialCapacity the initial size of the array.
+     */
+    public CborWriter(int initialCapacity) {
+        mBuffer = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+        mGrowable = true;
+    }
+
+    /**
+     * Construct a writer that encodes into a caller-supplied buffer, starting at its position.
+     * The position of the buffer is advanced past every item written, and writing an item that
+     * does not fit fails with a {@link CborException}.
+     */
+    public CborWriter(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+        mGrowable = false;
+    }
+
+    /**
+     * Discard everything written so far. Only meaningful for a writer that owns its array.
+     */
+    public CborWriter reset() {
+        if (mGrowable) {
+            mBuffer.clear();
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written into the writer's own array.
+     */
+    public int size() {
+        return mBuffer.position();
+    }
+
+    /**
+     * @return a copy of the bytes written into the writer's own array.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer.array(), mBuffer.position());
+    }
+
+    /**
+     * Write the start of a map, which must be followed by the given number of key and value
+     * pairs.
+     */
+    public CborWriter writeMapStart(int entries) throws CborException {
+        writeHeader(MAJOR_MAP, entries);
+        return this;
+    }
+
+    /**
+     * Write the start of an array, which must be followed by the given number of elements.
+     */
+    public CborWriter writeArrayStart(int elements) throws CborException {
+        writeHeader(MAJOR_ARRAY, elements);
+        return this;
+    }
+
+    /**
+     * Write a single-character ASCII map key.
+     */
+    public CborWriter writeKey(char key) throws CborException {
+        if (key >= 0x80) {
+            throw new CborException("Map keys must be ASCII: " + key);
+        }
+        ensure(2);
+        mBuffer.put((byte) ((MAJOR_TEXT << 5) | 1));
+        mBuffer.put((byte) key);
+        return this;
+    }
+
+    public CborWriter writeInt(long value) throws CborException {
+        if (value >= 0) {
+            writeHeader(MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    public CborWriter writeBoolean(boolean value) throws CborException {
+        ensure(1);
+        mBuffer.put(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public CborWriter writeNull() throws CborException {
+        ensure(1);
+        mBuffer.put(NULL);
+        return this;
+    }
+
+    /**
+     * Write a text string, or null if the string is null. The string is encoded as UTF-8
+     * without an intermediate array.
+     */
+    public CborWriter writeString(String value) throws CborException {
+        if (value == null) {
+            return writeNull();
+        }
+        int length = value.length();
+        int utf8Length = utf8Length(value);
+        writeHeader(MAJOR_TEXT, utf8Length);
+        ensure(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                mBuffer.put((byte) c);
+            } else if (c < 0x800) {
+                mBuffer.put((byte) (0xc0 | (c >> 6)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                mBuffer.put((byte) (0xf0 | (codePoint >> 18)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                mBuffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, as String.getBytes does.
+                mBuffer.put((byte) '?');
+            } else {
+                mBuffer.put((byte) (0xe0 | (c >> 12)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write a byte string, or null if the bytes are null.
+     */
+    public CborWriter writeBytes(byte[] value) throws CborException {
+        if (value == null) {
+            return writeNull();
+        }
+        writeHeader(MAJOR_BYTES, value.length);
+        ensure(value.length);
+        mBuffer.put(value);
+        return this;
+    }
+
+    /**
+     * Write the remaining bytes of a buffer as a byte string, or null if the buffer is null. The
+     * position of the buffer is left unchanged.
+     */
+    public CborWriter writeBytes(ByteBuffer value) throws CborException {
+        if (value == null) {
+            return writeNull();
+        }
+        writeHeader(MAJOR_BYTES, value.remaining());
+        ensure(value.remaining());
+        mBuffer.put(value.duplicate());
+        return this;
+    }
+
+    /**
+     * Write the header of a byte string whose bytes are not written through this writer, so that
+     * they can be sent right after the encoded bytes without being copied.
+     * @param length the number of bytes in the string.
+     */
+    public CborWriter writeBytesHeader(int length) throws CborException {
+        writeHeader(MAJOR_BYTES, length);
+        return this;
+    }
+
+    private void writeHeader(int major, long argument) throws CborException {
+        int type = major << 5;
+        if (argument < 24) {
+            ensure(1);
+            mBuffer.put((byte) (type | argument));
+        } else if (argument <= 0xffL) {
+            ensure(2);
+            mBuffer.put((byte) (type | 24));
+            mBuffer.put((byte) argument);
+        } else if (argument <= 0xffffL) {
+            ensure(3);
+            mBuffer.put((byte) (type | 25));
+            mBuffer.putShort((short) argument);
+        } else if (argument <= 0xffffffffL) {
+            ensure(5);
+            mBuffer.put((byte) (type | 26));
+            mBuffer.putInt((int) argument);
+        } else {
+            ensure(9);
+            mBuffer.put((byte) (type | 27));
+            mBuffer.putLong(argument);
+        }
+    }
+
+    private void ensure(int bytes) throws CborException {
+        if (mBuffer.remaining() >= bytes) {
+            return;
+        }
+        if (!mGrowable) {
+            throw new CborException("Buffer too small");
+        }
+        int capacity = Math.max(mBuffer.capacity() * 2, mBuffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        mBuffer.flip();
+        grown.put(mBuffer);
+        mBuffer = grown;
+    }
+
+    /**
+     * @return the number of bytes writeInt writes for a value.
+     */
+    public static int encodedLength(long value) {
+        return headerLength(value < 0 ? -1 - value : value);
+    }
+
+    /**
+     * @return the number of bytes writeString writes for a string.
+     */
+    public static int encodedLength(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int utf8Length = utf8Length(value);
+        return headerLength(utf8Length) + utf8Length;
+    }
+
+    private static int headerLength(long argument) {
+        if (argument < 24) {
+            return 1;
+        } else if (argument <= 0xffL) {
+            return 2;
+        } else if (argument <= 0xffffL) {
+            return 3;
+        } else if (argument <= 0xffffffffL) {
+            return 5;
+        }
+        return 9;
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // A surrogate pair is 4 bytes, 2 of which are counted by the two chars.
+                    utf8Length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    utf8Length += 2;
+                }
+            } else if (c >= 0x80) {
+                utf8Length += 1;
+            }
+        }
+        return utf8Length;
+    }
+}
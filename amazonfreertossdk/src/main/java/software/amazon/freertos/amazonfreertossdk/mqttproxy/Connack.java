@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT CONNACK message.
@@ -29,8 +26,10 @@ import co.nstant.in.cbor.CborException;
 public class Connack {
     private static final String TAG = "MqttConnack";
 
-    private static final String TYPE_KEY = "w";
-    private static final String STATUS_KEY = "s";
+    private static final char TYPE_KEY = 'w';
+    private static final char STATUS_KEY = 's';
+    private static final char CAPABILITIES_KEY = 'z';
+    private static final char TOPIC_ALIAS_MAXIMUM_KEY = 'y';
     /**
      * MQTT message type.
      */
@@ -39,21 +38,41 @@ public class Connack {
      * The MQTT connection status defined in {@code MqttConnectionState} enum.
      */
     public int status;
+    /**
+     * The MQTT proxy capabilities offered in CONNECT that the SDK accepted. Only encoded when
+     * not 0, so firmware that does not negotiate capabilities receives the same CONNACK as before.
+     */
+    public int capabilities;
+    /**
+     * The largest topic alias the SDK accepts in PUBLISH messages from the device. Only encoded
+     * when not 0.
+     */
+    public int topicAliasMaximum;
 
     public byte[] encode() {
         byte[] connackBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                .addMap()
-                .put(TYPE_KEY, type)
-                .put(STATUS_KEY, status)
-                .end()
-                .build());
-            connackBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            connackBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return connackBytes;
     }
+
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(2 + (capabilities != 0 ? 1 : 0) + (topicAliasMaximum != 0 ? 1 : 0))
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(STATUS_KEY).writeInt(status);
+        if (capabilities != 0) {
+            writer.writeKey(CAPABILITIES_KEY).writeInt(capabilities);
+        }
+        if (topicAliasMaximum != 0) {
+            writer.writeKey(TOPIC_ALIAS_MAXIMUM_KEY).writeInt(topicAliasMaximum);
+        }
+    }
 }
@@ -17,30 +17,24 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.SimpleValue;
-import co.nstant.in.cbor.model.SimpleValueType;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT CONNECT message.
  */
 public class Connect {
     private static final String TAG = "MqttConnect";
-    private static final String TYPE_KEY = "w";
-    private static final String CLIENTID_KEY = "d";
-    private static final String BROKERENDPOINT_KEY = "a";
-    private static final String CLEANSESSION_KEY = "c";
+    private static final char TYPE_KEY = 'w';
+    private static final char CLIENTID_KEY = 'd';
+    private static final char BROKERENDPOINT_KEY = 'a';
+    private static final char CLEANSESSION_KEY = 'c';
+    private static final char CAPABILITIES_KEY = 'z';
+    private static final char TOPIC_ALIAS_MAXIMUM_KEY = 'y';
     /**
      * MQTT message type.
      */
@@ -57,6 +51,16 @@ public class Connect {
      * MQTT clean session.
      */
     public boolean cleanSession;
+    /**
+     * The MQTT proxy capabilities the device supports, a bitmask of the
+     * {@code MQTT_PROXY_CAPABILITY_} constants. 0 if the device did not send any.
+     */
+    public int capabilities;
+    /**
+     * The largest topic alias the device accepts in PUBLISH messages sent to it. 0 if the device
+     * does not support topic aliases.
+     */
+    public int topicAliasMaximum;
     public String toString() {
         return String.format(" Connect message -> \n clientID: %s\n endpoint: %s\n cleansession: %s",
                 clientID, brokerEndpoint, (cleanSession? "true":"false") );
@@ -65,42 +69,86 @@ public class Connect {
     public byte[] encode() {
         byte[] connectBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                .addMap()
-                .put(TYPE_KEY, type)
-                .put(CLIENTID_KEY, clientID)
-                .put(BROKERENDPOINT_KEY, brokerEndpoint)
-                .put(CLEANSESSION_KEY, cleanSession)
-                .end()
-                .build());
-            connectBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            connectBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return connectBytes;
     }
 
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(4 + (capabilities != 0 ? 1 : 0) + (topicAliasMaximum != 0 ? 1 : 0))
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(CLIENTID_KEY).writeString(clientID)
+                .writeKey(BROKERENDPOINT_KEY).writeString(brokerEndpoint)
+                .writeKey(CLEANSESSION_KEY).writeBoolean(cleanSession);
+        if (capabilities != 0) {
+            writer.writeKey(CAPABILITIES_KEY).writeInt(capabilities);
+        }
+        if (topicAliasMaximum != 0) {
+            writer.writeKey(TOPIC_ALIAS_MAXIMUM_KEY).writeInt(topicAliasMaximum);
+        }
+    }
+
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(CLIENTID_KEY));
-            clientID = ((UnicodeString) dataItem).getString();
-            dataItem = map.get(new UnicodeString(BROKERENDPOINT_KEY));
-            brokerEndpoint = ((UnicodeString) dataItem).getString();
-            dataItem = map.get(new UnicodeString(CLEANSESSION_KEY));
-            cleanSession = (((SimpleValue) dataItem).getSimpleValueType() == SimpleValueType.TRUE) ? true:false;
+            reader.readMapStart();
+            decodeEntries(0, reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(int messageType, CborReader reader) throws CborException {
+        type = messageType;
+        clientID = null;
+        brokerEndpoint = null;
+        cleanSession = false;
+        capabilities = 0;
+        topicAliasMaximum = 0;
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case TYPE_KEY:
+                    type = reader.readInt();
+                    break;
+                case CLIENTID_KEY:
+                    clientID = reader.readString();
+                    break;
+                case BROKERENDPOINT_KEY:
+                    brokerEndpoint = reader.readString();
+                    break;
+                case CLEANSESSION_KEY:
+                    cleanSession = reader.readBoolean();
+                    break;
+                case CAPABILITIES_KEY:
+                    capabilities = reader.readInt();
+                    break;
+                case TOPIC_ALIAS_MAXIMUM_KEY:
+                    topicAliasMaximum = reader.readInt();
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
         }
     }
 }
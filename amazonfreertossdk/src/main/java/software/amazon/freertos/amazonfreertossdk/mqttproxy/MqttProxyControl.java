@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT proxy state. SDK sends this object to device to switch on/off
@@ -29,7 +26,7 @@ import co.nstant.in.cbor.CborException;
  */
 public class MqttProxyControl {
     private static final String TAG = "MqttProxyControl";
-    private static final String PROXYSTATE_KEY = "l";
+    private static final char PROXYSTATE_KEY = 'l';
     /**
      * The state of MQTT proxy.
      */
@@ -38,16 +35,20 @@ public class MqttProxyControl {
     public byte[] encode() {
         byte[] mqttProxyControlBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(PROXYSTATE_KEY, proxyState)
-                    .end()
-                    .build());
-            mqttProxyControlBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            mqttProxyControlBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return mqttProxyControlBytes;
     }
+
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(1)
+                .writeKey(PROXYSTATE_KEY).writeInt(proxyState);
+    }
 }
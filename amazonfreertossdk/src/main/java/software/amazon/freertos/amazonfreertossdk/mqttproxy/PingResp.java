@@ -2,32 +2,33 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.MQTT_MSG_PINGRESP;
 
 public class PingResp {
     private static final String TAG = "PingResp";
 
-    private static final String TYPE_KEY = "w";
+    private static final char TYPE_KEY = 'w';
 
     public byte[] encode() {
         byte[] bytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, MQTT_MSG_PINGRESP)
-                    .end()
-                    .build());
-            bytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            bytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return bytes;
     }
+
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(1)
+                .writeKey(TYPE_KEY).writeInt(MQTT_MSG_PINGRESP);
+    }
 }
@@ -17,19 +17,12 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.Number;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT PUBACK message.
@@ -37,8 +30,8 @@ import co.nstant.in.cbor.model.UnsignedInteger;
 public class Puback {
     private static final String TAG = "MqttPuback";
 
-    private static final String TYPE_KEY = "w";
-    private static final String MSGID_KEY = "i";
+    private static final char TYPE_KEY = 'w';
+    private static final char MSGID_KEY = 'i';
     /**
      * MQTT message type.
      */
@@ -51,36 +44,62 @@ public class Puback {
     public byte[] encode() {
         byte[] pubackBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                .addMap()
-                .put(TYPE_KEY, type)
-                .put(MSGID_KEY, msgID)
-                .end()
-                .build());
-            pubackBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            pubackBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return pubackBytes;
     }
 
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(2)
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(MSGID_KEY).writeInt(msgID);
+    }
+
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(MSGID_KEY));
-            msgID = ((Number) dataItem).getValue().intValue();
+            reader.readMapStart();
+            decodeEntries(0, reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(int messageType, CborReader reader) throws CborException {
+        type = messageType;
+        msgID = 0;
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case TYPE_KEY:
+                    type = reader.readInt();
+                    break;
+                case MSGID_KEY:
+                    msgID = reader.readInt();
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
         }
     }
 }
@@ -17,22 +17,16 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.util.List;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.ByteString;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.Number;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import java.nio.ByteBuffer;
+
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
+import software.amazon.freertos.amazonfreertossdk.ByteArrayFrameSource;
+import software.amazon.freertos.amazonfreertossdk.FrameSource;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT PUBLISH message.
@@ -41,11 +35,12 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class Publish {
     private static final String TAG = "MqttPublish";
-    private static final String TYPE_KEY = "w";
-    private static final String TOPIC_KEY = "u";
-    private static final String MSGID_KEY = "i";
-    private static final String QOS_KEY = "n";
-    private static final String PAYLOAD_KEY = "k";
+    private static final char TYPE_KEY = 'w';
+    private static final char TOPIC_KEY = 'u';
+    private static final char MSGID_KEY = 'i';
+    private static final char QOS_KEY = 'n';
+    private static final char PAYLOAD_KEY = 'k';
+    private static final char TOPIC_ALIAS_KEY = 'v';
     /**
      * MQTT message type.
      */
@@ -91,47 +86,185 @@ public class Publish {
     public byte[] encode() {
         byte[] publishBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                .addMap()
-                .put(TYPE_KEY, type)
-                .put(TOPIC_KEY, topic)
-                .put(MSGID_KEY, msgID)
-                .put(QOS_KEY, qoS)
-                .put(PAYLOAD_KEY, payloadBytes)
-                .end()
-                .build());
-            publishBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            publishBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return publishBytes;
     }
 
-    public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        encode(writer, null);
+    }
+
+    /**
+     * Encode the message into a writer, replacing the topic with its alias when it has one.
+     *
+     * @param aliases the topic aliases of the messages sent, or null to always send the topic.
+     */
+    public void encode(CborWriter writer, TopicAliasTable aliases) throws CborException {
+        encodeFields(writer, aliases);
+        writer.writeBytes(payloadBytes);
+    }
+
+    /**
+     * Encode everything in the message but the payload bytes, which are the last part of the
+     * encoded message. The header followed by {@link #getPayload()} is the same as the output of
+     * {@link #encode()}, so the message can be sent without copying the payload.
+     *
+     * @return the encoded header, or null if the message could not be encoded.
+     */
+    public byte[] encodeHeader() {
+        return encodeHeader(null);
+    }
+
+    /**
+     * Encode everything in the message but the payload bytes, replacing the topic with its alias
+     * when it has one.
+     *
+     * @param aliases the topic aliases of the messages sent, or null to always send the topic.
+     * @return the encoded header, or null if the message could not be encoded.
+     */
+    public byte[] encodeHeader(TopicAliasTable aliases) {
+        byte[] headerBytes = null;
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(TOPIC_KEY));
-            topic = ((UnicodeString) dataItem).getString();
-            dataItem = map.get(new UnicodeString(QOS_KEY));
-            qoS = ((Number) dataItem).getValue().intValue();
-            if (qoS != 0) {
-                dataItem = map.get(new UnicodeString(MSGID_KEY));
-                msgID = ((Number) dataItem).getValue().intValue();
+            CborWriter writer = new CborWriter();
+            encodeFields(writer, aliases);
+            if (payloadBytes == null) {
+                writer.writeNull();
+            } else {
+                writer.writeBytesHeader(payloadBytes.length);
             }
-            dataItem = map.get(new UnicodeString(PAYLOAD_KEY));
-            payloadBytes = ((ByteString) dataItem).getBytes();
+            headerBytes = writer.toByteArray();
+        } catch (CborException e) {
+            Log.e(TAG, "Failed to encode.", e);
+        }
+        return headerBytes;
+    }
+
+    /**
+     * Encode the message as a frame source that references the payload instead of copying it,
+     * so that frames are cut from the header and the payload as they are written.
+     *
+     * @return the frame source, or null if the message could not be encoded.
+     */
+    public FrameSource encodeFrames() {
+        return encodeFrames(null);
+    }
+
+    /**
+     * Encode the message as a frame source that references the payload, replacing the topic
+     * with its alias when it has one.
+     *
+     * @param aliases the topic aliases of the messages sent, or null to always send the topic.
+     * @return the frame source, or null if the message could not be encoded.
+     */
+    public FrameSource encodeFrames(TopicAliasTable aliases) {
+        byte[] headerBytes = encodeHeader(aliases);
+        if (headerBytes == null) {
+            return null;
+        }
+        return payloadBytes == null ? new ByteArrayFrameSource(headerBytes)
+                : new ByteArrayFrameSource(headerBytes, payloadBytes);
+    }
+
+    /**
+     * Encode the map up to the key of the payload, which is kept last.
+     */
+    private void encodeFields(CborWriter writer, TopicAliasTable aliases) throws CborException {
+        int alias = aliases == null ? 0 : aliases.aliasForSending(topic);
+        // A new alias is sent with its topic, a known one replaces it.
+        writer.writeMapStart(alias < 0 ? 6 : 5)
+                .writeKey(TYPE_KEY).writeInt(type);
+        if (alias <= 0) {
+            writer.writeKey(TOPIC_KEY).writeString(topic);
+        }
+        if (alias != 0) {
+            writer.writeKey(TOPIC_ALIAS_KEY).writeInt(Math.abs(alias));
+        }
+        writer.writeKey(MSGID_KEY).writeInt(msgID)
+                .writeKey(QOS_KEY).writeInt(qoS)
+                .writeKey(PAYLOAD_KEY);
+    }
+
+    public boolean decode(byte[] cborEncodedBytes) {
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
+        try {
+            reader.readMapStart();
+            decodeEntries(0, reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(int messageType, CborReader reader) throws CborException {
+        decodeEntries(messageType, reader, null);
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type, resolving the topic from its alias when the message carries one.
+     * The topic is null if the alias is unknown.
+     *
+     * @param aliases the topic aliases of the messages received, or null to ignore aliases.
+     */
+    public void decodeEntries(int messageType, CborReader reader, TopicAliasTable aliases)
+            throws CborException {
+        int alias = 0;
+        type = messageType;
+        topic = null;
+        msgID = 0;
+        qoS = 0;
+        payloadBytes = null;
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case TYPE_KEY:
+                    type = reader.readInt();
+                    break;
+                case TOPIC_KEY:
+                    topic = reader.readString();
+                    break;
+                case MSGID_KEY:
+                    msgID = reader.readInt();
+                    break;
+                case QOS_KEY:
+                    qoS = reader.readInt();
+                    break;
+                case PAYLOAD_KEY:
+                    payloadBytes = reader.readBytes();
+                    break;
+                case TOPIC_ALIAS_KEY:
+                    alias = reader.readInt();
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
+        }
+        // The message ID is only meaningful for QoS 1.
+        if (qoS == 0) {
+            msgID = 0;
+        }
+        if (aliases != null) {
+            topic = aliases.resolveReceived(alias, topic);
         }
     }
 }
@@ -17,20 +17,17 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT SUBACK message.
  */
 public class Suback {
     private static final String TAG = "MqttSuback";
-    private static final String TYPE_KEY = "w";
-    private static final String MSGID_KEY = "i";
-    private static final String STATUS_KEY = "s";
+    private static final char TYPE_KEY = 'w';
+    private static final char MSGID_KEY = 'i';
+    private static final char STATUS_KEY = 's';
     /**
      * MQTT message type.
      */
@@ -48,18 +45,22 @@ public class Suback {
     public byte[] encode() {
         byte[] subackBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                .addMap()
-                .put(TYPE_KEY, type)
-                .put(MSGID_KEY, msgID)
-                .put(STATUS_KEY, status)
-                .end()
-                .build());
-            subackBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            subackBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return subackBytes;
     }
+
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(3)
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(MSGID_KEY).writeInt(msgID)
+                .writeKey(STATUS_KEY).writeInt(status);
+    }
 }
@@ -17,33 +17,24 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.builder.ArrayBuilder;
-import co.nstant.in.cbor.builder.MapBuilder;
-import co.nstant.in.cbor.model.Array;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.Number;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT SUBSCRIBE message.
  */
 public class Subscribe {
     private static final String TAG = "MqttSubscribe";
-    private static final String TYPE_KEY = "w";
-    private static final String TOPICS_KEY = "v";
-    private static final String MSGID_KEY = "i";
-    private static final String QOSS_KEY = "o";
+    private static final char TYPE_KEY = 'w';
+    private static final char TOPICS_KEY = 'v';
+    private static final char MSGID_KEY = 'i';
+    private static final char QOSS_KEY = 'o';
     /**
      * MQTT message type.
      */
@@ -75,60 +66,84 @@ public class Subscribe {
     public byte[] encode() {
         byte[] subscribeBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-            ArrayBuilder<MapBuilder<CborBuilder>> topicsArray = new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, type)
-                    .putArray(TOPICS_KEY);
-
-            for (String topic : topics) {
-                topicsArray = topicsArray.add(topic);
-            }
-
-            MapBuilder<CborBuilder> map = topicsArray.end();
-            ArrayBuilder<MapBuilder<CborBuilder>> qosArray = map.put(MSGID_KEY, msgID)
-                    .putArray(QOSS_KEY);
-
-            for (int qos : qoSs) {
-                qosArray = qosArray.add(qos);
-            }
-            List<DataItem> cbordata = qosArray.end().end().build();
-            new CborEncoder(baos).encode(cbordata);
-            subscribeBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            subscribeBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return subscribeBytes;
     }
 
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(4)
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(TOPICS_KEY).writeArrayStart(topics.size());
+        for (String topic : topics) {
+            writer.writeString(topic);
+        }
+        writer.writeKey(MSGID_KEY).writeInt(msgID)
+                .writeKey(QOSS_KEY).writeArrayStart(qoSs.size());
+        for (int qos : qoSs) {
+            writer.writeInt(qos);
+        }
+    }
+
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
-        try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(MSGID_KEY));
-            msgID = ((Number) dataItem).getValue().intValue();
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
 
-            dataItem = map.get(new UnicodeString(TOPICS_KEY));
-            List<DataItem> topicDataItems = ((Array) dataItem).getDataItems();
-            for (DataItem topicDataItem : topicDataItems) {
-                topics.add(((UnicodeString) topicDataItem).getString());
-            }
-            dataItem = map.get(new UnicodeString(QOSS_KEY));
-            List<DataItem> qosDataItems = ((Array) dataItem).getDataItems();
-            for (DataItem qosDataItem : qosDataItems) {
-                qoSs.add(((UnsignedInteger) qosDataItem).getValue().intValue());
-            }
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
+        try {
+            reader.readMapStart();
+            decodeEntries(0, reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(int messageType, CborReader reader) throws CborException {
+        type = messageType;
+        msgID = 0;
+        topics.clear();
+        qoSs.clear();
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case TYPE_KEY:
+                    type = reader.readInt();
+                    break;
+                case MSGID_KEY:
+                    msgID = reader.readInt();
+                    break;
+                case TOPICS_KEY:
+                    reader.readArrayStart();
+                    while (reader.hasNext()) {
+                        topics.add(reader.readString());
+                    }
+                    break;
+                case QOSS_KEY:
+                    reader.readArrayStart();
+                    while (reader.hasNext()) {
+                        qoSs.add(reader.readInt());
+                    }
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
         }
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk.mqttproxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
+
+/**
+ * This class holds the topic aliases of one direction of an MQTT proxy session, similar to MQTT 5
+ * topic aliases. The sender assigns an alias the first time it publishes on a topic and sends
+ * both; from then on it sends the alias alone, and the receiver resolves it to the topic. If a
+ * message that may have introduced an alias is lost, the sender calls resendTopics, so that each
+ * alias is sent with its topic again. The aliases are cleared at each CONNECT, while the
+ * statistics add up across sessions.
+ */
+public class TopicAliasTable {
+    /**
+     * The CBOR encoded key of the alias, which is added to every message that carries one.
+     */
+    private static final int ALIAS_KEY_LENGTH = 2;
+
+    /**
+     * The largest alias of the session, 0 if topic aliases are not used.
+     */
+    @Getter
+    private int maximum = 0;
+    /**
+     * Number of PUBLISH messages encoded or decoded with the table.
+     */
+    @Getter
+    private long publishes;
+    /**
+     * Number of PUBLISH messages whose topic was sent as an alias alone.
+     */
+    @Getter
+    private long aliasHits;
+    /**
+     * Bytes saved by sending aliases instead of topics, less the bytes spent assigning them.
+     */
+    @Getter
+    private long bytesSaved;
+
+    /**
+     * The aliases assigned when sending, by topic.
+     */
+    private final Map<String, Integer> mAliases = new HashMap<>();
+    /**
+     * The topics of the aliases, by alias.
+     */
+    private String[] mTopics = new String[1];
+    /**
+     * Whether the topic of each alias has been sent with it since the last resendTopics.
+     */
+    private boolean[] mIntroduced = new boolean[1];
+
+    /**
+     * Clear the aliases at the start of a session.
+     *
+     * @param max the largest alias of the session, 0 to not use topic aliases.
+     */
+    public synchronized void reset(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid topic alias maximum: " + max);
+        }
+        maximum = max;
+        mAliases.clear();
+        mTopics = new String[max + 1];
+        mIntroduced = new boolean[max + 1];
+    }
+
+    /**
+     * Send the topic of every alias again with the next message that carries it, because a
+     * message that introduced an alias may not have reached the receiver.
+     */
+    public synchronized void resendTopics() {
+        for (int alias = 1; alias < mIntroduced.length; alias++) {
+            mIntroduced[alias] = false;
+        }
+    }
+
+    /**
+     * Look up the alias of a topic that is about to be sent, assigning one if there is room.
+     *
+     * @param topic the topic.
+     * @return the alias, 0 if the topic has none, or the negated alias if it was just assigned
+     * and the topic has to be sent with it.
+     */
+    synchronized int aliasForSending(String topic) {
+        publishes++;
+        if (maximum == 0 || topic == null) {
+            return 0;
+        }
+        Integer alias = mAliases.get(topic);
+        if (alias != null && mIntroduced[alias]) {
+            recordHit(topic, alias);
+            return alias;
+        }
+        if (alias == null) {
+            if (mAliases.size() == maximum) {
+                return 0;
+            }
+            alias = mAliases.size() + 1;
+            mAliases.put(topic, alias);
+            mTopics[alias] = topic;
+        }
+        mIntroduced[alias] = true;
+        bytesSaved -= ALIAS_KEY_LENGTH + CborWriter.encodedLength(alias);
+        return -alias;
+    }
+
+    /**
+     * Resolve the topic of a received message.
+     *
+     * @param alias the alias the message carries, or 0 if it carries none.
+     * @param topic the topic the message carries, or null if it carries only the alias.
+     * @return the topic, or null if the alias is unknown or out of range.
+     */
+    synchronized String resolveReceived(int alias, String topic) {
+        publishes++;
+        if (alias <= 0 || alias > maximum) {
+            return alias == 0 ? topic : null;
+        }
+        if (topic != null) {
+            mTopics[alias] = topic;
+            bytesSaved -= ALIAS_KEY_LENGTH + CborWriter.encodedLength(alias);
+            return topic;
+        }
+        topic = mTopics[alias];
+        if (topic != null) {
+            recordHit(topic, alias);
+        }
+        return topic;
+    }
+
+    private void recordHit(String topic, int alias) {
+        aliasHits++;
+        // The alias and its key replace the topic and its key, which have the same length.
+        bytesSaved += CborWriter.encodedLength(topic) - CborWriter.encodedLength(alias);
+    }
+
+    /**
+     * @return the fraction of PUBLISH messages whose topic was sent as an alias alone.
+     */
+    public synchronized double getHitRate() {
+        return publishes == 0 ? 0 : (double) aliasHits / publishes;
+    }
+
+    public synchronized String toString() {
+        return String.format("Topic alias stats -> maximum: %d publishes: %d hits: %d"
+                + " bytes saved: %d", maximum, publishes, aliasHits, bytesSaved);
+    }
+}
@@ -17,19 +17,16 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT UNSUBACK message.
  */
 public class Unsuback {
     private static final String TAG = "MqttUnsubscribe";
-    private static final String TYPE_KEY = "w";
-    private static final String MSGID_KEY = "i";
+    private static final char TYPE_KEY = 'w';
+    private static final char MSGID_KEY = 'i';
     /**
      * MQTT message type.
      */
@@ -42,17 +39,21 @@ public class Unsuback {
     public byte[] encode() {
         byte[] unsubackBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, type)
-                    .put(MSGID_KEY, msgID)
-                    .end()
-                    .build());
-            unsubackBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            unsubackBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return unsubackBytes;
     }
+
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(2)
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(MSGID_KEY).writeInt(msgID);
+    }
 }
@@ -17,32 +17,23 @@ package software.amazon.freertos.amazonfreertossdk.mqttproxy;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.builder.ArrayBuilder;
-import co.nstant.in.cbor.builder.MapBuilder;
-import co.nstant.in.cbor.model.Array;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.Number;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 /**
  * This class represents the MQTT UNSUBSCRIBE message.
  */
 public class Unsubscribe {
     private static final String TAG = "MqttUnsubscribe";
-    private static final String TYPE_KEY = "w";
-    private static final String TOPICS_KEY = "v";
-    private static final String MSGID_KEY = "i";
+    private static final char TYPE_KEY = 'w';
+    private static final char TOPICS_KEY = 'v';
+    private static final char MSGID_KEY = 'i';
     /**
      * MQTT message type.
      */
@@ -70,48 +61,72 @@ public class Unsubscribe {
     public byte[] encode() {
         byte[] unsubscribeBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-            ArrayBuilder<MapBuilder<CborBuilder>> topicsArray = new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, type)
-                    .putArray(TOPICS_KEY);
-
-            for (String topic : topics) {
-                topicsArray = topicsArray.add(topic);
-            }
-
-            List<DataItem> cbordata = topicsArray.end().end().build();
-            new CborEncoder(baos).encode(cbordata);
-            unsubscribeBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            unsubscribeBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return unsubscribeBytes;
     }
 
+    /**
+     * Encode the message into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(2)
+                .writeKey(TYPE_KEY).writeInt(type)
+                .writeKey(TOPICS_KEY).writeArrayStart(topics.size());
+        for (String topic : topics) {
+            writer.writeString(topic);
+        }
+    }
+
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
-        try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(TYPE_KEY));
-            type = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(MSGID_KEY));
-            msgID = ((Number) dataItem).getValue().intValue();
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
 
-            dataItem = map.get(new UnicodeString(TOPICS_KEY));
-            List<DataItem> topicDataItems = ((Array) dataItem).getDataItems();
-            for (DataItem topicDataItem : topicDataItems) {
-                topics.add(((UnicodeString) topicDataItem).getString());
-            }
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
+        try {
+            reader.readMapStart();
+            decodeEntries(0, reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(int messageType, CborReader reader) throws CborException {
+        type = messageType;
+        msgID = 0;
+        topics.clear();
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case TYPE_KEY:
+                    type = reader.readInt();
+                    break;
+                case MSGID_KEY:
+                    msgID = reader.readInt();
+                    break;
+                case TOPICS_KEY:
+                    reader.readArrayStart();
+                    while (reader.hasNext()) {
+                        topics.add(reader.readString());
+                    }
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
         }
     }
 }
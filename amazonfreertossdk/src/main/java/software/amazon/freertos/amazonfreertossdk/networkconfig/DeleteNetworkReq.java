@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.DELETE_NETWORK_REQ;
 
@@ -35,23 +32,27 @@ public class DeleteNetworkReq {
     public int index;
 
     private static final String TAG = "DeleteNetworkRequest";
-    private static final String INDEX_KEY = "g";
-    private static final String TYPE_KEY = "w";
+    private static final char INDEX_KEY = 'g';
+    private static final char TYPE_KEY = 'w';
 
     public byte[] encode() {
         byte[] DeleteNetworkRequestBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, DELETE_NETWORK_REQ)
-                    .put(INDEX_KEY, index)
-                    .end()
-                    .build());
-            DeleteNetworkRequestBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            DeleteNetworkRequestBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return DeleteNetworkRequestBytes;
     }
+
+    /**
+     * Encode the request into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(2)
+                .writeKey(TYPE_KEY).writeInt(DELETE_NETWORK_REQ)
+                .writeKey(INDEX_KEY).writeInt(index);
+    }
 }
@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.EDIT_NETWORK_REQ;
 
@@ -39,25 +36,29 @@ public class EditNetworkReq {
     public int newIndex;
 
     private static final String TAG = "EditNetworkRequest";
-    private static final String INDEX_KEY = "g";
-    private static final String NEWINDEX_KEY = "j";
-    private static final String TYPE_KEY = "w";
+    private static final char INDEX_KEY = 'g';
+    private static final char NEWINDEX_KEY = 'j';
+    private static final char TYPE_KEY = 'w';
 
     public byte[] encode() {
         byte[] EditNetworkRequestBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, EDIT_NETWORK_REQ)
-                    .put(INDEX_KEY, index)
-                    .put(NEWINDEX_KEY, newIndex)
-                    .end()
-                    .build());
-            EditNetworkRequestBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            EditNetworkRequestBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return EditNetworkRequestBytes;
     }
+
+    /**
+     * Encode the request into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(3)
+                .writeKey(TYPE_KEY).writeInt(EDIT_NETWORK_REQ)
+                .writeKey(INDEX_KEY).writeInt(index)
+                .writeKey(NEWINDEX_KEY).writeInt(newIndex);
+    }
 }
@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.LIST_NETWORK_REQ;
 
@@ -39,25 +36,29 @@ public class ListNetworkReq {
     public int timeout;
 
     private static final String TAG = "ListNetworkRequest";
-    private static final String MAXNETWORKS_KEY = "h";
-    private static final String TIMEOUT_KEY = "t";
-    private static final String TYPE_KEY = "w";
+    private static final char MAXNETWORKS_KEY = 'h';
+    private static final char TIMEOUT_KEY = 't';
+    private static final char TYPE_KEY = 'w';
 
     public byte[] encode() {
         byte[] ListNetworkRequestBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, LIST_NETWORK_REQ)
-                    .put(MAXNETWORKS_KEY, maxNetworks)
-                    .put(TIMEOUT_KEY, timeout)
-                    .end()
-                    .build());
-            ListNetworkRequestBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            ListNetworkRequestBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return ListNetworkRequestBytes;
     }
+
+    /**
+     * Encode the request into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(3)
+                .writeKey(TYPE_KEY).writeInt(LIST_NETWORK_REQ)
+                .writeKey(MAXNETWORKS_KEY).writeInt(maxNetworks)
+                .writeKey(TIMEOUT_KEY).writeInt(timeout);
+    }
 }
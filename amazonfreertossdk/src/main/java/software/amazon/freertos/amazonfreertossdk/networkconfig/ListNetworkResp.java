@@ -17,22 +17,13 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.Formatter;
-import java.util.List;
 
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.ByteString;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-import co.nstant.in.cbor.model.NegativeInteger;
-import co.nstant.in.cbor.model.Number;
-import co.nstant.in.cbor.model.SimpleValue;
-import co.nstant.in.cbor.model.SimpleValueType;
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
 import lombok.Getter;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
 
 /**
  * List network response
@@ -40,15 +31,15 @@ import lombok.Getter;
 @Getter
 public class ListNetworkResp {
     private static final String TAG = "ListNetworkResponse";
-    private static final String STATUS_KEY = "s";
-    private static final String SSID_KEY = "r";
-    private static final String BSSID_KEY = "b";
-    private static final String SECURITY_KEY = "q";
-    private static final String HIDDEN_KEY = "f";
-    private static final String RSSI_KEY = "p";
-    private static final String CONNECTED_KEY = "e";
-    private static final String INDEX_KEY = "g";
-    private static final String LAST_NETWORK_KEY = "l";
+    private static final char STATUS_KEY = 's';
+    private static final char SSID_KEY = 'r';
+    private static final char BSSID_KEY = 'b';
+    private static final char SECURITY_KEY = 'q';
+    private static final char HIDDEN_KEY = 'f';
+    private static final char RSSI_KEY = 'p';
+    private static final char CONNECTED_KEY = 'e';
+    private static final char INDEX_KEY = 'g';
+    private static final char LAST_NETWORK_KEY = 'l';
     /**
      * Status of the operation. 0 for success.
      */
@@ -95,42 +86,78 @@ public class ListNetworkResp {
     }
 
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(STATUS_KEY));
-            status = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(SSID_KEY));
-            ssid = ((UnicodeString) dataItem).getString();
-            dataItem = map.get(new UnicodeString(BSSID_KEY));
-            bssid = ((ByteString) dataItem).getBytes();
-            dataItem = map.get(new UnicodeString(SECURITY_KEY));
-            security = ((UnsignedInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(HIDDEN_KEY));
-            hidden = (((SimpleValue) dataItem).getSimpleValueType() == SimpleValueType.TRUE) ? true : false;
-            dataItem = map.get(new UnicodeString(RSSI_KEY));
-            rssi = ((NegativeInteger) dataItem).getValue().intValue();
-            dataItem = map.get(new UnicodeString(CONNECTED_KEY));
-            connected = (((SimpleValue) dataItem).getSimpleValueType() == SimpleValueType.TRUE) ? true : false;
-            dataItem = map.get(new UnicodeString(INDEX_KEY));
-            index = ((Number) dataItem).getValue().intValue();
-            final UnicodeString lastNetworkKey = new UnicodeString(LAST_NETWORK_KEY);
-            if(map.getKeys().contains(lastNetworkKey)) {
-                dataItem = map.get(lastNetworkKey);
-                last = (((SimpleValue) dataItem).getSimpleValueType() == SimpleValueType.TRUE);
-            }
+            reader.readMapStart();
+            decodeEntries(reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(CborReader reader) throws CborException {
+        status = 0;
+        ssid = null;
+        bssid = null;
+        security = 0;
+        hidden = false;
+        rssi = 0;
+        connected = false;
+        index = 0;
+        last = false;
+        while (reader.hasNext()) {
+            switch (reader.readKey()) {
+                case STATUS_KEY:
+                    status = reader.readInt();
+                    break;
+                case SSID_KEY:
+                    ssid = reader.readString();
+                    break;
+                case BSSID_KEY:
+                    bssid = reader.readBytes();
+                    break;
+                case SECURITY_KEY:
+                    security = reader.readInt();
+                    break;
+                case HIDDEN_KEY:
+                    hidden = reader.readBoolean();
+                    break;
+                case RSSI_KEY:
+                    rssi = reader.readInt();
+                    break;
+                case CONNECTED_KEY:
+                    connected = reader.readBoolean();
+                    break;
+                case INDEX_KEY:
+                    index = reader.readInt();
+                    break;
+                case LAST_NETWORK_KEY:
+                    last = reader.readBoolean();
+                    break;
+                default:
+                    reader.skip();
+                    break;
+            }
         }
     }
 
     private static String bytesToHexString(byte[] bytes) {
+        if (bytes == null) {
+            return "null";
+        }
         StringBuilder sb = new StringBuilder(bytes.length * 2);
         Formatter formatter = new Formatter(sb);
         for (int i =0; i< bytes.length; i++) {
@@ -17,11 +17,8 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborWriter;
 
 import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.SAVE_NETWORK_REQ;
 
@@ -55,33 +52,37 @@ public class SaveNetworkReq {
     public boolean connect = true;
 
     private static final String TAG = "SaveNetworkRequest";
-    private static final String INDEX_KEY = "g";
-    private static final String SSID_KEY = "r";
-    private static final String BSSID_KEY = "b";
-    private static final String PSK_KEY = "m";
-    private static final String SECURITY_KEY = "q";
-    private static final String TYPE_KEY = "w";
-    private static final String CONNECT_KEY = "y";
+    private static final char INDEX_KEY = 'g';
+    private static final char SSID_KEY = 'r';
+    private static final char BSSID_KEY = 'b';
+    private static final char PSK_KEY = 'm';
+    private static final char SECURITY_KEY = 'q';
+    private static final char TYPE_KEY = 'w';
+    private static final char CONNECT_KEY = 'y';
 
     public byte[] encode() {
         byte[] SaveNetworkRequestBytes = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(TYPE_KEY, SAVE_NETWORK_REQ)
-                    .put(INDEX_KEY, index)
-                    .put(SSID_KEY, ssid)
-                    .put(BSSID_KEY, bssid)
-                    .put(PSK_KEY, psk)
-                    .put(SECURITY_KEY, security)
-                    .put(CONNECT_KEY, connect)
-                    .end()
-                    .build());
-            SaveNetworkRequestBytes = baos.toByteArray();
+            CborWriter writer = new CborWriter();
+            encode(writer);
+            SaveNetworkRequestBytes = writer.toByteArray();
         } catch (CborException e) {
             Log.e(TAG, "Failed to encode.", e);
         }
         return SaveNetworkRequestBytes;
     }
+
+    /**
+     * Encode the request into a writer, which may be backed by a caller-supplied buffer.
+     */
+    public void encode(CborWriter writer) throws CborException {
+        writer.writeMapStart(7)
+                .writeKey(TYPE_KEY).writeInt(SAVE_NETWORK_REQ)
+                .writeKey(INDEX_KEY).writeInt(index)
+                .writeKey(SSID_KEY).writeString(ssid)
+                .writeKey(BSSID_KEY).writeBytes(bssid)
+                .writeKey(PSK_KEY).writeString(psk)
+                .writeKey(SECURITY_KEY).writeInt(security)
+                .writeKey(CONNECT_KEY).writeBoolean(connect);
+    }
 }
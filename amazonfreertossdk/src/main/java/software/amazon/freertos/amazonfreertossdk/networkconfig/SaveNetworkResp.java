@@ -17,17 +17,12 @@ package software.amazon.freertos.amazonfreertossdk.networkconfig;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-import co.nstant.in.cbor.CborDecoder;
-import co.nstant.in.cbor.CborException;
-import co.nstant.in.cbor.model.DataItem;
-import co.nstant.in.cbor.model.Map;
-
-import co.nstant.in.cbor.model.UnicodeString;
-import co.nstant.in.cbor.model.UnsignedInteger;
 import lombok.Getter;
+import software.amazon.freertos.amazonfreertossdk.MessageDispatcher;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
 
 /**
  * Save network response
@@ -43,22 +38,39 @@ public class SaveNetworkResp {
     }
 
     private static final String TAG = "SaveNetworkResponse";
-    private static final String STATUS_KEY = "s";
+    private static final char STATUS_KEY = 's';
 
     public boolean decode(byte[] cborEncodedBytes) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(cborEncodedBytes);
+        return decode(new CborReader(ByteBuffer.wrap(cborEncodedBytes)));
+    }
+
+    /**
+     * Decode the message from a reader positioned at its start. Every field is overwritten, so
+     * the same object can be reused to decode the next message.
+     */
+    public boolean decode(CborReader reader) {
         try {
-            List<DataItem> dataItems = new CborDecoder(bais).decode();
-            // process data item
-            Map map = (Map) dataItems.get(0);
-            DataItem dataItem = map.get(new UnicodeString(STATUS_KEY));
-            status = ((UnsignedInteger) dataItem).getValue().intValue();
+            reader.readMapStart();
+            decodeEntries(reader);
             return true;
         } catch (CborException e) {
             Log.e(TAG,"Failed to decode.", e);
             return false;
-        } catch (IndexOutOfBoundsException e) {
-            return false;
+        }
+    }
+
+    /**
+     * Decode the entries of the message map that are left once a {@link MessageDispatcher} has
+     * read the message type. Every field is overwritten, so the same object can be reused.
+     */
+    public void decodeEntries(CborReader reader) throws CborException {
+        status = 0;
+        while (reader.hasNext()) {
+            if (reader.readKey() == STATUS_KEY) {
+                status = reader.readInt();
+            } else {
+                reader.skip();
+            }
         }
     }
 }
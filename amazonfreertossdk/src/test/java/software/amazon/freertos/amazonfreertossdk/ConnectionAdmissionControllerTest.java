@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that ConnectionAdmissionController keeps the number of open links under its limit,
+ * admits waiting devices by priority, and rotates links in visit mode.
+ */
+public class ConnectionAdmissionControllerTest {
+    private final List<String> mEvents = new ArrayList<>();
+
+    private ConnectionAdmissionController.Link link(final String address) {
+        return new ConnectionAdmissionController.Link() {
+            @Override
+            public void open() {
+                synchronized (mEvents) {
+                    mEvents.add("open " + address);
+                    mEvents.notifyAll();
+                }
+            }
+
+            @Override
+            public void close() {
+                synchronized (mEvents) {
+                    mEvents.add("close " + address);
+                    mEvents.notifyAll();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void admitsByPriorityWithinLimit() {
+        ConnectionAdmissionController admission = new ConnectionAdmissionController(
+                HashedWheelTimer.getInstance(), 2, 0);
+        admission.setPriority("d", 5);
+        for (String address : new String[] {"a", "b", "c", "d", "e"}) {
+            admission.request(address, link(address));
+        }
+        assertEquals(Arrays.asList("open a", "open b"), mEvents);
+        assertEquals(2, admission.getActiveLinks());
+        assertEquals(3, admission.getPendingCount());
+
+        // A released link counts until it is closed.
+        admission.release("a");
+        assertEquals(2, admission.getActiveLinks());
+        assertEquals(Arrays.asList("open a", "open b"), mEvents);
+        admission.onLinkClosed("a");
+        assertEquals(Arrays.asList("open a", "open b", "open d"), mEvents);
+
+        // A waiting device gives up its place.
+        admission.release("c");
+        admission.onLinkClosed("b");
+        assertEquals(Arrays.asList("open a", "open b", "open d", "open e"), mEvents);
+        assertEquals(0, admission.getPendingCount());
+        assertEquals(1, admission.getWaitStats("e").getAdmissions());
+        assertEquals(0, admission.getWaitStats("c").getAdmissions());
+    }
+
+    @Test
+    public void releasedLinkIsFreedAfterCloseTimeout() throws InterruptedException {
+        ConnectionAdmissionController admission = new ConnectionAdmissionController(
+                HashedWheelTimer.getInstance(), 1, 0);
+        admission.request("a", link("a"));
+        admission.request("b", link("b"));
+        admission.release("a");
+        awaitEvents(2);
+        assertEquals(Arrays.asList("open a", "open b"), mEvents);
+        assertEquals(1, admission.getActiveLinks());
+    }
+
+    @Test
+    public void raisingLimitAdmitsWaitingDevices() {
+        ConnectionAdmissionController admission = new ConnectionAdmissionController(
+                HashedWheelTimer.getInstance(), 1, 0);
+        admission.request("a", link("a"));
+        admission.request("b", link("b"));
+        admission.setMaxLinks(2);
+        assertEquals(Arrays.asList("open a", "open b"), mEvents);
+    }
+
+    @Test
+    public void rotatesLinksInVisitMode() throws InterruptedException {
+        ConnectionAdmissionController admission = new ConnectionAdmissionController(
+                HashedWheelTimer.getInstance(), 1, 50);
+        admission.request("a", link("a"));
+        admission.request("b", link("b"));
+        awaitEvents(2);
+        assertEquals("close a", mEvents.get(1));
+        admission.onLinkClosed("a");
+        assertEquals("open b", mEvents.get(2));
+        ConnectionWaitStats stats = admission.getWaitStats("a");
+        assertEquals(1, stats.getRotations());
+
+        // Device a went back to the queue and gets its next turn.
+        awaitEvents(4);
+        assertEquals("close b", mEvents.get(3));
+        admission.onLinkClosed("b");
+        assertEquals("open a", mEvents.get(4));
+        assertEquals(2, admission.getWaitStats("a").getAdmissions());
+        // The snapshot taken before does not change.
+        assertEquals(1, stats.getAdmissions());
+
+        // Without waiting devices, the link is kept.
+        admission.release("b");
+        admission.onLinkClosed("b");
+        Thread.sleep(200);
+        assertEquals(5, mEvents.size());
+        assertTrue(admission.toString().contains("waiting: 0"));
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AmazonFreeRTOSConstants.LINK_CLOSE_TIMEOUT + 5000;
+        synchronized (mEvents) {
+            while (mEvents.size() < count && System.currentTimeMillis() < deadline) {
+                mEvents.wait(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.CONNECTION_PRIORITY_RAISE_BYTES;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.CONNECTION_PRIORITY_RAISE_DEPTH;
+
+/**
+ * Checks when ConnectionPriorityGovernor raises and drops the connection priority, and how it
+ * accounts the time spent in each priority.
+ */
+public class ConnectionPriorityGovernorTest {
+    private static final int HIGH = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
+    private static final int BALANCED = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private static final long IDLE_MILLIS = 2000;
+    private static final long START = 1000;
+
+    private final ConnectionPriorityGovernor mGovernor = new ConnectionPriorityGovernor();
+
+    public ConnectionPriorityGovernorTest() {
+        mGovernor.setIdlePolicy(BALANCED, IDLE_MILLIS);
+        mGovernor.onConnected(START);
+    }
+
+    @Test
+    public void raisesOnBulkBytes() {
+        assertEquals(-1, mGovernor.onActivity(CONNECTION_PRIORITY_RAISE_BYTES - 1, 0, START + 10));
+        assertEquals(BALANCED, mGovernor.getPriority());
+        // Bulk bytes add up across activity.
+        assertEquals(HIGH, mGovernor.onActivity(1, 0, START + 20));
+        assertEquals(HIGH, mGovernor.getPriority());
+        // Already raised, so there is nothing more to request.
+        assertEquals(-1, mGovernor.onActivity(CONNECTION_PRIORITY_RAISE_BYTES, 0, START + 30));
+        assertEquals(1, mGovernor.getPriorityChanges());
+    }
+
+    @Test
+    public void raisesOnQueueDepth() {
+        assertEquals(-1, mGovernor.onActivity(0, CONNECTION_PRIORITY_RAISE_DEPTH - 1, START + 10));
+        assertEquals(HIGH, mGovernor.onActivity(0, CONNECTION_PRIORITY_RAISE_DEPTH, START + 20));
+    }
+
+    @Test
+    public void holdsThroughShortGapsAndDropsWhenIdle() {
+        long now = START + 10;
+        assertEquals(HIGH, mGovernor.onActivity(0, CONNECTION_PRIORITY_RAISE_DEPTH, now));
+
+        // Gaps shorter than the idle period keep the priority.
+        for (int i = 0; i < 5; i++) {
+            now += IDLE_MILLIS - 1;
+            assertEquals(-1, mGovernor.onIdleCheck(0, now));
+            assertEquals(-1, mGovernor.onActivity(10, 0, now));
+        }
+        // Pending commands count as activity.
+        now += IDLE_MILLIS;
+        assertEquals(-1, mGovernor.onIdleCheck(1, now));
+        assertEquals(HIGH, mGovernor.getPriority());
+
+        now += IDLE_MILLIS;
+        assertEquals(BALANCED, mGovernor.onIdleCheck(0, now));
+        assertEquals(BALANCED, mGovernor.getPriority());
+        assertEquals(-1, mGovernor.onIdleCheck(0, now + IDLE_MILLIS));
+
+        // The bulk bytes counted before the drop do not count towards the next raise.
+        assertEquals(-1, mGovernor.onActivity(CONNECTION_PRIORITY_RAISE_BYTES - 1, 0, now + 1));
+    }
+
+    @Test
+    public void countsTimeInPriorityWhileConnected() {
+        mGovernor.onActivity(0, CONNECTION_PRIORITY_RAISE_DEPTH, START + 100);
+        mGovernor.onIdleCheck(0, START + 100 + IDLE_MILLIS);
+        mGovernor.onDisconnected(START + 100 + IDLE_MILLIS + 50);
+        assertEquals(150, mGovernor.getTimeInPriority(BALANCED));
+        assertEquals(IDLE_MILLIS, mGovernor.getTimeInPriority(HIGH));
+
+        // Time is not counted while disconnected, and a new link starts at balanced priority.
+        mGovernor.onConnected(START + 10000);
+        mGovernor.onActivity(0, CONNECTION_PRIORITY_RAISE_DEPTH, START + 10300);
+        mGovernor.onDisconnected(START + 10500);
+        assertEquals(450, mGovernor.getTimeInPriority(BALANCED));
+        assertEquals(IDLE_MILLIS + 200, mGovernor.getTimeInPriority(HIGH));
+        assertEquals(3, mGovernor.getPriorityChanges());
+    }
+}
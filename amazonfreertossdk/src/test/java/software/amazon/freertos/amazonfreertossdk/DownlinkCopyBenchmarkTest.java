@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Publish;
+
+/**
+ * Compares the bytes copied for a downlink MQTT PUBLISH, from the payload received from the
+ * cloud to the fragments written to the device, between the joined encoding the SDK used to
+ * send and the header and payload views it sends now. The bytes allocated on the heap per message
+ * are measured on JVMs that report them.
+ *
+ * The numbers depend on the JVM and its JIT, so this is a benchmark rather than a check: it only
+ * prints its table, and is ignored unless run by hand. PublishFragmentsTest checks that both
+ * encodings send the same bytes.
+ */
+@Ignore("Benchmark, run by hand")
+public class DownlinkCopyBenchmarkTest {
+    private static final int FRAGMENT_SIZE = 509;
+    private static final int ITERATIONS = 200;
+    private static final int[] PAYLOAD_SIZES = {256, 4 * 1024, 64 * 1024};
+
+    private final FragmentBufferPool mPool = new FragmentBufferPool();
+    /**
+     * Keeps the string of the path before from being optimized away.
+     */
+    private long mLoggedLength = 0;
+
+    public DownlinkCopyBenchmarkTest() {
+        mPool.setBufferSize(FRAGMENT_SIZE);
+    }
+
+    @Test
+    public void printsCopiedAndAllocatedBytes() {
+        System.out.println("payload | copied before | copied after | allocated before | allocated after");
+        for (int size : PAYLOAD_SIZES) {
+            Publish publish = new Publish(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, "bench/topic",
+                    1, 1, new byte[size]);
+            long copiedBefore = sendJoined(publish);
+            long copiedAfter = sendViews(publish);
+            long allocatedBefore = allocatedPerMessage(publish, true);
+            long allocatedAfter = allocatedPerMessage(publish, false);
+            System.out.println(size + " | " + copiedBefore + " | " + copiedAfter + " | "
+                    + allocatedBefore + " | " + allocatedAfter);
+        }
+    }
+
+    /**
+     * The path before: the payload decoded into a string that was only logged, the whole
+     * message encoded and copied out of the encoder, then fragments copied out of the message.
+     * @return the bytes copied.
+     */
+    private long sendJoined(Publish publish) {
+        byte[] payload = publish.getPayload();
+        mLoggedLength += new String(payload, StandardCharsets.UTF_8).length();
+        byte[] message = publish.encode();
+        long copied = payload.length + 2L * message.length;
+        return copied + writeFragments(new MessageFragmenter(message, FRAGMENT_SIZE, 0));
+    }
+
+    /**
+     * The path now: the header encoded and copied out of the encoder, then fragments copied
+     * from the header and the payload.
+     * @return the bytes copied.
+     */
+    private long sendViews(Publish publish) {
+        FrameSource frames = publish.encodeFrames();
+        long copied = 2L * (frames.getLength() - publish.getPayload().length);
+        return copied + writeFragments(new MessageFragmenter(frames, FRAGMENT_SIZE, 0));
+    }
+
+    private long writeFragments(MessageFragmenter fragmenter) {
+        long copied = 0;
+        do {
+            byte[] fragment = fragmenter.copyFragment(mPool);
+            copied += fragment.length;
+            mPool.release(fragment);
+        } while (fragmenter.advance());
+        return copied;
+    }
+
+    /**
+     * @return the bytes allocated per message, or -1 if the JVM does not report them.
+     */
+    private long allocatedPerMessage(Publish publish, boolean joined) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Method allocatedBytes;
+        try {
+            allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            return -1;
+        }
+        long threadId = Thread.currentThread().getId();
+        try {
+            // Warm up, then measure.
+            for (int i = 0; i < ITERATIONS; i++) {
+                send(publish, joined);
+            }
+            long start = (Long) allocatedBytes.invoke(bean, threadId);
+            for (int i = 0; i < ITERATIONS; i++) {
+                send(publish, joined);
+            }
+            long end = (Long) allocatedBytes.invoke(bean, threadId);
+            return start < 0 ? -1 : (end - start) / ITERATIONS;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private void send(Publish publish, boolean joined) {
+        if (joined) {
+            sendJoined(publish);
+        } else {
+            sendViews(publish);
+        }
+    }
+}
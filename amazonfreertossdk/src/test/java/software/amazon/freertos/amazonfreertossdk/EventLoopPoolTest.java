@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that EventLoopPool spreads devices over its loops by their MAC address, keeps count of
+ * the devices assigned to each loop, and only runs the loops that have devices.
+ */
+public class EventLoopPoolTest {
+    private static final int DEVICES = 4000;
+
+    private static String address(int i) {
+        return String.format(Locale.US, "24:0A:C4:%02X:%02X:%02X",
+                (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+    }
+
+    @Test
+    public void spreadsDevicesEvenly() {
+        EventLoopPool pool = new EventLoopPool(4);
+        int[] counts = new int[pool.getSize()];
+        for (int i = 0; i < DEVICES; i++) {
+            counts[pool.indexOf(address(i))]++;
+        }
+        for (int count : counts) {
+            // Within half of the even share of each loop.
+            assertTrue(count > DEVICES / 8 && count < DEVICES * 3 / 8);
+        }
+    }
+
+    @Test
+    public void countsAssignedDevices() {
+        EventLoopPool pool = new EventLoopPool(2);
+        String first = address(1);
+        int loop = pool.indexOf(first);
+        pool.acquire(first);
+        pool.acquire(first);
+        assertEquals(1, pool.getDeviceCount(loop));
+        assertTrue(pool.isRunning(loop));
+        pool.release(first);
+        assertEquals(0, pool.getDeviceCount(loop));
+        assertFalse(pool.isRunning(loop));
+        pool.release(first);
+        assertEquals(0, pool.getDeviceCount(loop));
+        pool.acquire(first);
+        assertTrue(pool.isRunning(loop));
+    }
+}
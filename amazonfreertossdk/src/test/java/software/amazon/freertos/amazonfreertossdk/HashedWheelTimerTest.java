@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that HashedWheelTimer runs tasks once their delay has passed, in order, including tasks
+ * due several rotations of the wheel later, and that cancelled tasks do not run.
+ */
+public class HashedWheelTimerTest {
+    private static final long TICK_MILLIS = 5;
+    /**
+     * A rotation of the wheel takes 40ms, so most delays below span several rounds.
+     */
+    private static final int WHEEL_SIZE = 8;
+
+    private final HashedWheelTimer mTimer = new HashedWheelTimer(TICK_MILLIS, WHEEL_SIZE);
+    private final List<Long> mRuns = new ArrayList<>();
+
+    private Runnable record(final long delayMillis, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mRuns) {
+                    mRuns.add(delayMillis);
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void runsTasksAfterTheirDelay() throws InterruptedException {
+        long[] delays = {150, 10, 45, 90, 0};
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            mTimer.schedule(record(delay, done), delay);
+        }
+        assertEquals(delays.length, mTimer.getPendingCount());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsed >= 150);
+        synchronized (mRuns) {
+            assertEquals(5, mRuns.size());
+            for (int i = 1; i < mRuns.size(); i++) {
+                assertTrue(mRuns.get(i - 1) < mRuns.get(i));
+            }
+        }
+        assertEquals(0, mTimer.getPendingCount());
+    }
+
+    @Test
+    public void doesNotRunTasksBeforeTheirRound() throws InterruptedException {
+        // The second task falls in the bucket of the first one, three rotations later.
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch later = new CountDownLatch(1);
+        long start = System.nanoTime();
+        mTimer.schedule(record(20, first), 20);
+        mTimer.schedule(record(140, later), 140);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertEquals(1, later.getCount());
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 140);
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws InterruptedException {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        HashedWheelTimer.Timeout near = mTimer.schedule(record(30, cancelled), 30);
+        HashedWheelTimer.Timeout far = mTimer.schedule(record(200, cancelled), 200);
+        HashedWheelTimer.Timeout last = mTimer.schedule(record(250, done), 250);
+        assertTrue(near.cancel());
+        assertTrue(far.cancel());
+        assertFalse(far.cancel());
+        assertEquals(1, mTimer.getPendingCount());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+        assertFalse(last.cancel());
+        assertEquals(0, mTimer.getPendingCount());
+    }
+
+    @Test
+    public void resumesAfterIdling() throws InterruptedException {
+        CountDownLatch first = new CountDownLatch(1);
+        mTimer.schedule(record(10, first), 10);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        // The worker waits while the wheel is empty, and is woken by the next task.
+        Thread.sleep(100);
+        CountDownLatch second = new CountDownLatch(1);
+        long start = System.nanoTime();
+        mTimer.schedule(record(60, second), 60);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 60 && elapsed < 1000);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Publish;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that MessageBatcher packs small messages into frames that are unpacked into the same
+ * messages.
+ */
+public class MessageBatcherTest {
+    private static final int MAX_FRAME_LENGTH = 100;
+
+    private final List<byte[]> mFrames = new ArrayList<>();
+    private final MessageBatcher mBatcher = new MessageBatcher(new MessageBatcher.Sink() {
+        @Override
+        public void send(FrameSource frame) {
+            byte[] data = new byte[frame.getLength()];
+            frame.read(0, data, 0, data.length);
+            synchronized (mFrames) {
+                mFrames.add(data);
+                mFrames.notifyAll();
+            }
+        }
+    }, new MessageBatcher.Scheduler() {
+        @Override
+        public HashedWheelTimer.Timeout schedule(Runnable task, long delayMillis) {
+            return HashedWheelTimer.getInstance().schedule(task, delayMillis);
+        }
+    }, 60000);
+
+    private final MessageDispatcher mDispatcher = new MessageDispatcher("Test");
+    private final List<Integer> mMsgIDs = new ArrayList<>();
+
+    public MessageBatcherTest() {
+        mDispatcher.register(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH,
+                new MessageDispatcher.Handler() {
+                    @Override
+                    public void onMessage(int type, CborReader reader) throws CborException {
+                        Publish publish = new Publish();
+                        publish.decodeEntries(type, reader);
+                        mMsgIDs.add(publish.getMsgID());
+                    }
+                });
+        mDispatcher.register(AmazonFreeRTOSConstants.MQTT_MSG_BATCH,
+                new MessageDispatcher.Handler() {
+                    @Override
+                    public void onMessage(int type, CborReader reader) throws CborException {
+                        MessageBatcher.dispatchBatch(reader, mDispatcher);
+                    }
+                });
+    }
+
+    @Test
+    public void packsMessagesUntilTheFrameIsFull() {
+        for (int i = 1; i <= 10; i++) {
+            mBatcher.add(publish(i, 10), MAX_FRAME_LENGTH);
+        }
+        mBatcher.flush();
+        assertTrue(mFrames.size() > 1 && mFrames.size() < 10);
+        for (byte[] frame : mFrames) {
+            assertTrue(frame.length <= MAX_FRAME_LENGTH);
+            assertTrue(mDispatcher.dispatch(ByteBuffer.wrap(frame)));
+        }
+        assertEquals(10, mMsgIDs.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, (int) mMsgIDs.get(i));
+        }
+    }
+
+    @Test
+    public void sendsLoneAndOversizedMessagesWithoutEnvelope() {
+        byte[] small = publish(1, 4);
+        mBatcher.add(small, MAX_FRAME_LENGTH);
+        mBatcher.flush();
+        byte[] large = publish(2, MAX_FRAME_LENGTH);
+        mBatcher.add(large, MAX_FRAME_LENGTH);
+        assertEquals(2, mFrames.size());
+        assertArrayEquals(small, mFrames.get(0));
+        assertArrayEquals(large, mFrames.get(1));
+    }
+
+    @Test
+    public void sendsTheBatchAfterTheLingerTime() throws InterruptedException {
+        mBatcher.setLingerMillis(40);
+        mBatcher.add(publish(1, 4), MAX_FRAME_LENGTH);
+        mBatcher.add(publish(2, 4), MAX_FRAME_LENGTH);
+        synchronized (mFrames) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mFrames.isEmpty() && System.currentTimeMillis() < deadline) {
+                mFrames.wait(100);
+            }
+        }
+        assertEquals(1, mFrames.size());
+        assertTrue(mDispatcher.dispatch(ByteBuffer.wrap(mFrames.get(0))));
+        assertEquals(2, mMsgIDs.size());
+    }
+
+    private static byte[] publish(int msgID, int payloadLength) {
+        return new Publish(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, "t", msgID, 1,
+                new byte[payloadLength]).encode();
+    }
+}
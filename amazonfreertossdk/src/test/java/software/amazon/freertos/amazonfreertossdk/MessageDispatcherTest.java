@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Publish;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that MessageDispatcher routes each message to the handler of its type.
+ */
+public class MessageDispatcherTest {
+    private final MessageDispatcher mDispatcher = new MessageDispatcher("Test");
+    private final Publish mPublish = new Publish();
+    private int mHandledType = -1;
+
+    public MessageDispatcherTest() {
+        mDispatcher.register(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH,
+                new MessageDispatcher.Handler() {
+                    @Override
+                    public void onMessage(int type, CborReader reader) throws CborException {
+                        mHandledType = type;
+                        mPublish.decodeEntries(type, reader);
+                    }
+                });
+    }
+
+    @Test
+    public void decodesTheBodyAfterTheType() {
+        byte[] message = new Publish(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, "a/b", 5, 1,
+                new byte[] {1, 2}).encode();
+        assertTrue(mDispatcher.dispatch(ByteBuffer.wrap(message)));
+        assertEquals(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, mHandledType);
+        assertEquals("a/b", mPublish.getTopic());
+        assertEquals(5, mPublish.getMsgID());
+        assertArrayEquals(new byte[] {1, 2}, mPublish.getPayload());
+    }
+
+    @Test
+    public void decodesEntriesBeforeTheType() {
+        // {"u": "t", "n": 0, "k": h'09', "w": 3}
+        assertTrue(mDispatcher.dispatch(ByteBuffer.wrap(hex("a461756174616e00616b4109617703"))));
+        assertEquals("t", mPublish.getTopic());
+        assertArrayEquals(new byte[] {9}, mPublish.getPayload());
+    }
+
+    @Test
+    public void dropsUnknownAndUntypedMessages() {
+        // {"w": 20}
+        assertFalse(mDispatcher.dispatch(ByteBuffer.wrap(hex("a1617714"))));
+        // {"u": "t"}
+        assertFalse(mDispatcher.dispatch(ByteBuffer.wrap(hex("a161756174"))));
+        assertEquals(-1, mHandledType);
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks where MessageFragmenter cuts a message, including the empty fragment that ends a message
+ * of a whole number of fragments, and that FragmentBufferPool reuses full size buffers.
+ */
+public class MessageFragmenterTest {
+    private static final int FRAGMENT_SIZE = 4;
+
+    private final FragmentBufferPool mPool = new FragmentBufferPool();
+
+    public MessageFragmenterTest() {
+        mPool.setBufferSize(FRAGMENT_SIZE);
+    }
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (i + 1);
+        }
+        return message;
+    }
+
+    private List<byte[]> fragments(byte[] message, int credits) {
+        MessageFragmenter fragmenter = new MessageFragmenter(message, FRAGMENT_SIZE, credits);
+        List<byte[]> fragments = new ArrayList<>();
+        do {
+            byte[] fragment = fragmenter.copyFragment(mPool);
+            fragments.add(fragment.clone());
+            mPool.release(fragment);
+        } while (fragmenter.advance());
+        assertEquals(fragmenter.getFragmentCount(), fragments.size());
+        return fragments;
+    }
+
+    @Test
+    public void cutsAtFragmentSize() {
+        byte[] message = message(10);
+        List<byte[]> fragments = fragments(message, 0);
+        assertEquals(3, fragments.size());
+        assertArrayEquals(Arrays.copyOfRange(message, 0, 4), fragments.get(0));
+        assertArrayEquals(Arrays.copyOfRange(message, 4, 8), fragments.get(1));
+        assertArrayEquals(Arrays.copyOfRange(message, 8, 10), fragments.get(2));
+    }
+
+    @Test
+    public void endsFullFragmentsWithEmptyOne() {
+        byte[] message = message(2 * FRAGMENT_SIZE);
+        List<byte[]> fragments = fragments(message, 0);
+        assertEquals(3, fragments.size());
+        assertArrayEquals(Arrays.copyOfRange(message, 4, 8), fragments.get(1));
+        assertEquals(0, fragments.get(2).length);
+
+        // An empty message is a single empty fragment.
+        fragments = fragments(new byte[0], 0);
+        assertEquals(1, fragments.size());
+        assertEquals(0, fragments.get(0).length);
+    }
+
+    @Test
+    public void acknowledgesEveryCreditWindowAndLastFragment() {
+        MessageFragmenter fragmenter = new MessageFragmenter(message(7 * FRAGMENT_SIZE + 1),
+                FRAGMENT_SIZE, 3);
+        StringBuilder pattern = new StringBuilder();
+        do {
+            pattern.append(fragmenter.isWithoutResponse() ? 'n' : 'A');
+        } while (fragmenter.advance());
+        assertEquals("nnAnnAnA", pattern.toString());
+
+        fragmenter = new MessageFragmenter(message(2 * FRAGMENT_SIZE), FRAGMENT_SIZE, 0);
+        assertFalse(fragmenter.isWithoutResponse());
+    }
+
+    @Test
+    public void poolReusesFullSizeBuffers() {
+        byte[] full = mPool.acquire(FRAGMENT_SIZE);
+        mPool.release(full);
+        assertSame(full, mPool.acquire(FRAGMENT_SIZE));
+
+        // Shorter fragments get a buffer of their exact length, which is not pooled.
+        byte[] tail = mPool.acquire(FRAGMENT_SIZE - 1);
+        assertEquals(FRAGMENT_SIZE - 1, tail.length);
+        mPool.release(tail);
+        assertEquals(FRAGMENT_SIZE, mPool.acquire(FRAGMENT_SIZE).length);
+        assertSame(mPool.acquire(0), mPool.acquire(0));
+
+        // Changing the size drops the buffers of the previous size.
+        mPool.release(full);
+        mPool.setBufferSize(2 * FRAGMENT_SIZE);
+        byte[] larger = mPool.acquire(2 * FRAGMENT_SIZE);
+        assertEquals(2 * FRAGMENT_SIZE, larger.length);
+        assertTrue(larger != full);
+        mPool.release(full);
+        assertTrue(mPool.acquire(2 * FRAGMENT_SIZE) != full);
+    }
+}
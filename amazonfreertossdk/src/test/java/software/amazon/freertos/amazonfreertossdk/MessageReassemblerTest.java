@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that MessageReassembler joins chunks into one message, drops messages over the limits of
+ * the message or of the device, and spills large messages to a file, and that
+ * ReassemblyBufferPool hands out and reuses buffers by size class.
+ */
+public class MessageReassemblerTest {
+    private final ReassemblyBufferPool mPool = ReassemblyBufferPool.getInstance();
+    private File mSpillDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillDir = File.createTempFile("reassembly", "");
+        assertTrue(mSpillDir.delete() && mSpillDir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mSpillDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSpillDir.delete();
+    }
+
+    private static byte[] chunk(int length, int seed) {
+        byte[] chunk = new byte[length];
+        for (int i = 0; i < length; i++) {
+            chunk[i] = (byte) (seed + i);
+        }
+        return chunk;
+    }
+
+    private static byte[] bytes(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private MessageReassembler reassembler(MessageReassembler.Limits limits) {
+        return new MessageReassembler("Test", mPool, limits, mSpillDir);
+    }
+
+    @Test
+    public void joinsChunks() {
+        MessageReassembler reassembler = reassembler(
+                new MessageReassembler.Limits(10000, 10000, 10000));
+        byte[] first = chunk(300, 0);
+        byte[] second = chunk(400, 50);
+        assertTrue(reassembler.append(first));
+        assertTrue(reassembler.append(second, 100, 300));
+        assertEquals(600, reassembler.size());
+
+        ByteBuffer message = reassembler.getMessage();
+        assertTrue(message.isReadOnly());
+        byte[] expected = new byte[600];
+        System.arraycopy(first, 0, expected, 0, 300);
+        System.arraycopy(second, 100, expected, 300, 300);
+        assertArrayEquals(expected, bytes(message));
+
+        reassembler.release();
+        assertEquals(0, reassembler.size());
+        assertEquals(0, reassembler.getMessage().remaining());
+    }
+
+    @Test
+    public void dropsMessageOverMessageLimit() {
+        MessageReassembler reassembler = reassembler(
+                new MessageReassembler.Limits(100, 10000, 10000));
+        assertTrue(reassembler.append(chunk(60, 0)));
+        assertFalse(reassembler.append(chunk(60, 0)));
+        // The rest of a dropped message is ignored, even if it would fit.
+        assertFalse(reassembler.append(chunk(1, 0)));
+        assertEquals(0, reassembler.size());
+
+        reassembler.release();
+        assertTrue(reassembler.append(chunk(100, 0)));
+    }
+
+    @Test
+    public void dropsMessageOverDeviceLimit() {
+        MessageReassembler.Limits limits = new MessageReassembler.Limits(10000, 1024, 10000);
+        MessageReassembler first = reassembler(limits);
+        MessageReassembler second = reassembler(limits);
+        // Takes a buffer of 1024 bytes, all the device may hold.
+        assertTrue(first.append(chunk(600, 0)));
+        assertFalse(second.append(chunk(10, 0)));
+
+        first.release();
+        second.release();
+        assertTrue(second.append(chunk(10, 0)));
+        // Growing the buffer to 2048 bytes would go over the limit.
+        assertFalse(second.append(chunk(1500, 0)));
+    }
+
+    @Test
+    public void spillsLargeMessages() {
+        // The device limit only bounds heap buffers, not spilled messages.
+        MessageReassembler reassembler = reassembler(
+                new MessageReassembler.Limits(100000, 1024, 1000));
+        byte[] first = chunk(800, 0);
+        byte[] second = chunk(4000, 7);
+        assertTrue(reassembler.append(first));
+        assertEquals(0, mSpillDir.list().length);
+        assertTrue(reassembler.append(second));
+        assertEquals(1, mSpillDir.list().length);
+        assertEquals(4800, reassembler.size());
+
+        byte[] expected = new byte[4800];
+        System.arraycopy(first, 0, expected, 0, 800);
+        System.arraycopy(second, 0, expected, 800, 4000);
+        assertArrayEquals(expected, bytes(reassembler.getMessage()));
+
+        reassembler.release();
+        assertEquals(0, mSpillDir.list().length);
+    }
+
+    @Test
+    public void poolServesSizeClasses() {
+        assertEquals(512, ReassemblyBufferPool.capacityFor(1));
+        assertEquals(512, ReassemblyBufferPool.capacityFor(512));
+        assertEquals(1024, ReassemblyBufferPool.capacityFor(513));
+        assertEquals(1024 * 1024, ReassemblyBufferPool.capacityFor(1024 * 1024));
+        // Larger messages get a buffer of their exact size.
+        assertEquals(1024 * 1024 + 1, ReassemblyBufferPool.capacityFor(1024 * 1024 + 1));
+
+        ByteBuffer buffer = mPool.acquire(3000);
+        assertEquals(4096, buffer.capacity());
+        buffer.put((byte) 1);
+        mPool.release(buffer);
+        ByteBuffer reused = mPool.acquire(4096);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        mPool.release(reused);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that NotificationRing hands notifications from one thread to another in order, and
+ * counts the ones dropped while it is full.
+ */
+public class NotificationRingTest {
+    private static final int NOTIFICATIONS = 100000;
+
+    private final List<byte[]> mValues = new ArrayList<>();
+    private final NotificationRing.Consumer mCollector = new NotificationRing.Consumer() {
+        @Override
+        public void onNotification(int handle, byte[] value) {
+            assertEquals(value[0], handle);
+            mValues.add(value);
+        }
+    };
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1, new NotificationRing(1).getCapacity());
+        assertEquals(64, new NotificationRing(64).getCapacity());
+        assertEquals(128, new NotificationRing(65).getCapacity());
+    }
+
+    @Test
+    public void dropsWhileFull() {
+        NotificationRing ring = new NotificationRing(4);
+        byte[][] values = new byte[6][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[] {(byte) i};
+            assertEquals(i < 4, ring.offer(i, values[i]));
+        }
+        assertEquals(4, ring.getDepth());
+        assertEquals(6, ring.getReceived());
+        assertEquals(2, ring.getDropped());
+
+        assertEquals(4, ring.drain(mCollector));
+        assertEquals(0, ring.getDepth());
+        assertEquals(4, ring.getHighWaterMark());
+        for (int i = 0; i < 4; i++) {
+            assertSame(values[i], mValues.get(i));
+        }
+        assertTrue(ring.offer(6, new byte[] {6}));
+        ring.clear();
+        assertEquals(0, ring.drain(mCollector));
+    }
+
+    @Test
+    public void deliversInOrderAcrossThreads() throws InterruptedException {
+        final NotificationRing ring = new NotificationRing(16);
+        final byte[][] values = new byte[NOTIFICATIONS][];
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            values[i] = new byte[] {(byte) (i & 0x7f)};
+        }
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < NOTIFICATIONS; i++) {
+                    while (!ring.offer(values[i][0], values[i])) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        while (mValues.size() < NOTIFICATIONS) {
+            if (ring.drain(mCollector) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            assertSame(values[i], mValues.get(i));
+        }
+        // Every offer refused while the ring was full was counted as a drop.
+        assertEquals(ring.getReceived() - NOTIFICATIONS, ring.getDropped());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Publish;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks that the fragments written to the device for a downlink MQTT PUBLISH, copied from the
+ * header and payload views of the message, carry the same bytes as its joined encoding.
+ */
+public class PublishFragmentsTest {
+    private static final int FRAGMENT_SIZE = 509;
+
+    private final FragmentBufferPool mPool = new FragmentBufferPool();
+
+    public PublishFragmentsTest() {
+        mPool.setBufferSize(FRAGMENT_SIZE);
+    }
+
+    @Test
+    public void viewFragmentsMatchJoinedEncoding() {
+        for (int size : new int[] {0, 1, 20, FRAGMENT_SIZE, 3 * FRAGMENT_SIZE + 7}) {
+            byte[] payload = new byte[size];
+            for (int i = 0; i < size; i++) {
+                payload[i] = (byte) i;
+            }
+            Publish publish = new Publish(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, "t", 1, 1,
+                    payload);
+            for (int fragmentSize : new int[] {1, 7, FRAGMENT_SIZE}) {
+                MessageFragmenter fragmenter = new MessageFragmenter(publish.encodeFrames(),
+                        fragmentSize, 0);
+                ByteArrayOutputStream joined = new ByteArrayOutputStream();
+                do {
+                    byte[] fragment = fragmenter.copyFragment(mPool);
+                    joined.write(fragment, 0, fragment.length);
+                    mPool.release(fragment);
+                } while (fragmenter.advance());
+                assertArrayEquals(publish.encode(), joined.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT_CEILING;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BLE_COMMAND_TIMEOUT_FLOOR;
+import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.READ_CHARACTERISTIC;
+import static software.amazon.freertos.amazonfreertossdk.BleCommand.CommandType.WRITE_CHARACTERISTIC;
+
+/**
+ * Checks the round trip time estimates and timeouts of RttEstimator against RFC 6298.
+ */
+public class RttEstimatorTest {
+    private final RttEstimator mEstimator = new RttEstimator();
+
+    @Test
+    public void followsRfc6298() {
+        mEstimator.setBounds(0, BLE_COMMAND_TIMEOUT_CEILING);
+        assertEquals(BLE_COMMAND_TIMEOUT, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+
+        // First sample: SRTT = R, RTTVAR = R / 2.
+        mEstimator.addSample(WRITE_CHARACTERISTIC, 100);
+        assertEquals(100, mEstimator.getSmoothedRtt(WRITE_CHARACTERISTIC));
+        assertEquals(50, mEstimator.getRttVariance(WRITE_CHARACTERISTIC));
+        assertEquals(300, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+
+        // RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, then SRTT = 7/8 SRTT + 1/8 R.
+        mEstimator.addSample(WRITE_CHARACTERISTIC, 200);
+        assertEquals(112, mEstimator.getSmoothedRtt(WRITE_CHARACTERISTIC));
+        assertEquals(62, mEstimator.getRttVariance(WRITE_CHARACTERISTIC));
+        assertEquals(112 + 4 * 62, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+        assertEquals(2, mEstimator.getSampleCount(WRITE_CHARACTERISTIC));
+
+        // Each type has its own estimate.
+        assertEquals(0, mEstimator.getSampleCount(READ_CHARACTERISTIC));
+        assertEquals(BLE_COMMAND_TIMEOUT, mEstimator.getTimeout(READ_CHARACTERISTIC));
+    }
+
+    @Test
+    public void backsOffUntilNextSample() {
+        mEstimator.setBounds(0, 1000);
+        mEstimator.addSample(WRITE_CHARACTERISTIC, 100);
+        mEstimator.onTimeout(WRITE_CHARACTERISTIC);
+        assertEquals(600, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+        mEstimator.onTimeout(WRITE_CHARACTERISTIC);
+        assertEquals(1000, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+
+        // A new sample replaces the backed off timeout with the estimate.
+        mEstimator.addSample(WRITE_CHARACTERISTIC, 100);
+        assertEquals(100, mEstimator.getSmoothedRtt(WRITE_CHARACTERISTIC));
+        assertEquals(37, mEstimator.getRttVariance(WRITE_CHARACTERISTIC));
+        assertEquals(100 + 4 * 37, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+    }
+
+    @Test
+    public void boundsTimeout() {
+        mEstimator.addSample(WRITE_CHARACTERISTIC, 10);
+        assertEquals(BLE_COMMAND_TIMEOUT_FLOOR, mEstimator.getTimeout(WRITE_CHARACTERISTIC));
+        mEstimator.addSample(READ_CHARACTERISTIC, 60000);
+        assertEquals(BLE_COMMAND_TIMEOUT_CEILING, mEstimator.getTimeout(READ_CHARACTERISTIC));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedBounds() {
+        mEstimator.setBounds(1000, 500);
+    }
+}
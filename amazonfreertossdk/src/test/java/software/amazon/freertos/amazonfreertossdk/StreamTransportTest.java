@@ -0,0 +1,116 @@
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the framing of StreamTransport over a loopback pair, without a radio.
+ */
+public class StreamTransportTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private StreamTransport mPhone;
+    private StreamTransport mDevice;
+    private RecordingListener mPhoneListener = new RecordingListener();
+    private RecordingListener mDeviceListener = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        StreamTransport[] pair = StreamTransport.createLoopbackPair();
+        mPhone = pair[0];
+        mDevice = pair[1];
+        mPhone.open(mPhoneListener);
+        mDevice.open(mDeviceListener);
+        assertTrue(mPhoneListener.opened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(mDeviceListener.opened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mPhone.close();
+        mDevice.close();
+    }
+
+    @Test
+    public void messagesKeepTheirBoundaries() throws Exception {
+        byte[] empty = new byte[0];
+        byte[] small = new byte[] {1, 2, 3};
+        byte[] large = new byte[10000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        mPhone.send(small);
+        mPhone.send(empty);
+        mPhone.send(large);
+
+        assertArrayEquals(small, mDeviceListener.poll());
+        assertArrayEquals(empty, mDeviceListener.poll());
+        assertArrayEquals(large, mDeviceListener.poll());
+    }
+
+    @Test
+    public void messagesFlowInBothDirections() throws Exception {
+        mPhone.send(new byte[] {1});
+        mDevice.send(new byte[] {2});
+
+        assertArrayEquals(new byte[] {1}, mDeviceListener.poll());
+        assertArrayEquals(new byte[] {2}, mPhoneListener.poll());
+    }
+
+    @Test
+    public void closingOneEndClosesTheOther() throws Exception {
+        mPhone.close();
+
+        assertTrue(mDeviceListener.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(mDevice.isOpen());
+        assertNull(mDeviceListener.cause);
+    }
+
+    @Test(expected = IOException.class)
+    public void sendAfterCloseFails() throws Exception {
+        mPhone.close();
+        mPhone.send(new byte[] {1});
+    }
+
+    private static class RecordingListener implements MqttProxyTransport.Listener {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        final BlockingQueue<FrameSource> unsent = new LinkedBlockingQueue<>();
+        volatile IOException cause;
+
+        byte[] poll() throws InterruptedException {
+            return messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onOpened() {
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(byte[] message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onClosed(IOException cause) {
+            this.cause = cause;
+            closed.countDown();
+        }
+
+        @Override
+        public void onSendFailed(FrameSource message) {
+            unsent.add(message);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.TXLARGE_STREAM_HEADER_MARKER;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.TXLARGE_STREAM_HEADER_SIZE;
+
+/**
+ * Checks that TxLargeStream parses the stream header, joins the notifications of a message,
+ * drops messages that overrun their header or stall, and drops notifications until the next
+ * header afterwards. Stall checks are run by hand rather than by the timer.
+ */
+public class TxLargeStreamTest {
+    /**
+     * Only used to hand out cancellable timeouts; their tasks never get due.
+     */
+    private final HashedWheelTimer mTimer = new HashedWheelTimer(1000, 8);
+    private final List<Runnable> mStallChecks = new ArrayList<>();
+    private final TxLargeStream mStream = new TxLargeStream(
+            new MessageReassembler("Test", ReassemblyBufferPool.getInstance(),
+                    new MessageReassembler.Limits(10000, 100000, 100000), null),
+            new MessageBatcher.Scheduler() {
+                @Override
+                public HashedWheelTimer.Timeout schedule(Runnable task, long delayMillis) {
+                    mStallChecks.add(task);
+                    return mTimer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                        }
+                    }, 3600000);
+                }
+            });
+
+    private static byte[] chunk(int length, int seed) {
+        byte[] chunk = new byte[length];
+        for (int i = 0; i < length; i++) {
+            chunk[i] = (byte) (seed + i);
+        }
+        return chunk;
+    }
+
+    private static byte[] header(int length, byte[] payload) {
+        return ByteBuffer.allocate(TXLARGE_STREAM_HEADER_SIZE + payload.length)
+                .put(TXLARGE_STREAM_HEADER_MARKER)
+                .putInt(length)
+                .put(payload)
+                .array();
+    }
+
+    private static byte[] bytes(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private void runLastStallCheck() {
+        mStallChecks.get(mStallChecks.size() - 1).run();
+    }
+
+    @Test
+    public void parsesTheHeader() {
+        assertTrue(TxLargeStream.isHeader(header(3, new byte[0])));
+        assertFalse(TxLargeStream.isHeader(new byte[] {0, 0, 0}));
+        assertFalse(TxLargeStream.isHeader(new byte[] {(byte) 0xA1, 0, 0, 0, 3}));
+        assertFalse(TxLargeStream.isHeader(null));
+
+        byte[] payload = chunk(20, 0);
+        ByteBuffer message = mStream.onNotification(header(20, payload));
+        assertNotNull(message);
+        assertArrayEquals(payload, bytes(message));
+        assertFalse(mStream.isActive());
+        assertTrue(mStream.isStreaming());
+        mStream.release();
+    }
+
+    @Test
+    public void joinsTheNotificationsOfAMessage() {
+        byte[] first = chunk(100, 0);
+        byte[] second = chunk(150, 7);
+        byte[] third = chunk(50, 13);
+        assertNull(mStream.onNotification(header(300, first)));
+        assertTrue(mStream.isActive());
+        assertNull(mStream.onNotification(second));
+        ByteBuffer message = mStream.onNotification(third);
+        assertNotNull(message);
+        byte[] expected = ByteBuffer.allocate(300).put(first).put(second).put(third).array();
+        assertArrayEquals(expected, bytes(message));
+        assertFalse(mStream.isActive());
+        mStream.release();
+        assertEquals(1, mStallChecks.size());
+    }
+
+    @Test
+    public void dropsAMessageThatOverrunsItsHeader() {
+        assertNull(mStream.onNotification(header(100, chunk(60, 0))));
+        assertNull(mStream.onNotification(chunk(60, 1)));
+        assertFalse(mStream.isActive());
+    }
+
+    @Test
+    public void resyncsOnTheNextHeader() {
+        assertNull(mStream.onNotification(header(100, chunk(60, 0))));
+        assertNull(mStream.onNotification(chunk(60, 1)));
+
+        // The tail of the overrun message is dropped rather than read as a new message.
+        assertNull(mStream.onNotification(chunk(30, 2)));
+        assertNull(mStream.onNotification(chunk(30, 3)));
+        assertFalse(mStream.isActive());
+        assertTrue(mStream.isStreaming());
+        assertEquals(2, mStream.getSkipped());
+
+        byte[] payload = chunk(40, 4);
+        ByteBuffer message = mStream.onNotification(header(40, payload));
+        assertNotNull(message);
+        assertArrayEquals(payload, bytes(message));
+        mStream.release();
+    }
+
+    @Test
+    public void dropsAMessageThatStalls() {
+        assertNull(mStream.onNotification(header(300, chunk(100, 0))));
+        assertNull(mStream.onNotification(chunk(100, 1)));
+
+        // A notification arrived since the check was armed, so it is armed again.
+        runLastStallCheck();
+        assertTrue(mStream.isActive());
+        assertEquals(0, mStream.getStalls());
+        assertEquals(2, mStallChecks.size());
+
+        runLastStallCheck();
+        assertFalse(mStream.isActive());
+        assertEquals(1, mStream.getStalls());
+
+        // The rest of the stalled message is dropped until the next header.
+        assertNull(mStream.onNotification(chunk(100, 2)));
+        assertEquals(1, mStream.getSkipped());
+        byte[] payload = chunk(30, 3);
+        ByteBuffer message = mStream.onNotification(header(30, payload));
+        assertNotNull(message);
+        assertArrayEquals(payload, bytes(message));
+        mStream.release();
+    }
+
+    @Test
+    public void ignoresAStallCheckOfAnEarlierMessage() {
+        assertNull(mStream.onNotification(header(200, chunk(100, 0))));
+        Runnable earlierCheck = mStallChecks.get(0);
+        assertNotNull(mStream.onNotification(chunk(100, 1)));
+        mStream.release();
+
+        assertNull(mStream.onNotification(header(200, chunk(100, 2))));
+        earlierCheck.run();
+        assertTrue(mStream.isActive());
+        assertEquals(0, mStream.getStalls());
+    }
+
+    @Test
+    public void dropsAnInvalidLength() {
+        assertNull(mStream.onNotification(header(0, new byte[0])));
+        assertNull(mStream.onNotification(header(-5, chunk(10, 0))));
+        assertFalse(mStream.isActive());
+        assertTrue(mStallChecks.isEmpty());
+    }
+
+    @Test
+    public void forgetsStreamingOnReset() {
+        assertNull(mStream.onNotification(header(200, chunk(100, 0))));
+        mStream.reset();
+        assertFalse(mStream.isActive());
+        assertFalse(mStream.isStreaming());
+    }
+}
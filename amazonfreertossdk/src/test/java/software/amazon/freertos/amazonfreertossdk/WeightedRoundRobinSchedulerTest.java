@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package software.amazon.freertos.amazonfreertossdk;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants.BleCommandLane;
+
+/**
+ * Checks that WeightedRoundRobinScheduler shares the link between lanes in proportion to their
+ * weights, serves strict priority lanes ahead of the round-robin, and hands out snapshots of
+ * the lane statistics.
+ */
+public class WeightedRoundRobinSchedulerTest {
+    private final WeightedRoundRobinScheduler mScheduler = new WeightedRoundRobinScheduler();
+    private final Map<BleCommand, BleCommandLane> mLanes = new IdentityHashMap<>();
+
+    private void add(BleCommandLane lane, int count) {
+        for (int i = 0; i < count; i++) {
+            BleCommand command = new BleCommand(BleCommand.CommandType.WRITE_CHARACTERISTIC);
+            mLanes.put(command, lane);
+            mScheduler.add(lane, command);
+        }
+    }
+
+    private BleCommandLane pollLane() {
+        return mLanes.get(mScheduler.poll());
+    }
+
+    @Test
+    public void sharesLanesByWeight() {
+        mScheduler.setWeight(BleCommandLane.CONTROL, 3);
+        mScheduler.setWeight(BleCommandLane.NETWORK_CONFIG, 2);
+        mScheduler.setWeight(BleCommandLane.MQTT_BULK, 1);
+        add(BleCommandLane.CONTROL, 100);
+        add(BleCommandLane.NETWORK_CONFIG, 100);
+        add(BleCommandLane.MQTT_BULK, 100);
+
+        // Each round serves 3 + 2 + 1 commands while every lane is backlogged.
+        int[] served = new int[BleCommandLane.values().length];
+        for (int i = 0; i < 60; i++) {
+            served[pollLane().ordinal()]++;
+        }
+        assertEquals(30, served[BleCommandLane.CONTROL.ordinal()]);
+        assertEquals(20, served[BleCommandLane.NETWORK_CONFIG.ordinal()]);
+        assertEquals(10, served[BleCommandLane.MQTT_BULK.ordinal()]);
+        assertEquals(0, served[BleCommandLane.DEVICE_INFO.ordinal()]);
+        assertEquals(240, mScheduler.size());
+    }
+
+    @Test
+    public void idleLaneDoesNotSaveCredit() {
+        mScheduler.setWeight(BleCommandLane.CONTROL, 4);
+        add(BleCommandLane.MQTT_BULK, 10);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(BleCommandLane.MQTT_BULK, pollLane());
+        }
+        // CONTROL was idle while MQTT_BULK was served, so it only gets its weight per turn.
+        add(BleCommandLane.CONTROL, 10);
+        int control = 0;
+        for (int i = 0; i < 10; i++) {
+            if (pollLane() == BleCommandLane.CONTROL) {
+                control++;
+            }
+        }
+        assertEquals(8, control);
+    }
+
+    @Test
+    public void strictPriorityPreemptsRoundRobin() {
+        mScheduler.setWeight(BleCommandLane.MQTT_BULK, 8);
+        add(BleCommandLane.MQTT_BULK, 8);
+        assertEquals(BleCommandLane.MQTT_BULK, pollLane());
+
+        // Served next, although MQTT_BULK has credit left in its turn.
+        add(BleCommandLane.MQTT_CONTROL, 2);
+        assertEquals(BleCommandLane.MQTT_CONTROL, mLanes.get(mScheduler.peek()));
+        assertEquals(BleCommandLane.MQTT_CONTROL, pollLane());
+        assertEquals(BleCommandLane.MQTT_CONTROL, pollLane());
+
+        // MQTT_BULK resumes its turn where it left it.
+        for (int i = 0; i < 7; i++) {
+            assertEquals(BleCommandLane.MQTT_BULK, pollLane());
+        }
+        assertNull(mScheduler.poll());
+    }
+
+    @Test
+    public void laneStatsAreSnapshots() {
+        add(BleCommandLane.MQTT_BULK, 3);
+        LaneStats stats = mScheduler.getLaneStats(BleCommandLane.MQTT_BULK);
+        pollLane();
+        assertEquals(3, stats.getDepth());
+        assertEquals(0, stats.getDequeued());
+        stats = mScheduler.getLaneStats(BleCommandLane.MQTT_BULK);
+        assertEquals(2, stats.getDepth());
+        assertEquals(3, stats.getMaxDepth());
+        assertEquals(1, stats.getDequeued());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk.cbor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import software.amazon.freertos.amazonfreertossdk.MessageType;
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Connect;
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Publish;
+import software.amazon.freertos.amazonfreertossdk.mqttproxy.Subscribe;
+import software.amazon.freertos.amazonfreertossdk.networkconfig.ListNetworkResp;
+import software.amazon.freertos.amazonfreertossdk.networkconfig.SaveNetworkReq;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the CBOR codec against the bytes the device exchanges with the SDK.
+ */
+public class CborCodecTest {
+
+    @Test
+    public void encodesTheExistingWireFormat() {
+        Subscribe subscribe = new Subscribe();
+        subscribe.type = 8;
+        subscribe.msgID = 300;
+        subscribe.topics.add("t/1");
+        subscribe.topics.add("t/2");
+        subscribe.qoSs.add(0);
+        subscribe.qoSs.add(1);
+        assertArrayEquals(hex("a461770861768263742f3163742f32616919012c616f820001"),
+                subscribe.encode());
+
+        Connect connect = new Connect();
+        connect.type = 1;
+        assertArrayEquals(hex("a46177016164f66161f66163f4"), connect.encode());
+
+        SaveNetworkReq save = new SaveNetworkReq();
+        save.ssid = "ssid";
+        save.bssid = new byte[] {1, 2, 3, 4, 5, 6};
+        save.psk = "pw";
+        save.security = 3;
+        save.index = -1;
+        assertArrayEquals(hex("a761770361672061726473736964616246010203040506616d62707761710361"
+                + "79f5"), save.encode());
+    }
+
+    @Test
+    public void roundTripsIntoReusedObjects() {
+        byte[] payload = new byte[70000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        Publish decoded = new Publish();
+        assertTrue(decoded.decode(new Publish(3, "a/b", 7, 1, payload).encode()));
+        assertEquals("a/b", decoded.getTopic());
+        assertEquals(7, decoded.getMsgID());
+        assertArrayEquals(payload, decoded.getPayload());
+
+        assertTrue(decoded.decode(new Publish(3, "c", 9, 0, new byte[] {1}).encode()));
+        assertEquals("c", decoded.getTopic());
+        assertEquals(0, decoded.getMsgID());
+        assertArrayEquals(new byte[] {1}, decoded.getPayload());
+    }
+
+    @Test
+    public void decodesUnknownKeysAndIndefiniteMaps() {
+        // {_ "s": 0, "p": -67, "x": [1, {"a": null}], "e": true, "l": true}
+        ListNetworkResp resp = new ListNetworkResp();
+        assertTrue(resp.decode(hex("bf6173006170384261788201a16161f66165f5616cf5ff")));
+        assertEquals(-67, resp.getRssi());
+        assertTrue(resp.getConnected());
+        assertTrue(resp.getLast());
+        assertNull(resp.getSsid());
+
+        MessageType messageType = new MessageType();
+        assertTrue(messageType.decode(hex("a2617865616263646561770b")));
+        assertEquals(11, messageType.type);
+    }
+
+    @Test
+    public void rejectsTruncatedMessages() {
+        assertFalse(new MessageType().decode(hex("a26173")));
+        assertFalse(new ListNetworkResp().decode(hex("a1617258")));
+    }
+
+    @Test
+    public void rejectsDeeplyNestedItems() {
+        // {"x": [[[ ... ]]], "w": 11}, nested far deeper than the reader allows.
+        StringBuilder nested = new StringBuilder("a26178");
+        for (int i = 0; i < 100000; i++) {
+            nested.append("81");
+        }
+        nested.append("0061770b");
+        assertFalse(new MessageType().decode(hex(nested.toString())));
+    }
+
+    @Test
+    public void encodesIntoCallerBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.put((byte) 0x55);
+        new CborWriter(buffer).writeMapStart(1).writeKey('w').writeInt(-500);
+        assertEquals(7, buffer.position());
+        assertArrayEquals(hex("55a161773901f3"), java.util.Arrays.copyOf(buffer.array(), 7));
+
+        try {
+            new CborWriter(ByteBuffer.allocate(2)).writeString("abc");
+            fail();
+        } catch (CborException e) {
+            // expected
+        }
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
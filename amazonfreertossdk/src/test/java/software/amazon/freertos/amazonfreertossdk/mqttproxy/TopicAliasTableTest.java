@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package software.amazon.freertos.amazonfreertossdk.mqttproxy;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import software.amazon.freertos.amazonfreertossdk.AmazonFreeRTOSConstants;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborException;
+import software.amazon.freertos.amazonfreertossdk.cbor.CborReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that PUBLISH topics sent as aliases are resolved by the receiver.
+ */
+public class TopicAliasTableTest {
+    private static final String TOPIC = "dt/fleet/thing-0001/telemetry/temperature";
+
+    private final TopicAliasTable mSent = new TopicAliasTable();
+    private final TopicAliasTable mReceived = new TopicAliasTable();
+
+    @Test
+    public void replacesRepeatedTopicsWithAliases() throws CborException {
+        mSent.reset(2);
+        mReceived.reset(2);
+        byte[] full = publish(TOPIC, 1).encode();
+        byte[] first = encode(TOPIC, 1);
+        byte[] second = encode(TOPIC, 2);
+        assertTrue(first.length > full.length);
+        assertTrue(second.length < full.length - TOPIC.length());
+
+        assertEquals(TOPIC, decode(first).getTopic());
+        Publish decoded = decode(second);
+        assertEquals(TOPIC, decoded.getTopic());
+        assertEquals(2, decoded.getMsgID());
+        assertArrayEquals(new byte[] {1, 2, 3}, decoded.getPayload());
+
+        assertEquals(1, mReceived.getAliasHits());
+        assertEquals(2, mReceived.getPublishes());
+        assertTrue(mReceived.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void sendsTopicsInFullWhenTheTableIsFull() throws CborException {
+        mSent.reset(1);
+        mReceived.reset(1);
+        decode(encode("a/1", 1));
+        byte[] other = encode("a/2", 2);
+        assertArrayEquals(publish("a/2", 2).encode(), other);
+        assertEquals("a/2", decode(other).getTopic());
+        assertEquals("a/1", decode(encode("a/1", 3)).getTopic());
+    }
+
+    @Test
+    public void dropsTheTopicOfUnknownAliases() throws CborException {
+        mSent.reset(4);
+        mReceived.reset(4);
+        encode(TOPIC, 1);
+        assertNull(decode(encode(TOPIC, 2)).getTopic());
+    }
+
+    @Test
+    public void resendsTopicsAfterADroppedFrame() throws CborException {
+        mSent.reset(4);
+        mReceived.reset(4);
+        // The frame that introduces the alias never reaches the receiver.
+        encode(TOPIC, 1);
+        mSent.resendTopics();
+
+        byte[] again = encode(TOPIC, 2);
+        assertTrue(again.length > publish(TOPIC, 2).encode().length);
+        assertEquals(TOPIC, decode(again).getTopic());
+        byte[] aliased = encode(TOPIC, 3);
+        assertEquals(TOPIC, decode(aliased).getTopic());
+        assertEquals(1, mSent.getAliasHits());
+        assertEquals(1, mReceived.getAliasHits());
+    }
+
+    @Test
+    public void keepsTheWireFormatWithoutAliases() {
+        byte[] full = publish(TOPIC, 1).encode();
+        assertArrayEquals(full, encode(TOPIC, 1));
+    }
+
+    private byte[] encode(String topic, int msgID) {
+        byte[] header = publish(topic, msgID).encodeHeader(mSent);
+        byte[] message = new byte[header.length + 3];
+        System.arraycopy(header, 0, message, 0, header.length);
+        System.arraycopy(new byte[] {1, 2, 3}, 0, message, header.length, 3);
+        return message;
+    }
+
+    private Publish decode(byte[] message) throws CborException {
+        CborReader reader = new CborReader(ByteBuffer.wrap(message));
+        reader.readMapStart();
+        Publish publish = new Publish();
+        publish.decodeEntries(0, reader, mReceived);
+        return publish;
+    }
+
+    private static Publish publish(String topic, int msgID) {
+        return new Publish(AmazonFreeRTOSConstants.MQTT_MSG_PUBLISH, topic, msgID, 1,
+                new byte[] {1, 2, 3});
+    }
+}